@@ -0,0 +1,225 @@
+package com.example.test_fx;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// active-tile scheduling for the Jacobi and SOR sweeps: the grid is cut into square tiles and a sweep only relaxes
+// the tiles that changed by more than a threshold in their last sweep or lie next to one that did; far from the
+// heat points the grid settles early, so a sparse layout of heat points costs in proportion to the region that
+// still moves instead of the whole grid; a change can only cross into a tile through its four sides, so the four
+// neighbours are all a moving tile has to wake up
+//
+// a skipped tile still drifts by a little in every sweep of its moving neighbours, so the largest change of a sweep
+// that skipped tiles says nothing about them; converged only ends a solve after a sweep of the whole grid
+//
+// the active tiles are a bitmap that prepare turns into a worklist, and every member of a thread team pulls tiles
+// from it one at a time, so the team shares the work however unevenly it is spread over the grid; prepare and
+// finish run on one thread between the sweeps, relax and relaxColor on any number of threads
+public class ActiveTiles {
+
+    private final Grid grid;
+    private final boolean inPlace; // SOR updates the grid in place, Jacobi writes the spare buffer
+    private final int tileSize; // columns and rows of a tile
+    private final int columns, rows; // tiles across and down the grid
+    private final double threshold; // a tile that changed by at most this much is left alone until a neighbour moves
+    private final double[] tileDelta; // largest change of every tile of the worklist in the current sweep
+    private final long[] active; // tiles the next sweep relaxes, bit t % 64 of word t / 64
+    private final long[] stale; // tiles whose two buffers differ, a Jacobi sweep that skips one copies it over
+    private final int[] worklist; // tiles of the current sweep, ~t for a stale tile that is only copied
+    private final AtomicInteger[] cursor = {new AtomicInteger(), new AtomicInteger()}; // next entry of each pass
+    private int size; // entries of the worklist
+    private boolean complete; // the current sweep relaxes every tile
+    private long relaxedCells; // cells the current sweep relaxes
+
+    // threshold is usually a fraction of the tolerance the solver stops at; every tile starts active
+    public ActiveTiles(Grid grid, SolverType solver, int tileSize, double threshold) {
+        this.grid = grid;
+        this.inPlace = solver == SolverType.SOR;
+        this.tileSize = Math.max(1, tileSize);
+        this.columns = (grid.width + this.tileSize - 1) / this.tileSize;
+        this.rows = (grid.height + this.tileSize - 1) / this.tileSize;
+        this.threshold = threshold;
+
+        int tiles = columns * rows;
+        this.tileDelta = new double[tiles];
+        this.active = new long[(tiles + 63) >>> 6];
+        this.stale = new long[active.length];
+        this.worklist = new int[tiles];
+        for (int t = 0; t < tiles; t++) {
+            active[t >>> 6] |= 1L << t;
+            stale[t >>> 6] |= 1L << t; // the buffers may already differ when the grid was swept before
+        }
+    }
+
+    // tiles the next sweep relaxes
+    public int getActive() {
+        int count = 0;
+        for (long word : active) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // whether the current or last sweep relaxes every tile
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // cells relaxed by the current or last sweep, the number of cell updates it is worth
+    public long getRelaxedCells() {
+        return relaxedCells;
+    }
+
+    // whether a solve to the tolerance can stop after the sweep that finish returned maxDelta for; a sweep that
+    // skipped tiles wakes every tile instead, so the next one finds out how far the skipped tiles drifted; between
+    // finish and the next prepare
+    public boolean converged(double maxDelta, double tolerance) {
+        if (maxDelta > tolerance) {
+            return false;
+        }
+        if (complete) {
+            return true;
+        }
+        wake(0, 0, grid.width, grid.height);
+        return false;
+    }
+
+    // activates the tiles overlapping columns [x0, x1) and rows [y0, y1) after the grid changed there outside the
+    // sweeps, for example when a heat point was edited; only between sweeps
+    public void wake(int x0, int y0, int x1, int y1) {
+        int firstColumn = Math.max(0, x0 / tileSize);
+        int lastColumn = Math.min(columns - 1, (x1 - 1) / tileSize);
+        int firstRow = Math.max(0, y0 / tileSize);
+        int lastRow = Math.min(rows - 1, (y1 - 1) / tileSize);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                activate(row * columns + column);
+            }
+        }
+    }
+
+    // one sweep on the calling thread, returns the largest temperature change; a Jacobi sweep leaves the swap of
+    // the buffers to the caller like Grid.relax
+    public double sweep(double omega) {
+        prepare();
+        if (inPlace) {
+            relaxColor(0, omega);
+            relaxColor(1, omega);
+        } else {
+            relax();
+        }
+        return finish();
+    }
+
+    // builds the worklist of the next sweep from the active tiles, and for Jacobi the stale tiles it skips
+    public void prepare() {
+        int count = 0;
+        long cells = 0;
+        for (int w = 0; w < active.length; w++) {
+            long relaxed = active[w];
+            long copied = inPlace ? 0 : stale[w] & ~relaxed;
+            for (long bits = relaxed | copied; bits != 0; bits &= bits - 1) {
+                int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if ((relaxed & (1L << t)) != 0) {
+                    worklist[count++] = t;
+                    cells += (long) (tileEndX(t) - tileStartX(t)) * (tileEndY(t) - tileStartY(t));
+                } else {
+                    worklist[count++] = ~t;
+                }
+            }
+        }
+        size = count;
+        relaxedCells = cells;
+        complete = cells == (long) grid.width * grid.height;
+        cursor[0].set(0);
+        cursor[1].set(0);
+    }
+
+    // Jacobi pass, relaxes tiles of the worklist from the current buffer into the next one until none is left
+    public void relax() {
+        double[] current = grid.current();
+        double[] next = grid.next();
+        int width = grid.width;
+        for (int k = cursor[0].getAndIncrement(); k < size; k = cursor[0].getAndIncrement()) {
+            int entry = worklist[k];
+            if (entry >= 0) {
+                tileDelta[entry] = grid.relax(tileStartX(entry), tileEndX(entry), tileStartY(entry), tileEndY(entry));
+            } else {
+                // skipped, but the swap must not bring back its older values
+                int t = ~entry;
+                int x0 = tileStartX(t);
+                int length = tileEndX(t) - x0;
+                for (int y = tileStartY(t), end = tileEndY(t); y < end; y++) {
+                    System.arraycopy(current, y * width + x0, next, y * width + x0, length);
+                }
+            }
+        }
+    }
+
+    // SOR half-sweep of one colour over the tiles of the worklist until none is left; every member has to finish
+    // the first colour before any of them starts the second
+    public void relaxColor(int color, double omega) {
+        AtomicInteger pass = cursor[color];
+        for (int k = pass.getAndIncrement(); k < size; k = pass.getAndIncrement()) {
+            int t = worklist[k];
+            double delta = grid.relaxColor(color, omega, tileStartX(t), tileEndX(t), tileStartY(t), tileEndY(t));
+            tileDelta[t] = (color == 0) ? delta : Math.max(tileDelta[t], delta);
+        }
+    }
+
+    // ends the sweep once every pass is done, returns its largest change and picks the tiles of the next sweep
+    public double finish() {
+        double maxDelta = 0;
+        Arrays.fill(active, 0);
+        for (int k = 0; k < size; k++) {
+            int entry = worklist[k];
+            if (entry < 0) {
+                stale[~entry >>> 6] &= ~(1L << ~entry); // both buffers hold the same values now
+                continue;
+            }
+            double delta = tileDelta[entry];
+            maxDelta = Math.max(maxDelta, delta);
+            if (!inPlace) {
+                stale[entry >>> 6] |= 1L << entry;
+            }
+            if (delta > threshold) {
+                int column = entry % columns;
+                int row = entry / columns;
+                activate(entry);
+                if (column > 0) {
+                    activate(entry - 1);
+                }
+                if (column < columns - 1) {
+                    activate(entry + 1);
+                }
+                if (row > 0) {
+                    activate(entry - columns);
+                }
+                if (row < rows - 1) {
+                    activate(entry + columns);
+                }
+            }
+        }
+        return maxDelta;
+    }
+
+    private void activate(int t) {
+        active[t >>> 6] |= 1L << t;
+    }
+
+    private int tileStartX(int t) {
+        return (t % columns) * tileSize;
+    }
+
+    private int tileEndX(int t) {
+        return Math.min(grid.width, tileStartX(t) + tileSize);
+    }
+
+    private int tileStartY(int t) {
+        return (t / columns) * tileSize;
+    }
+
+    private int tileEndY(int t) {
+        return Math.min(grid.height, tileStartY(t) + tileSize);
+    }
+}
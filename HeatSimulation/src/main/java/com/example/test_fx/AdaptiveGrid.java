@@ -0,0 +1,589 @@
+package com.example.test_fx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// adaptive mesh for the steady state of a grid too large to store uniformly: a quadtree whose leaves are blocks of
+// BLOCK x BLOCK cells, where a block on level l has cells of 2^(maxLevel - l) x 2^(maxLevel - l) cells of the
+// uniform grid it stands for; blocks holding a heat point are refined down to the cells of the uniform grid, blocks
+// with steep temperature differences between neighbouring cells are refined and flat ones coarsened again, so fine
+// cells only exist where the temperature needs them
+//
+// every leaf carries a ring of ghost cells around its cells; a neighbour on the same level copies its cells into
+// it, a coarser neighbour is interpolated bilinearly at the centre of the ghost cell and a finer one averaged over
+// its area; neighbouring leaves differ by at most one level, so every ghost cell comes from at most 2 x 2 cells or
+// an interpolation between the four nearest ones; the edges of the domain are insulated like those of Grid, a
+// ghost cell outside the domain mirrors the cell next to it
+//
+// the leaves are relaxed in place one after another in the order of the tree, so a sweep is a Gauss-Seidel or,
+// with omega above 1, an over-relaxation sweep over the whole mesh
+public class AdaptiveGrid {
+
+    public static final int BLOCK = 16; // cells across a block, on every level
+    public static final int DEFAULT_MIN_LEVEL = 3; // coarsest blocks cover an eighth of the domain in each direction
+    public static final double DEFAULT_REFINE_THRESHOLD = 1.0; // a step of the colour gradient of the window
+
+    private static final int SIDE = BLOCK + 2; // cells across a block with its ghost cells
+
+    // a node of the quadtree, a leaf holds the temperatures of its cells and the ghost cells around them
+    private static final class Block {
+        final int level;
+        final int x, y; // first cell of the uniform grid it covers
+        final int cell; // cells of the uniform grid across one of its cells
+        final int columns, rows; // cells inside the domain, fewer than BLOCK on the right and bottom edge
+        Block[] children; // quadrants in the order top left, top right, bottom left, bottom right, null for a leaf
+        double[] t; // temperatures with ghost cells, SIDE x SIDE, null unless a leaf
+        boolean[] fixed; // heat points among the cells, null if it has none
+        final Block[] neighbours = new Block[9]; // leaves on the same level around it by 3 x 3 position, or null
+        double indicator = Double.POSITIVE_INFINITY; // largest difference between neighbouring cells, none yet
+
+        Block(int level, int x, int y, int cell, int width, int height) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.cell = cell;
+            this.columns = Math.min(BLOCK, (int) ((width - (long) x + cell - 1) / cell));
+            this.rows = Math.min(BLOCK, (int) ((height - (long) y + cell - 1) / cell));
+        }
+
+        int span() {
+            return BLOCK * cell;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        boolean contains(int px, int py) {
+            return px >= x && py >= y && px - x < span() && py - y < span();
+        }
+    }
+
+    private final int width, height; // cells of the uniform grid
+    private final int maxLevel; // level of the blocks whose cells are cells of the uniform grid
+    private final int minLevel; // leaves never coarsen beyond this level
+    private final Block root;
+    private double refineThreshold = DEFAULT_REFINE_THRESHOLD;
+    private final List<int[]> points = new ArrayList<>(); // heat points as x, y
+    private final List<Double> pointValues = new ArrayList<>();
+    private List<Block> leaves = new ArrayList<>(); // in the order of the tree, so neighbours are mostly close
+    private double residual; // largest temperature change of the last sweep
+
+    // mesh standing for a uniform grid of width x height cells, refined evenly down to minLevel
+    public AdaptiveGrid(int width, int height, int minLevel) {
+        if (width >= 1 << 30 || height >= 1 << 30) {
+            throw new IllegalArgumentException("an adaptive grid of " + width + "x" + height + " cells is too large");
+        }
+        this.width = width;
+        this.height = height;
+        int level = 0;
+        while ((long) BLOCK << level < Math.max(width, height)) {
+            level++;
+        }
+        this.maxLevel = level;
+        this.minLevel = Math.max(0, Math.min(minLevel, maxLevel));
+        this.root = newLeaf(0, 0, 0);
+        refineEvenly(root);
+        link();
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    // number of leaf blocks
+    public int getBlocks() {
+        return leaves.size();
+    }
+
+    // cells the mesh stores, against width * height for the uniform grid
+    public long getCells() {
+        long cells = 0;
+        for (Block leaf : leaves) {
+            cells += (long) leaf.columns * leaf.rows;
+        }
+        return cells;
+    }
+
+    public double getResidual() {
+        return residual;
+    }
+
+    // blocks whose neighbouring cells differ by more than threshold degrees are refined, those below a quarter of
+    // it coarsened
+    public void setRefineThreshold(double threshold) {
+        this.refineThreshold = threshold;
+    }
+
+    // SOR factor for the mesh, a leaf and its neighbours are a couple of blocks across on every level
+    public double estimateOmega() {
+        return 2 / (1 + Math.sin(Math.PI / (2 * BLOCK)));
+    }
+
+    // fixes a cell of the uniform grid at the given temperature, the mesh is refined down to that cell
+    public void setFixed(int x, int y, double value) {
+        points.add(new int[]{x, y});
+        pointValues.add(value);
+        Block leaf = leafAt(x, y);
+        while (leaf.level < maxLevel) {
+            fillHalo(leaf);
+            refine(leaf);
+            leaf = leafAt(x, y);
+        }
+        if (leaf.fixed == null) {
+            leaf.fixed = new boolean[SIDE * SIDE];
+        }
+        int k = index((x - leaf.x) / leaf.cell, (y - leaf.y) / leaf.cell);
+        leaf.fixed[k] = true;
+        leaf.t[k] = value;
+        balance();
+        link();
+        fillHalos();
+    }
+
+    // one sweep over every leaf, returns the largest temperature change
+    public double sweep(double omega) {
+        double maxDelta = 0;
+        for (Block leaf : leaves) {
+            fillHalo(leaf);
+            maxDelta = Math.max(maxDelta, relax(leaf, omega));
+        }
+        residual = maxDelta;
+        return maxDelta;
+    }
+
+    // one sweep, and once it changed nothing by more than the threshold a refinement of the mesh; true once the
+    // temperatures are stable on a mesh that no longer changes
+    public boolean advance(double threshold, double omega) {
+        return sweep(omega) <= threshold && adapt() == 0;
+    }
+
+    // sweeps until the temperatures are stable on a mesh that no longer changes or maxIterations sweeps are done,
+    // returns the number of sweeps
+    public int solve(double threshold, int maxIterations, double omega) {
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            iterations++;
+            if (advance(threshold, omega)) {
+                break;
+            }
+        }
+        return iterations;
+    }
+
+    // refines the blocks with steep differences, coarsens the flat ones and restores the 2:1 balance between
+    // neighbours, returns the number of blocks refined or coarsened
+    public int adapt() {
+        for (Block leaf : leaves) {
+            fillHalo(leaf);
+            leaf.indicator = indicator(leaf);
+        }
+
+        int changed = 0;
+        for (Block leaf : new ArrayList<>(leaves)) {
+            if (leaf.level < maxLevel && leaf.indicator > refineThreshold) {
+                refine(leaf);
+                changed++;
+            }
+        }
+        changed += coarsen(root);
+        changed += balance();
+        link();
+        fillHalos();
+        return changed;
+    }
+
+    // temperature at a point of the uniform grid, interpolated between the centres of the cells of its leaf
+    public double get(double x, double y) {
+        Block leaf = leafAt((int) Math.min(width - 1, Math.max(0, x)), (int) Math.min(height - 1, Math.max(0, y)));
+        return interpolate(leaf, x, y);
+    }
+
+    // fills a uniform grid 2^k times coarser than the one the mesh stands for with the mean temperature over each
+    // of its cells, for the renderer and the snapshots
+    public void resample(Grid target) {
+        int size = width / target.width;
+        if (size <= 0 || Integer.bitCount(size) != 1 || target.width * size != width
+                || target.height * size != height) {
+            throw new IllegalArgumentException("a " + target.width + "x" + target.height + " grid does not divide "
+                    + width + "x" + height + " by a power of two");
+        }
+        for (int y = 0; y < target.height; y++) {
+            for (int x = 0; x < target.width; x++) {
+                target.set(x, y, sample(x * size, y * size, size));
+            }
+        }
+    }
+
+    // relaxes the cells of a leaf in place and returns the largest change
+    private static double relax(Block b, double omega) {
+        double[] t = b.t;
+        boolean[] fixed = b.fixed;
+        double maxDelta = 0;
+        for (int j = 0; j < b.rows; j++) {
+            for (int k = index(0, j), end = k + b.columns; k < end; k++) {
+                if (fixed != null && fixed[k]) {
+                    continue;
+                }
+                double average = (t[k - 1] + t[k + 1] + t[k - SIDE] + t[k + SIDE]) * 0.25;
+                double change = omega * (average - t[k]);
+                t[k] += change;
+                double delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+        }
+        return maxDelta;
+    }
+
+    // largest difference between neighbouring cells of a leaf, including those across its edges
+    private static double indicator(Block b) {
+        double[] t = b.t;
+        double largest = 0;
+        for (int j = -1; j < b.rows; j++) {
+            for (int i = -1; i < b.columns; i++) {
+                int k = index(i, j);
+                if (j >= 0) {
+                    largest = Math.max(largest, Math.abs(t[k + 1] - t[k]));
+                }
+                if (i >= 0) {
+                    largest = Math.max(largest, Math.abs(t[k + SIDE] - t[k]));
+                }
+            }
+        }
+        return largest;
+    }
+
+    // fills the ghost cells of a leaf from its neighbours
+    private void fillHalo(Block b) {
+        for (int i = -1; i <= b.columns; i++) {
+            b.t[index(i, -1)] = ghost(b, i, -1);
+            b.t[index(i, b.rows)] = ghost(b, i, b.rows);
+        }
+        for (int j = 0; j < b.rows; j++) {
+            b.t[index(-1, j)] = ghost(b, -1, j);
+            b.t[index(b.columns, j)] = ghost(b, b.columns, j);
+        }
+    }
+
+    // new leaves start with empty ghost cells, which their neighbours interpolate from until they are swept
+    private void fillHalos() {
+        for (Block leaf : leaves) {
+            fillHalo(leaf);
+        }
+    }
+
+    private double ghost(Block b, int i, int j) {
+        long x = b.x + (long) i * b.cell;
+        long y = b.y + (long) j * b.cell;
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            // insulated edge, the mirrored cell makes the average that of the neighbours inside
+            return b.t[index(Math.max(0, Math.min(i, b.columns - 1)), Math.max(0, Math.min(j, b.rows - 1)))];
+        }
+        int dx = (i < 0) ? -1 : (i >= b.columns) ? 1 : 0;
+        int dy = (j < 0) ? -1 : (j >= b.rows) ? 1 : 0;
+        Block n = b.neighbours[(dy + 1) * 3 + dx + 1];
+        if (n != null && n.t != null && n.isLeaf()) { // refining or coarsening may have replaced it since link
+            return n.t[index(i - dx * BLOCK, j - dy * BLOCK)];
+        }
+        return sample((int) x, (int) y, b.cell);
+    }
+
+    // mean temperature over the square of size x size cells of the uniform grid starting at x, y; size is a power
+    // of two and x, y are multiples of it
+    private double sample(int x, int y, int size) {
+        Block b = root;
+        while (!b.isLeaf() && size < b.span()) {
+            Block child = b.children[quadrant(b, x, y)];
+            if (child == null) {
+                break;
+            }
+            b = child;
+        }
+        return mean(b, x, y, size);
+    }
+
+    private double mean(Block b, int x, int y, int size) {
+        if (!b.isLeaf()) {
+            // the square covers the whole block
+            double sum = 0;
+            int count = 0;
+            for (Block child : b.children) {
+                if (child != null) {
+                    sum += mean(child, child.x, child.y, child.span());
+                    count++;
+                }
+            }
+            return sum / count;
+        }
+        if (b.cell >= size) {
+            return interpolate(b, x + size * 0.5, y + size * 0.5);
+        }
+        int i0 = Math.max(0, (x - b.x) / b.cell);
+        int j0 = Math.max(0, (y - b.y) / b.cell);
+        int i1 = Math.min(b.columns, i0 + size / b.cell);
+        int j1 = Math.min(b.rows, j0 + size / b.cell);
+        double sum = 0;
+        for (int j = j0; j < j1; j++) {
+            for (int i = i0; i < i1; i++) {
+                sum += b.t[index(i, j)];
+            }
+        }
+        return sum / Math.max(1, (i1 - i0) * (j1 - j0));
+    }
+
+    // bilinear interpolation between the centres of the cells and ghost cells of a leaf
+    private static double interpolate(Block b, double x, double y) {
+        double u = (x - b.x) / b.cell - 0.5;
+        double v = (y - b.y) / b.cell - 0.5;
+        int i = Math.max(-1, Math.min(b.columns - 1, (int) Math.floor(u)));
+        int j = Math.max(-1, Math.min(b.rows - 1, (int) Math.floor(v)));
+        double fx = Math.max(0, Math.min(1, u - i));
+        double fy = Math.max(0, Math.min(1, v - j));
+        int k = index(i, j);
+        double[] t = b.t;
+        double top = t[k] + fx * (t[k + 1] - t[k]);
+        double bottom = t[k + SIDE] + fx * (t[k + SIDE + 1] - t[k + SIDE]);
+        return top + fy * (bottom - top);
+    }
+
+    // splits a leaf into four blocks on the next level, interpolated from its cells; its ghost cells have to be
+    // filled
+    private void refine(Block b) {
+        int half = b.span() / 2;
+        b.children = new Block[4];
+        for (int q = 0; q < 4; q++) {
+            int x = b.x + (q & 1) * half;
+            int y = b.y + (q >> 1) * half;
+            if (x >= width || y >= height) {
+                continue; // outside the domain
+            }
+            Block child = newLeaf(b.level + 1, x, y);
+            for (int j = 0; j < child.rows; j++) {
+                for (int i = 0; i < child.columns; i++) {
+                    child.t[index(i, j)] = interpolate(b, x + (i + 0.5) * child.cell, y + (j + 0.5) * child.cell);
+                }
+            }
+            if (child.level == maxLevel) {
+                for (int p = 0; p < points.size(); p++) {
+                    int[] point = points.get(p);
+                    if (child.contains(point[0], point[1])) {
+                        if (child.fixed == null) {
+                            child.fixed = new boolean[SIDE * SIDE];
+                        }
+                        int k = index(point[0] - x, point[1] - y);
+                        child.fixed[k] = true;
+                        child.t[k] = pointValues.get(p);
+                    }
+                }
+            }
+            b.children[q] = child;
+        }
+        b.t = null;
+        b.fixed = null;
+    }
+
+    // merges the children of blocks whose children are flat leaves, returns the number of blocks merged
+    private int coarsen(Block b) {
+        if (b.isLeaf()) {
+            return 0;
+        }
+        int merged = 0;
+        boolean leafChildren = true;
+        for (Block child : b.children) {
+            if (child != null) {
+                merged += coarsen(child);
+                leafChildren &= child.isLeaf();
+            }
+        }
+        if (!leafChildren || b.level < minLevel || holdsPoint(b) || !flat(b) || !balancedAfterMerge(b)) {
+            return merged;
+        }
+
+        // every cell of the block is the mean of the 2 x 2 cells it replaces
+        b.t = new double[SIDE * SIDE];
+        int half = BLOCK / 2;
+        for (int j = 0; j < b.rows; j++) {
+            for (int i = 0; i < b.columns; i++) {
+                Block child = b.children[(i >= half ? 1 : 0) + (j >= half ? 2 : 0)];
+                int ci = (i % half) * 2;
+                int cj = (j % half) * 2;
+                double sum = 0;
+                int count = 0;
+                for (int dy = 0; dy < 2 && cj + dy < child.rows; dy++) {
+                    for (int dx = 0; dx < 2 && ci + dx < child.columns; dx++) {
+                        sum += child.t[index(ci + dx, cj + dy)];
+                        count++;
+                    }
+                }
+                b.t[index(i, j)] = sum / count;
+            }
+        }
+        for (Block child : b.children) {
+            if (child != null) {
+                child.t = null; // no longer part of the tree
+            }
+        }
+        b.children = null;
+        return merged + 1;
+    }
+
+    // whether the children of a block changed little enough to merge them, with a margin below the threshold
+    // so the merged block does not get refined again at once
+    private boolean flat(Block b) {
+        for (Block child : b.children) {
+            if (child != null && child.indicator > refineThreshold / 4) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean holdsPoint(Block b) {
+        for (int[] point : points) {
+            if (b.contains(point[0], point[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // whether no leaf next to the block is more than one level finer than the block would be as a leaf
+    private boolean balancedAfterMerge(Block b) {
+        int step = b.cell / 2;
+        int span = b.span();
+        for (int s = -step; s <= span; s += step) {
+            if (tooFine(b, b.x + s, b.y - 1) || tooFine(b, b.x + s, b.y + span)
+                    || tooFine(b, b.x - 1, b.y + s) || tooFine(b, b.x + span, b.y + s)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tooFine(Block b, int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        Block leaf = leafAt(x, y);
+        return leaf.level > b.level + 1 && !b.contains(x, y);
+    }
+
+    // refines leaves until every leaf is at most one level coarser than its neighbours, returns the number of
+    // leaves refined
+    private int balance() {
+        int refined = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block leaf : collectLeaves()) {
+                if (!leaf.isLeaf() || leaf.level <= 1) {
+                    continue;
+                }
+                int span = leaf.span();
+                int[] xs = {leaf.x - 1, leaf.x + span / 2, leaf.x + span};
+                int[] ys = {leaf.y - 1, leaf.y + span / 2, leaf.y + span};
+                for (int x : xs) {
+                    for (int y : ys) {
+                        if (x < 0 || y < 0 || x >= width || y >= height || leaf.contains(x, y)) {
+                            continue;
+                        }
+                        Block other = leafAt(x, y);
+                        if (other.level < leaf.level - 1) {
+                            fillHalo(other);
+                            refine(other);
+                            refined++;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return refined;
+    }
+
+    // rebuilds the list of leaves and their neighbours on the same level after the tree changed
+    private void link() {
+        leaves = collectLeaves();
+        for (Block leaf : leaves) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    long x = leaf.x + (long) dx * leaf.span();
+                    long y = leaf.y + (long) dy * leaf.span();
+                    Block n = null;
+                    if ((dx != 0 || dy != 0) && x >= 0 && y >= 0 && x < width && y < height) {
+                        n = leafAt((int) x, (int) y);
+                        if (n.level != leaf.level) {
+                            n = null; // coarser or finer, sampled instead of copied
+                        }
+                    }
+                    leaf.neighbours[(dy + 1) * 3 + dx + 1] = n;
+                }
+            }
+        }
+    }
+
+    private List<Block> collectLeaves() {
+        List<Block> list = new ArrayList<>();
+        collectLeaves(root, list);
+        return list;
+    }
+
+    private static void collectLeaves(Block b, List<Block> list) {
+        if (b.isLeaf()) {
+            list.add(b);
+            return;
+        }
+        for (Block child : b.children) {
+            if (child != null) {
+                collectLeaves(child, list);
+            }
+        }
+    }
+
+    private void refineEvenly(Block b) {
+        if (b.level >= minLevel) {
+            return;
+        }
+        refine(b);
+        for (Block child : b.children) {
+            if (child != null) {
+                refineEvenly(child);
+            }
+        }
+    }
+
+    // the leaf covering a cell of the uniform grid inside the domain
+    private Block leafAt(int x, int y) {
+        Block b = root;
+        while (!b.isLeaf()) {
+            b = b.children[quadrant(b, x, y)];
+        }
+        return b;
+    }
+
+    private Block newLeaf(int level, int x, int y) {
+        Block b = new Block(level, x, y, 1 << (maxLevel - level), width, height);
+        b.t = new double[SIDE * SIDE];
+        return b;
+    }
+
+    private static int quadrant(Block b, int x, int y) {
+        int half = b.span() / 2;
+        return (x - b.x >= half ? 1 : 0) + (y - b.y >= half ? 2 : 0);
+    }
+
+    // position of a cell of a block in its array, ghost cells at -1 and BLOCK
+    private static int index(int i, int j) {
+        return (j + 1) * SIDE + i + 1;
+    }
+}
@@ -0,0 +1,436 @@
+package com.example.test_fx;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// headless entry point without dialogs or JavaFX, runs a sweep of cases on a bounded pool of threads and prints one
+// CSV row per case as soon as it finishes, for example
+//   BatchRunner -size 800x600,1600x1200 -solver jacobi,sor -threads 1,2 -points 10 -tolerance 0.25
+// every option takes a comma separated list and the cases are all combinations of the values; with -sweep file
+// every line of the file holds options in the same form that override the command line for the cases of that line;
+// -storage native or mapped keeps the grid outside the heap, which needs --add-modules jdk.incubator.foreign, and
+// mapped grids live in a scratch file per case in -scratch-dir; -precision single sweeps a grid of floats and mixed
+// continues from the converged floats in double precision until the tolerance is met again; -active-tiles 32 only
+// sweeps the 32x32 tiles that still change by more than -active-fraction of the tolerance, and their neighbours;
+// -mesh adaptive solves on a quadtree that stands for the grid of -size but only refines down to its cells near the
+// heat points and where neighbouring cells differ by more than -refine degrees, never coarser than -min-level;
+// -temperatures 100:50 gives the heat points these temperatures in turn, in row-major order, and -superposition true
+// answers a case by the weighted sum of basis fields that are solved once per layout and shared by all cases; such a
+// case reports the time it spent getting the basis fields as basis_ms and, if it found them uncached, their multigrid
+// cycles as iterations
+public class BatchRunner {
+
+    // basis fields of the layouts of the superposition cases, a quarter of the heap at most
+    private static final SuperpositionCache BASES = new SuperpositionCache(Runtime.getRuntime().maxMemory() / 4,
+            Runtime.getRuntime().availableProcessors(), SuperpositionCache.DEFAULT_TOLERANCE);
+
+    private static final String HEADER = "case,width,height,points,seed,solver,threads,storage,precision,active_tiles,mesh,"
+            + "mesh_cells,temperatures,superposition,tolerance,iterations,runtime_ms,cells_per_s,residual,basis_ms";
+
+    // value of every option when neither the command line nor the sweep file sets it
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("size", "80x60");
+        DEFAULTS.put("points", "10");
+        DEFAULTS.put("seed", Long.toString(Simulation.DEFAULT_SEED));
+        DEFAULTS.put("solver", "jacobi");
+        DEFAULTS.put("threads", "1");
+        DEFAULTS.put("band-rows", "16");
+        DEFAULTS.put("tolerance", "0.25");
+        DEFAULTS.put("max-iterations", Integer.toString(Integer.MAX_VALUE));
+        DEFAULTS.put("omega", "0");
+        DEFAULTS.put("preconditioner", "incomplete_cholesky");
+        DEFAULTS.put("tile-steps", "1");
+        DEFAULTS.put("tile-size", "256x64");
+        DEFAULTS.put("storage", "heap");
+        DEFAULTS.put("scratch-dir", System.getProperty("java.io.tmpdir"));
+        DEFAULTS.put("precision", "double");
+        DEFAULTS.put("active-tiles", "0");
+        DEFAULTS.put("active-fraction", "0.1");
+        DEFAULTS.put("mesh", "uniform");
+        DEFAULTS.put("min-level", Integer.toString(AdaptiveGrid.DEFAULT_MIN_LEVEL));
+        DEFAULTS.put("refine", Double.toString(AdaptiveGrid.DEFAULT_REFINE_THRESHOLD));
+        DEFAULTS.put("temperatures", "100");
+        DEFAULTS.put("superposition", "false");
+    }
+
+    // settings of a single run, parsed before anything runs so a typo fails the whole sweep at once
+    private static final class Case {
+        int number; // position in the sweep, rows are printed in completion order
+        int width, height;
+        int points;
+        long seed;
+        SolverType solver;
+        int threads;
+        int bandRows;
+        double tolerance;
+        int maxIterations;
+        double omega;
+        Preconditioner preconditioner;
+        int tileSteps;
+        int tileWidth, tileHeight;
+        GridStorage storage;
+        Path scratchFile; // backs a mapped grid
+        Precision precision;
+        int activeTiles; // side of the tiles of active-tile scheduling, 0 sweeps every cell
+        double activeFraction;
+        Mesh mesh;
+        int minLevel; // coarsest level of the adaptive mesh
+        double refine; // difference between neighbouring cells above which the adaptive mesh refines
+        String temperatureList; // as given, for the result row
+        double[] temperatures; // of the heat points in row-major order, repeated for as many points as there are
+        boolean superposition;
+
+        Case(int number, Map<String, String> options) {
+            this.number = number;
+            int[] size = parseSize(options.get("size"));
+            width = size[0];
+            height = size[1];
+            points = parseInt(options, "points", 0);
+            seed = Long.parseLong(options.get("seed"));
+            solver = SolverType.valueOf(options.get("solver").toUpperCase(Locale.ROOT));
+            threads = parseInt(options, "threads", 1);
+            bandRows = parseInt(options, "band-rows", 1);
+            tolerance = Double.parseDouble(options.get("tolerance"));
+            maxIterations = parseInt(options, "max-iterations", 0);
+            omega = Double.parseDouble(options.get("omega"));
+            preconditioner = Preconditioner.valueOf(options.get("preconditioner").toUpperCase(Locale.ROOT));
+            tileSteps = parseInt(options, "tile-steps", 1);
+            int[] tile = parseSize(options.get("tile-size"));
+            tileWidth = tile[0];
+            tileHeight = tile[1];
+            storage = GridStorage.valueOf(options.get("storage").toUpperCase(Locale.ROOT));
+            scratchFile = Path.of(options.get("scratch-dir"), "heat-case-" + number + ".grid");
+            precision = Precision.valueOf(options.get("precision").toUpperCase(Locale.ROOT));
+            activeTiles = parseInt(options, "active-tiles", 0);
+            activeFraction = Double.parseDouble(options.get("active-fraction"));
+            mesh = Mesh.valueOf(options.get("mesh").toUpperCase(Locale.ROOT));
+            minLevel = parseInt(options, "min-level", 0);
+            refine = Double.parseDouble(options.get("refine"));
+            temperatureList = options.get("temperatures");
+            String[] values = temperatureList.split(":");
+            temperatures = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                temperatures[i] = Double.parseDouble(values[i]);
+            }
+            superposition = parseBoolean(options, "superposition");
+            boolean sweepsOnly = solver == SolverType.MULTIGRID || solver == SolverType.CONJUGATE_GRADIENT
+                    || tileSteps > 1;
+            if (storage != GridStorage.HEAP && sweepsOnly) {
+                throw new IllegalArgumentException("-storage " + options.get("storage")
+                        + " only runs the jacobi and sor solvers without tiles");
+            }
+            if (precision != Precision.DOUBLE && sweepsOnly) {
+                throw new IllegalArgumentException("-precision " + options.get("precision")
+                        + " only runs the jacobi and sor solvers without tiles");
+            }
+            if (precision != Precision.DOUBLE && storage != GridStorage.HEAP) {
+                throw new IllegalArgumentException("-precision " + options.get("precision") + " needs -storage heap");
+            }
+            if (activeTiles > 0 && (sweepsOnly || storage != GridStorage.HEAP || precision == Precision.SINGLE)) {
+                throw new IllegalArgumentException("-active-tiles only runs the jacobi and sor solvers without tiles"
+                        + " on a double precision grid on the heap");
+            }
+            if (mesh == Mesh.ADAPTIVE && (sweepsOnly || threads > 1 || storage != GridStorage.HEAP
+                    || precision != Precision.DOUBLE || activeTiles > 0)) {
+                throw new IllegalArgumentException("-mesh adaptive only runs the jacobi and sor solvers on one thread"
+                        + " without tiles, in double precision on the heap");
+            }
+            if (mesh == Mesh.ADAPTIVE && (temperatures.length != 1 || temperatures[0] != 100)) {
+                throw new IllegalArgumentException("-mesh adaptive keeps its heat points at 100 degrees");
+            }
+            if (superposition && (storage != GridStorage.HEAP || precision != Precision.DOUBLE
+                    || mesh != Mesh.UNIFORM)) {
+                throw new IllegalArgumentException("-superposition needs a uniform double precision grid on the heap");
+            }
+        }
+
+        // builds the grid and runs the solver, returns the result row; sampled iterations go to the shared sink
+        String run(MetricsSink sink) throws Exception {
+            if (mesh == Mesh.ADAPTIVE) {
+                return runAdaptive();
+            }
+            if (superposition) {
+                return runSuperposition();
+            }
+            SweepGrid grid = (precision == Precision.DOUBLE)
+                    ? Simulation.createGrid(width, height, points, seed, storage, scratchFile)
+                    : Simulation.createFloatGrid(width, height, points, seed);
+            try {
+                setTemperatures(grid);
+                Simulation simulation = newSimulation(grid, sink);
+                long start = System.nanoTime();
+                int iterations = simulation.solve(tolerance, maxIterations);
+                long cellUpdates = simulation.getCellUpdates();
+                if (precision == Precision.MIXED && iterations < maxIterations) {
+                    // the double sweeps start next to the steady state, so only a few of them are needed
+                    Simulation polish = newSimulation(((FloatGrid) grid).toGrid(), sink);
+                    polish.setIterations(iterations);
+                    iterations += polish.solve(tolerance, maxIterations - iterations);
+                    cellUpdates += polish.getCellUpdates();
+                    simulation = polish;
+                }
+                long elapsed = System.nanoTime() - start;
+
+                // active tiles only count the cells they relaxed
+                double cellsPerSecond = (double) cellUpdates / Math.max(1, elapsed) * 1e9;
+                return row(iterations, (long) width * height, elapsed, cellsPerSecond, simulation.getResidual(), 0);
+            } finally {
+                if (grid instanceof AutoCloseable) {
+                    ((AutoCloseable) grid).close(); // off-heap memory is not left to the garbage collector
+                }
+            }
+        }
+
+        // answers the case from the basis fields of its layout, solving them to the tolerance of the case if no earlier
+        // case did; the runtime and the rate are those of the weighted sum, which reads every cell of every basis
+        // field, while the time spent getting the basis fields and, if they were not cached, their multigrid cycles
+        // are reported apart; the residual is the largest change a Jacobi sweep would still make to the sum
+        private String runSuperposition() {
+            Grid grid = Simulation.createGrid(width, height, points, seed);
+            setTemperatures(grid);
+            long lookup = System.nanoTime();
+            SuperpositionCache.Basis basis = BASES.getCached(grid, tolerance);
+            int cycles = 0;
+            if (basis == null) {
+                basis = BASES.get(grid, tolerance); // solved by this case, or by another one it waited for
+                cycles = basis.getCycles();
+            }
+            long basisElapsed = System.nanoTime() - lookup;
+            long start = System.nanoTime();
+            basis.combine(grid);
+            long elapsed = System.nanoTime() - start;
+            double cellsPerSecond = (double) width * height * basis.getSources() / Math.max(1, elapsed) * 1e9;
+            double residual = grid.relax(0, width, 0, height);
+            return row(cycles, (long) width * height, elapsed, cellsPerSecond, residual, basisElapsed);
+        }
+
+        private void setTemperatures(SweepGrid grid) {
+            int k = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (grid.isFixed(x, y)) {
+                        grid.setFixed(x, y, temperatures[k++ % temperatures.length]);
+                    }
+                }
+            }
+        }
+
+        // solves on the adaptive mesh; the leaves are swept in place, so every solver over-relaxes them by -omega or
+        // the estimated factor
+        private String runAdaptive() {
+            AdaptiveGrid grid = Simulation.createAdaptiveGrid(width, height, points, seed, minLevel);
+            grid.setRefineThreshold(refine);
+            double factor = (omega > 0) ? omega : grid.estimateOmega();
+            long start = System.nanoTime();
+            int iterations = grid.solve(tolerance, maxIterations, factor);
+            long elapsed = System.nanoTime() - start;
+
+            // the mesh changes while it solves, the rate counts every sweep with the cells of the final one
+            double cellsPerSecond = (double) grid.getCells() * iterations / Math.max(1, elapsed) * 1e9;
+            return row(iterations, grid.getCells(), elapsed, cellsPerSecond, grid.getResidual(), 0);
+        }
+
+        private String row(int iterations, long meshCells, long elapsed, double cellsPerSecond, double residual,
+                long basisElapsed) {
+            return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%s,%d,%s,%s,%d,%s,%d,%s,%s,%s,%d,%.3f,%.4e,%.6e,%.3f",
+                    number, width, height, points, seed, solver, threads, storage, precision, activeTiles, mesh,
+                    meshCells, temperatureList, superposition, tolerance, iterations, elapsed / 1e6, cellsPerSecond,
+                    residual, basisElapsed / 1e6);
+        }
+
+        private Simulation newSimulation(SweepGrid grid, MetricsSink sink) {
+            Simulation simulation = new Simulation(grid);
+            simulation.setSolver(solver);
+            simulation.setOmega(omega);
+            simulation.setPreconditioner(preconditioner);
+            simulation.setParallel(threads > 1, threads, bandRows);
+            simulation.setTiles(tileSteps, tileWidth, tileHeight);
+            if (grid instanceof Grid) {
+                // mixed runs only skip tiles when polishing
+                simulation.setActiveTiles(activeTiles, tolerance * activeFraction);
+            }
+            simulation.setMetrics(new Metrics("case " + number, grid, sink));
+            return simulation;
+        }
+    }
+
+    public static void main(String[] args) {
+        List<Case> cases = new ArrayList<>();
+        int jobs;
+        try {
+            Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+            String sweepFile = null;
+            String jobsOption = null;
+            for (int i = 0; i < args.length; i++) {
+                String name = optionName(args[i]);
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("missing value for -" + name);
+                }
+                String value = args[++i];
+                if (name.equals("sweep")) {
+                    sweepFile = value;
+                } else if (name.equals("jobs")) {
+                    jobsOption = value;
+                } else {
+                    putOption(options, name, value);
+                }
+            }
+
+            if (sweepFile == null) {
+                addCases(cases, options);
+            } else {
+                for (String line : Files.readAllLines(Path.of(sweepFile))) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    Map<String, String> lineOptions = new LinkedHashMap<>(options);
+                    String[] words = line.split("\\s+");
+                    for (int i = 0; i < words.length; i += 2) {
+                        String name = optionName(words[i]);
+                        if (i + 1 >= words.length) {
+                            throw new IllegalArgumentException("missing value for -" + name + " in: " + line);
+                        }
+                        putOption(lineOptions, name, words[i + 1]);
+                    }
+                    addCases(cases, lineOptions);
+                }
+            }
+
+            // cases with several threads of their own take up several cores, so fewer of them run at once
+            int widest = 1;
+            for (Case c : cases) {
+                widest = Math.max(widest, c.threads);
+            }
+            jobs = (jobsOption != null) ? Integer.parseInt(jobsOption)
+                    : Math.max(1, Runtime.getRuntime().availableProcessors() / widest);
+            if (jobs <= 0) {
+                throw new IllegalArgumentException("-jobs must be positive");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Invalid batch: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        System.out.println(HEADER);
+        MetricsSink sink = MetricsSink.fromSystemProperties();
+        int failed = runAll(cases, jobs, sink);
+        if (sink != null) {
+            sink.close();
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // runs the cases on a pool of the given size and prints every row the moment its case is done, returns the
+    // number of cases that failed
+    private static int runAll(List<Case> cases, int jobs, MetricsSink sink) {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs, task -> {
+            Thread thread = new Thread(task, "heat-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<String> results = new ExecutorCompletionService<>(executor);
+        for (Case c : cases) {
+            results.submit(() -> c.run(sink));
+        }
+
+        int failed = 0;
+        try {
+            for (int i = 0; i < cases.size(); i++) {
+                try {
+                    System.out.println(results.take().get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println("Case failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = cases.size();
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    // adds one case for every combination of the comma separated values of the options
+    private static void addCases(List<Case> cases, Map<String, String> options) {
+        List<Map<String, String>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : option.getValue().split(",")) {
+                    Map<String, String> next = new LinkedHashMap<>(combination);
+                    next.put(option.getKey(), value.trim());
+                    expanded.add(next);
+                }
+            }
+            combinations = expanded;
+        }
+        for (Map<String, String> combination : combinations) {
+            cases.add(new Case(cases.size(), combination));
+        }
+    }
+
+    private static String optionName(String word) {
+        if (!word.startsWith("-") || word.length() < 2) {
+            throw new IllegalArgumentException("expected an option but got " + word);
+        }
+        return word.substring(1);
+    }
+
+    private static void putOption(Map<String, String> options, String name, String value) {
+        if (!options.containsKey(name)) {
+            throw new IllegalArgumentException("unknown option -" + name + ", known are -sweep, -jobs and -"
+                    + String.join(", -", options.keySet()));
+        }
+        options.put(name, value);
+    }
+
+    // parses an integer option that must be at least the given minimum
+    private static int parseInt(Map<String, String> options, String name, int minimum) {
+        int value = Integer.parseInt(options.get(name));
+        if (value < minimum) {
+            throw new IllegalArgumentException("-" + name + " must be at least " + minimum);
+        }
+        return value;
+    }
+
+    // parses an option that is true or false
+    private static boolean parseBoolean(Map<String, String> options, String name) {
+        String value = options.get(name);
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("-" + name + " must be true or false but got " + value);
+        }
+        return value.equals("true");
+    }
+
+    // parses width x height
+    private static int[] parseSize(String value) {
+        String[] parts = value.split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("expected width x height but got " + value);
+        }
+        int width = Integer.parseInt(parts[0].trim());
+        int height = Integer.parseInt(parts[1].trim());
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be positive in " + value);
+        }
+        return new int[]{width, height};
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.test_fx;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// binary snapshot of a grid that a run can be restarted from, the same format the MPI version writes: a 64 byte
+// header (magic, version, width, height, iteration, seed, solver name), the fixed points as a bitmap of one bit per
+// cell in row-major order padded to a multiple of 8 bytes, then the temperatures as little-endian doubles in
+// row-major order; the file is copied through memory mappings of at most 1 GB each, so the page cache does the I/O
+// and grids of any size are written at about disk speed
+public final class Checkpoint {
+
+    public static final int HEADER_BYTES = 64;
+    private static final byte[] MAGIC = "HEATCKPT".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int SOLVER_OFFSET = 40; // solver name, ASCII padded with zeros
+    private static final int SOLVER_BYTES = HEADER_BYTES - SOLVER_OFFSET;
+    private static final int WINDOW_CELLS = 1 << 27; // doubles per mapping, 1 GB
+
+    public final Grid grid; // temperatures in both buffers and the fixed points
+    public final long iteration; // iterations the run had done when it wrote the checkpoint
+    public final long seed; // seed the heat points were placed with
+    public final String solver; // name of the solver of the run
+
+    private Checkpoint(Grid grid, long iteration, long seed, String solver) {
+        this.grid = grid;
+        this.iteration = iteration;
+        this.seed = seed;
+        this.solver = solver;
+    }
+
+    // byte offset of the first temperature in a checkpoint of a grid with the given number of cells
+    public static long temperatureOffset(long cells) {
+        long bitmapBytes = (cells + 7) / 8;
+        return HEADER_BYTES + (bitmapBytes + 7) / 8 * 8;
+    }
+
+    // writes the current buffer of the grid; the data goes to a temporary file next to the target that replaces it
+    // only once it is complete and on disk, so a run killed while writing keeps its previous checkpoint
+    public static void write(Path file, Grid grid, long iteration, long seed, String solver) throws IOException {
+        long cells = (long) grid.width * grid.height;
+        long dataOffset = temperatureOffset(cells);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // mapping beyond the end grows the file
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            head.put(MAGIC);
+            head.putInt(VERSION);
+            head.putInt(grid.width);
+            head.putInt(grid.height);
+            head.putInt(0); // keeps the longs aligned
+            head.putLong(iteration);
+            head.putLong(seed);
+            byte[] name = solver.getBytes(StandardCharsets.US_ASCII);
+            head.put(name, 0, Math.min(name.length, SOLVER_BYTES));
+
+            byte[] bits = new byte[(int) ((cells + 7) / 8)];
+            boolean[] fixed = grid.fixed();
+            for (int i = 0; i < cells; i++) {
+                if (fixed[i]) {
+                    bits[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            head.position(HEADER_BYTES);
+            head.put(bits);
+            head.force();
+
+            // the rows of the grid are contiguous, stride equals width
+            double[] values = grid.current();
+            for (int start = 0; start < cells; start += WINDOW_CELLS) {
+                int count = (int) Math.min(WINDOW_CELLS, cells - start);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + 8L * start,
+                        8L * count);
+                window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(values, start, count);
+                window.force();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // reads a checkpoint into a new grid, both of its buffers hold the saved temperatures
+    public static Checkpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not a heat checkpoint");
+            }
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            int version = head.getInt();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException(file + " is not a heat checkpoint of version " + VERSION);
+            }
+            int width = head.getInt();
+            int height = head.getInt();
+            head.getInt();
+            long iteration = head.getLong();
+            long seed = head.getLong();
+            byte[] name = new byte[SOLVER_BYTES];
+            head.get(name);
+            int length = 0;
+            while (length < name.length && name[length] != 0) {
+                length++;
+            }
+            String solver = new String(name, 0, length, StandardCharsets.US_ASCII);
+
+            long cells = (long) width * height;
+            long dataOffset = temperatureOffset(cells);
+            if (width <= 0 || height <= 0 || channel.size() < dataOffset + 8 * cells) {
+                throw new IOException(file + " is truncated");
+            }
+
+            Grid grid = new Grid(width, height);
+            byte[] bits = new byte[(int) ((cells + 7) / 8)];
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, bits.length).get(bits);
+            boolean[] fixed = grid.fixed();
+            for (int i = 0; i < cells; i++) {
+                fixed[i] = (bits[i >>> 3] & (1 << (i & 7))) != 0;
+            }
+
+            double[] values = grid.current();
+            for (int start = 0; start < cells; start += WINDOW_CELLS) {
+                int count = (int) Math.min(WINDOW_CELLS, cells - start);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + 8L * start,
+                        8L * count);
+                window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, start, count);
+            }
+            System.arraycopy(values, 0, grid.next(), 0, values.length); // fixed points are read from both buffers
+            return new Checkpoint(grid, iteration, seed, solver);
+        }
+    }
+}
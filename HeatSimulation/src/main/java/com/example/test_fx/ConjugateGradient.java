@@ -0,0 +1,404 @@
+package com.example.test_fx;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// matrix-free preconditioned conjugate gradient solver for the steady state, solves count * u - sum of neighbours = 0
+// on the free cells with the fixed points moved to the right-hand side; like ParallelEngine a fixed team of threads
+// owns bands of rows, the calling thread is member 0 and the dot products are reduced at the barriers
+public class ConjugateGradient {
+
+    private static final int PADDING = 8; // doubles per result slot, keeps the slots of two threads on separate cache lines
+
+    private final Grid grid;
+    private final Preconditioner preconditioner;
+    private final int threads; // team size including the calling thread
+    private final int[] bandStart; // first row of every member's band, followed by the grid height
+    private final double[] r; // residual
+    private final double[] z; // preconditioned residual
+    private final double[] p; // search direction, always 0 on fixed points
+    private final double[] q; // operator applied to the search direction
+    private final double[] inverseDiagonal; // 1 / pivot of every free cell, the plain diagonal for Jacobi
+    private final double[] partial; // dot product and residual norm of every member, one padded slot each
+    private final long[] computeTime; // time every member spent outside the barriers in the current iteration, padded
+    private final CyclicBarrier start; // releases the helpers into a run
+    private final CyclicBarrier reduced; // its action combines the partial dot products and norms
+    private final CyclicBarrier directionDone; // the search direction is complete before any band applies the operator
+    private Metrics metrics; // receives every iteration, null if nobody is interested
+    private int directions; // search directions completed by all runs, the first one of a new solver is 0
+    private long iterationStart; // when the current iteration started
+
+    // results of the last reduction, published to every member by the reduced barrier
+    private double sum;
+    private double norm;
+
+    // state carried from one run to the next, published to the helpers by the start barrier
+    private boolean initialized;
+    private double rz; // dot product of the residual and the preconditioned residual
+    private double residualNorm;
+    private double tolerance;
+    private int maxIterations;
+    private int iterations;
+    private boolean shutdown;
+
+    // threads is the requested team size, bandRows the fewest rows worth giving a thread of its own
+    public ConjugateGradient(Grid grid, int threads, int bandRows, Preconditioner preconditioner) {
+        this.grid = grid;
+        this.preconditioner = preconditioner;
+        this.threads = Math.max(1, Math.min(threads, grid.height / Math.max(1, bandRows)));
+        this.bandStart = new int[this.threads + 1];
+        for (int t = 0; t <= this.threads; t++) {
+            bandStart[t] = (int) ((long) grid.height * t / this.threads);
+        }
+
+        int cells = grid.width * grid.height;
+        this.r = new double[cells];
+        this.z = new double[cells];
+        this.p = new double[cells];
+        this.q = new double[cells];
+        this.inverseDiagonal = new double[cells];
+        this.partial = new double[this.threads * PADDING];
+        this.computeTime = new long[this.threads * PADDING];
+        this.start = new CyclicBarrier(this.threads);
+        this.reduced = new CyclicBarrier(this.threads, this::reduce);
+        this.directionDone = new CyclicBarrier(this.threads, this::finishIteration);
+
+        for (int t = 0; t < this.threads; t++) {
+            factor(bandStart[t], bandStart[t + 1]);
+        }
+
+        for (int t = 1; t < this.threads; t++) {
+            int member = t;
+            Thread helper = new Thread(() -> work(member), "heat-cg-" + t);
+            helper.setDaemon(true);
+            helper.start();
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // largest change a Jacobi sweep would make to any cell after the last iteration, in the same units as the
+    // stability threshold of the relaxation solvers
+    public double getResidualNorm() {
+        return residualNorm;
+    }
+
+    // reports every iteration of the following runs to metrics, the time outside the work of the slowest member
+    // counts as reduction
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // iterates on the current buffer of the grid until the residual norm is at most the tolerance or maxIterations
+    // iterations are done, returns the number of iterations; a later run continues where this one stopped
+    public int run(double tolerance, int maxIterations) {
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.iterations = 0;
+        this.iterationStart = System.nanoTime();
+
+        await(start);
+        iterate(0);
+        return iterations;
+    }
+
+    // stops the helper threads, the solver cannot be used afterwards
+    public void shutdown() {
+        shutdown = true;
+        await(start);
+    }
+
+    // loop of a helper thread, waits for a run and then iterates on its band until the run stops
+    private void work(int member) {
+        try {
+            while (true) {
+                start.await();
+                if (shutdown) {
+                    return;
+                }
+                iterate(member);
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // the solver is being shut down
+        }
+    }
+
+    // runs the iterations of one member; every member derives the same scalars from the same reductions,
+    // so all of them take the same branches without further synchronisation
+    private void iterate(int member) {
+        int y0 = bandStart[member];
+        int y1 = bandStart[member + 1];
+        double[] u = grid.current();
+        int slot = member * PADDING;
+
+        double rz = this.rz;
+        double residualNorm = this.residualNorm;
+        double tolerance = this.tolerance; // the next run may change them before a slow helper has left this one
+        int maxIterations = this.maxIterations;
+        if (!initialized) {
+            // r = b - A u, z = M^-1 r and the first search direction is z
+            partial[slot + 1] = residual(u, y0, y1);
+            precondition(y0, y1);
+            partial[slot] = dot(r, z, y0, y1);
+            System.arraycopy(z, y0 * grid.width, p, y0 * grid.width, (y1 - y0) * grid.width);
+            await(reduced);
+            rz = sum;
+            residualNorm = norm;
+            await(directionDone);
+        }
+
+        int iterations = 0;
+        while (residualNorm > tolerance && iterations < maxIterations && rz > 0) {
+            long begin = System.nanoTime();
+            partial[slot] = applyOperator(y0, y1);
+            long compute = System.nanoTime() - begin;
+            await(reduced);
+            double alpha = rz / sum;
+
+            begin = System.nanoTime();
+            partial[slot + 1] = update(u, alpha, y0, y1);
+            precondition(y0, y1);
+            partial[slot] = dot(r, z, y0, y1);
+            compute += System.nanoTime() - begin;
+            await(reduced);
+            double beta = sum / rz;
+            rz = sum;
+            residualNorm = norm;
+
+            // p = z + beta p, every band has to finish before any band reads p across its edges
+            int end = y1 * grid.width;
+            begin = System.nanoTime();
+            for (int i = y0 * grid.width; i < end; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+            computeTime[slot] = compute + System.nanoTime() - begin;
+            await(directionDone);
+            iterations++;
+        }
+
+        if (member == 0) {
+            // the helpers have passed their last barrier, the next start barrier publishes these
+            this.initialized = true;
+            this.rz = rz;
+            this.residualNorm = residualNorm;
+            this.iterations = iterations;
+        }
+    }
+
+    // runs once per search direction in the last thread to reach the barrier, reports the iteration it ends
+    private void finishIteration() {
+        // the first direction of a new solver comes from the initial residual, not from an iteration
+        if (directions++ > 0 && metrics != null) {
+            long compute = 0;
+            for (int t = 0; t < threads; t++) {
+                compute = Math.max(compute, computeTime[t * PADDING]);
+            }
+            long elapsed = System.nanoTime() - iterationStart;
+            metrics.iteration(directions - 1, (long) grid.width * grid.height, norm, compute, 0, elapsed - compute);
+        }
+        iterationStart = System.nanoTime();
+    }
+
+    // runs once per reduction in the last thread to reach the barrier
+    private void reduce() {
+        double total = 0;
+        double largest = 0;
+        for (int t = 0; t < threads; t++) {
+            total += partial[t * PADDING];
+            largest = Math.max(largest, partial[t * PADDING + 1]);
+        }
+        sum = total;
+        norm = largest;
+    }
+
+    // r = sum of neighbours - count * u on the free cells of rows [y0, y1), which is b - A u with the fixed
+    // neighbours in b; returns the largest |r| / count
+    private double residual(double[] u, int y0, int y1) {
+        boolean[] fixed = grid.fixed();
+        double largest = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < grid.width; x++) {
+                int i = y * grid.width + x;
+                if (fixed[i]) {
+                    r[i] = 0;
+                    continue;
+                }
+                int count = neighbours(x, y);
+                r[i] = neighbourSum(u, x, y) - count * u[i];
+                largest = Math.max(largest, Math.abs(r[i]) / count);
+            }
+        }
+        return largest;
+    }
+
+    // q = A p on rows [y0, y1), returns the band's part of p . q
+    private double applyOperator(int y0, int y1) {
+        boolean[] fixed = grid.fixed();
+        int width = grid.width;
+        int lastX = width - 1;
+        int lastY = grid.height - 1;
+        double dot = 0;
+
+        for (int y = y0; y < y1; y++) {
+            boolean edgeRow = y == 0 || y == lastY;
+            int row = y * width;
+            for (int x = 0; x <= lastX; x++) {
+                int i = row + x;
+                if (fixed[i]) {
+                    continue;
+                }
+                // the search direction is 0 on fixed points, so summing every neighbour only adds free ones
+                double value = (edgeRow || x == 0 || x == lastX) ? neighbours(x, y) * p[i] - neighbourSum(p, x, y)
+                        : 4 * p[i] - (p[i - 1] + p[i + 1] + p[i - width] + p[i + width]);
+                q[i] = value;
+                dot += p[i] * value;
+            }
+        }
+        return dot;
+    }
+
+    // u += alpha p and r -= alpha q on rows [y0, y1), returns the largest |r| / count
+    private double update(double[] u, double alpha, int y0, int y1) {
+        boolean[] fixed = grid.fixed();
+        double largest = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < grid.width; x++) {
+                int i = y * grid.width + x;
+                if (fixed[i]) {
+                    continue;
+                }
+                u[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+                largest = Math.max(largest, Math.abs(r[i]) / neighbours(x, y));
+            }
+        }
+        return largest;
+    }
+
+    // z = M^-1 r on rows [y0, y1)
+    private void precondition(int y0, int y1) {
+        boolean[] fixed = grid.fixed();
+        int width = grid.width;
+        int begin = y0 * width;
+        int end = y1 * width;
+
+        if (preconditioner == Preconditioner.JACOBI) {
+            for (int i = begin; i < end; i++) {
+                z[i] = r[i] * inverseDiagonal[i];
+            }
+            return;
+        }
+
+        // forward sweep through the lower factor, then backward through the upper one; the factor of a band ignores
+        // the cells of the other bands, which keeps the bands independent and the preconditioner symmetric
+        for (int i = begin; i < end; i++) {
+            if (fixed[i]) {
+                z[i] = 0;
+                continue;
+            }
+            double value = r[i];
+            if (i % width > 0) {
+                value += z[i - 1];
+            }
+            if (i - width >= begin) {
+                value += z[i - width];
+            }
+            z[i] = value * inverseDiagonal[i];
+        }
+        for (int i = end - 1; i >= begin; i--) {
+            if (fixed[i]) {
+                continue;
+            }
+            double value = 0;
+            if (i % width < width - 1) {
+                value += z[i + 1];
+            }
+            if (i + width < end) {
+                value += z[i + width];
+            }
+            z[i] += value * inverseDiagonal[i];
+        }
+    }
+
+    // computes the inverse pivots of rows [y0, y1), the diagonal itself for Jacobi, otherwise the incomplete
+    // Cholesky pivots count - 1 / pivot of the free left neighbour - 1 / pivot of the free neighbour above
+    private void factor(int y0, int y1) {
+        boolean[] fixed = grid.fixed();
+        int width = grid.width;
+        for (int y = y0; y < y1; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (fixed[i]) {
+                    continue;
+                }
+                double pivot = neighbours(x, y);
+                if (preconditioner == Preconditioner.INCOMPLETE_CHOLESKY) {
+                    if (x > 0 && !fixed[i - 1]) {
+                        pivot -= inverseDiagonal[i - 1];
+                    }
+                    if (y > y0 && !fixed[i - width]) {
+                        pivot -= inverseDiagonal[i - width];
+                    }
+                }
+                inverseDiagonal[i] = 1 / pivot;
+            }
+        }
+    }
+
+    // a . b over rows [y0, y1)
+    private double dot(double[] a, double[] b, int y0, int y1) {
+        double dot = 0;
+        int end = y1 * grid.width;
+        for (int i = y0 * grid.width; i < end; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    // number of neighbours of a cell that lie inside the grid
+    private int neighbours(int x, int y) {
+        int count = 4;
+        if (x == 0) {
+            count--;
+        }
+        if (x == grid.width - 1) {
+            count--;
+        }
+        if (y == 0) {
+            count--;
+        }
+        if (y == grid.height - 1) {
+            count--;
+        }
+        return count;
+    }
+
+    // sum of the values of the neighbours of a cell that lie inside the grid
+    private double neighbourSum(double[] v, int x, int y) {
+        int i = y * grid.width + x;
+        double sum = 0;
+        if (x > 0) {
+            sum += v[i - 1];
+        }
+        if (x < grid.width - 1) {
+            sum += v[i + 1];
+        }
+        if (y > 0) {
+            sum += v[i - grid.width];
+        }
+        if (y < grid.height - 1) {
+            sum += v[i + grid.width];
+        }
+        return sum;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException("heat conjugate gradient team was interrupted", e);
+        }
+    }
+}
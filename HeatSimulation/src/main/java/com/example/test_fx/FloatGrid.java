@@ -0,0 +1,228 @@
+package com.example.test_fx;
+
+// single precision counterpart of Grid: the temperatures are floats, so a sweep moves half the bytes of a double
+// grid, which is what bounds the stencil on large grids; a float holds about seven digits, far finer than the
+// tolerance of a quarter of a degree the solvers stop at, and toGrid carries a converged state over to a double
+// grid for a final pass in double precision
+public class FloatGrid implements SweepGrid {
+
+    private final int width;
+    private final int height;
+    private final int stride; // distance between vertically adjacent cells in the flat arrays
+    private final boolean[] fixed; // marks fixed heat points, same layout as the temperature buffers
+    private float[] current; // temperatures read by a sweep
+    private float[] next; // temperatures written by a sweep
+
+    public FloatGrid(int width, int height) {
+        if ((long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("a grid of " + width + "x" + height + " cells does not fit in arrays");
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.fixed = new boolean[width * height];
+        this.current = new float[width * height];
+        this.next = new float[width * height];
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        return current[y * stride + x];
+    }
+
+    // sets the temperature of a cell in both buffers so the next swap keeps it
+    public void set(int x, int y, float value) {
+        int i = y * stride + x;
+        current[i] = value;
+        next[i] = value;
+    }
+
+    @Override
+    public boolean isFixed(int x, int y) {
+        return fixed[y * stride + x];
+    }
+
+    @Override
+    public void setFixed(int x, int y, double value) {
+        fixed[y * stride + x] = true;
+        set(x, y, (float) value);
+    }
+
+    public float[] current() {
+        return current;
+    }
+
+    @Override
+    public void swap() {
+        float[] temp = current;
+        current = next;
+        next = temp;
+    }
+
+    // double grid with the same fixed points and the current temperatures of this one
+    public Grid toGrid() {
+        Grid grid = new Grid(width, height);
+        copyTo(grid);
+        boolean[] mask = grid.fixed();
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = fixed[i];
+        }
+        return grid;
+    }
+
+    // copies the current temperatures into both buffers of a double grid of the same size, such as the one a window
+    // shows; the fixed points of that grid are left as they are
+    public void copyTo(Grid grid) {
+        double[] values = grid.current();
+        double[] spare = grid.next();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = current[i];
+            spare[i] = current[i]; // fixed points have to be in both buffers
+        }
+    }
+
+    // average temperature of the neighbours of a cell in the current buffer
+    public float average(int x, int y) {
+        float[] src = current;
+        int i = y * stride + x;
+        float temp = 0;
+        int count = 0;
+
+        if (x > 0) {
+            temp += src[i - 1];
+            count++;
+        }
+        if (x < width - 1) {
+            temp += src[i + 1];
+            count++;
+        }
+        if (y > 0) {
+            temp += src[i - stride];
+            count++;
+        }
+        if (y < height - 1) {
+            temp += src[i + stride];
+            count++;
+        }
+
+        return temp / count;
+    }
+
+    // summed in double, the squares of many small changes would lose digits in a float
+    @Override
+    public double residualL2() {
+        double sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * stride + x;
+                if (!fixed[i]) {
+                    double change = average(x, y) - current[i];
+                    sum += change * change;
+                }
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    // Jacobi sweep like Grid.relaxScalar in float arithmetic
+    @Override
+    public double relax(int startX, int endX, int startY, int endY) {
+        float[] src = current;
+        float[] dst = next;
+        boolean[] mask = fixed;
+        int lastX = width - 1;
+        int lastY = height - 1;
+        float maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            if (y == 0 || y == lastY) {
+                // boundary rows have fewer neighbours, fall back to the general stencil
+                for (int x = startX; x < endX; x++) {
+                    maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, x, y));
+                }
+                continue;
+            }
+
+            int x = startX;
+            if (x == 0 && x < endX) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, 0, y));
+                x = 1;
+            }
+
+            // interior cells always have four neighbours
+            int row = y * stride;
+            int interiorEnd = Math.min(endX, lastX);
+            for (; x < interiorEnd; x++) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                float newTemp = (src[i - 1] + src[i + 1] + src[i - stride] + src[i + stride]) * 0.25f;
+                float delta = Math.abs(newTemp - src[i]);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+                dst[i] = newTemp;
+            }
+
+            for (; x < endX; x++) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, x, y));
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // red-black over-relaxation like Grid.relaxColor in float arithmetic
+    @Override
+    public double relaxColor(int color, double omega, int startX, int endX, int startY, int endY) {
+        float[] t = current;
+        boolean[] mask = fixed;
+        float factor = (float) omega;
+        int lastX = width - 1;
+        int lastY = height - 1;
+        float maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            boolean edgeRow = y == 0 || y == lastY;
+            int row = y * stride;
+            for (int x = startX + (((startX + y) & 1) ^ color); x < endX; x += 2) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                float average = (edgeRow || x == 0 || x == lastX) ? average(x, y)
+                        : (t[i - 1] + t[i + 1] + t[i - stride] + t[i + stride]) * 0.25f;
+                float change = factor * (average - t[i]);
+                t[i] += change;
+                float delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relaxes a single cell on the border of the grid and returns its temperature change
+    private float relaxEdge(float[] src, float[] dst, boolean[] mask, int x, int y) {
+        int i = y * stride + x;
+        if (mask[i]) {
+            return 0;
+        }
+        float newTemp = average(x, y);
+        dst[i] = newTemp;
+        return Math.abs(newTemp - src[i]);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.test_fx;
+
+// flat row-major temperature grid with a fixed-point mask and two buffers that swap after every sweep
+public class Grid implements SweepGrid {
+
+    // Jacobi sweeps use the vector kernel when the JVM runs with --add-modules jdk.incubator.vector and the
+    // hardware has more than one double per vector; before JDK 21 the vectors of the incubator are not scalarised and
+    // the kernel allocates megabytes per sweep, so it is only on by default from 21 on; -Dheat.vector=true turns it
+    // on for older runtimes too and -Dheat.vector=false keeps the scalar loop
+    private static final boolean VECTOR = vectorRequested()
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorJacobi.lanes() > 1;
+
+    public final int width; // number of cells in a row
+    public final int height; // number of rows
+    public final int stride; // distance between vertically adjacent cells in the flat arrays
+    private final boolean[] fixed; // marks fixed heat points, same layout as the temperature buffers
+    private double[] current; // temperatures read by a sweep
+    private double[] next; // temperatures written by a sweep
+
+    public Grid(int width, int height) {
+        if ((long) width * height > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("a grid of " + width + "x" + height + " cells does not fit in arrays, "
+                    + "it needs off-heap storage");
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.fixed = new boolean[width * height];
+        this.current = new double[width * height];
+        this.next = new double[width * height];
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    // index of a cell in the flat arrays
+    public int index(int x, int y) {
+        return y * stride + x;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        return current[y * stride + x];
+    }
+
+    // sets the temperature of a cell in both buffers so the next swap keeps it
+    public void set(int x, int y, double value) {
+        int i = y * stride + x;
+        current[i] = value;
+        next[i] = value;
+    }
+
+    @Override
+    public boolean isFixed(int x, int y) {
+        return fixed[y * stride + x];
+    }
+
+    // marks a cell as a fixed heat point with the given temperature
+    @Override
+    public void setFixed(int x, int y, double value) {
+        fixed[y * stride + x] = true;
+        set(x, y, value);
+    }
+
+    // frees a fixed heat point, its temperature is relaxed like any other cell from the next sweep on
+    public void clearFixed(int x, int y) {
+        fixed[y * stride + x] = false;
+    }
+
+    public double[] current() {
+        return current;
+    }
+
+    public double[] next() {
+        return next;
+    }
+
+    public boolean[] fixed() {
+        return fixed;
+    }
+
+    // makes the buffer written by the last sweep the one read by the next sweep
+    @Override
+    public void swap() {
+        double[] temp = current;
+        current = next;
+        next = temp;
+    }
+
+    // average temperature of the neighbours of a cell in the current buffer
+    public double average(int x, int y) {
+        double[] src = current;
+        int i = y * stride + x;
+        double temp = 0;
+        int count = 0;
+
+        if (x > 0) {
+            temp += src[i - 1];
+            count++;
+        }
+        if (x < width - 1) {
+            temp += src[i + 1];
+            count++;
+        }
+        if (y > 0) {
+            temp += src[i - stride];
+            count++;
+        }
+        if (y < height - 1) {
+            temp += src[i + stride];
+            count++;
+        }
+
+        return temp / count;
+    }
+
+    // root of the sum of squares of the change a Jacobi sweep would make to every free cell, the L2 counterpart of
+    // the largest change; reads the whole grid, so it is only worth computing now and then
+    @Override
+    public double residualL2() {
+        double sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * stride + x;
+                if (!fixed[i]) {
+                    double change = average(x, y) - current[i];
+                    sum += change * change;
+                }
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    public static boolean isVectorized() {
+        return VECTOR;
+    }
+
+    private static boolean vectorRequested() {
+        String value = System.getProperty("heat.vector");
+        return (value == null) ? Runtime.version().feature() >= 21 : value.equals("true");
+    }
+
+    // relaxes rows [startY, endY) and columns [startX, endX) from the current buffer into the next one
+    // and returns the largest temperature change, vectorised when the vector module is available
+    @Override
+    public double relax(int startX, int endX, int startY, int endY) {
+        return VECTOR ? VectorJacobi.relax(this, startX, endX, startY, endY) : relaxScalar(startX, endX, startY, endY);
+    }
+
+    // scalar version of relax; fixed points are never written since both buffers hold them
+    public double relaxScalar(int startX, int endX, int startY, int endY) {
+        double[] src = current;
+        double[] dst = next;
+        boolean[] mask = fixed;
+        int lastX = width - 1;
+        int lastY = height - 1;
+        double maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            if (y == 0 || y == lastY) {
+                // boundary rows have fewer neighbours, fall back to the general stencil
+                for (int x = startX; x < endX; x++) {
+                    maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, x, y));
+                }
+                continue;
+            }
+
+            int x = startX;
+            if (x == 0 && x < endX) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, 0, y));
+                x = 1;
+            }
+
+            // interior cells always have four neighbours
+            int row = y * stride;
+            int interiorEnd = Math.min(endX, lastX);
+            for (; x < interiorEnd; x++) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                double newTemp = (src[i - 1] + src[i + 1] + src[i - stride] + src[i + stride]) * 0.25;
+                double delta = Math.abs(newTemp - src[i]);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+                dst[i] = newTemp;
+            }
+
+            for (; x < endX; x++) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, mask, x, y));
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // over-relaxes in place the cells of one colour of a checkerboard, (x + y) % 2 == color, in rows [startY, endY)
+    // and columns [startX, endX) and returns the largest temperature change; cells of one colour only read cells
+    // of the other colour, so any split of the rows can be relaxed in parallel
+    @Override
+    public double relaxColor(int color, double omega, int startX, int endX, int startY, int endY) {
+        double[] t = current;
+        boolean[] mask = fixed;
+        int lastX = width - 1;
+        int lastY = height - 1;
+        double maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            boolean edgeRow = y == 0 || y == lastY;
+            int row = y * stride;
+            for (int x = startX + (((startX + y) & 1) ^ color); x < endX; x += 2) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                double average = (edgeRow || x == 0 || x == lastX) ? average(x, y)
+                        : (t[i - 1] + t[i + 1] + t[i - stride] + t[i + stride]) * 0.25;
+                double change = omega * (average - t[i]);
+                t[i] += change;
+                double delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relaxes a single cell on the border of the grid and returns its temperature change
+    private double relaxEdge(double[] src, double[] dst, boolean[] mask, int x, int y) {
+        int i = y * stride + x;
+        if (mask[i]) {
+            return 0;
+        }
+        double newTemp = average(x, y);
+        dst[i] = newTemp;
+        return Math.abs(newTemp - src[i]);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.test_fx;
+
+// where the temperatures and the fixed-point mask of a grid live
+public enum GridStorage {
+    HEAP, // arrays on the heap, every solver works on them
+    NATIVE, // native memory outside the heap, only the Jacobi and SOR sweeps work on it
+    MAPPED // memory mapped from a scratch file, otherwise like native
+}
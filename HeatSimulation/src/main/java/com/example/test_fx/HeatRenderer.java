@@ -0,0 +1,260 @@
+package com.example.test_fx;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+// draws the part of the grid inside a zoomable and pannable viewport into an image of screen size; the solver
+// thread turns the grid into a frame of packed colours between sweeps and the FX thread only copies the newest
+// frame into the pixel buffer, so frames are dropped whenever the solver is faster than the display instead of
+// slowing it down; a frame reads at most a few cells or pyramid blocks per pixel, so it costs the same for any
+// grid size
+public class HeatRenderer {
+
+    private static final double MIN_SCALE = 1.0 / 64; // cells per pixel when zoomed in all the way
+    private static final int SOLVER_SHARE = 9; // the solver gets at least this many times the time spent on a frame
+    private static final int BACKGROUND = 0xFF202020; // pixels outside the grid
+
+    // statistic of the cells under a pixel that decides its colour
+    public enum Detail {
+        MEAN, // average temperature, what the eye would see
+        MIN, // coldest cell, shows cold spots that averaging would hide
+        MAX // hottest cell, keeps single heat points visible when zoomed out
+    }
+
+    // immutable view state, replaced as a whole by the FX thread and read by the thread that draws a frame
+    private static final class Viewport {
+        final double x, y; // grid coordinates of the top left corner of the image
+        final double scale; // cells per pixel
+        final Detail detail;
+
+        Viewport(double x, double y, double scale, Detail detail) {
+            this.x = x;
+            this.y = y;
+            this.scale = scale;
+            this.detail = detail;
+        }
+    }
+
+    private final int viewWidth, viewHeight; // pixels of the image
+    private final int gridWidth, gridHeight;
+    private final int[] palette; // premultiplied ARGB of every colour of the gradient
+    private final Pyramid pyramid;
+    private final PixelBuffer<IntBuffer> pixelBuffer;
+    private final ImageView view;
+    private final long frameInterval; // nanoseconds between two frames at the display rate
+    private final AtomicReference<int[]> latest = new AtomicReference<>(); // newest frame not yet shown
+    private final AtomicReference<int[]> free = new AtomicReference<>(); // frame the FX thread has finished copying
+    private volatile Viewport viewport;
+
+    // owned by the thread that draws frames, the solver thread while it runs and the FX thread afterwards
+    private int[] back; // frame being drawn
+    private long nextFrame; // earliest time for the next offered frame
+    private final int[] cellX0, cellX1, cellY0, cellY1; // cells or blocks under every column and row of pixels
+
+    public HeatRenderer(int viewWidth, int viewHeight, int gridWidth, int gridHeight, Color[] colors, int fps) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.palette = createPalette(colors);
+        this.pyramid = new Pyramid(gridWidth, gridHeight);
+        this.frameInterval = 1_000_000_000L / fps;
+        this.back = new int[viewWidth * viewHeight];
+        this.cellX0 = new int[viewWidth];
+        this.cellX1 = new int[viewWidth];
+        this.cellY0 = new int[viewHeight];
+        this.cellY1 = new int[viewHeight];
+
+        // the pixel buffer has to be direct, an int view of a direct byte buffer in native order is
+        IntBuffer pixels = ByteBuffer.allocateDirect(viewWidth * viewHeight * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        this.pixelBuffer = new PixelBuffer<>(viewWidth, viewHeight, pixels, PixelFormat.getIntArgbPreInstance());
+        this.view = new ImageView(new WritableImage(pixelBuffer));
+        fit();
+    }
+
+    public ImageView getView() {
+        return view;
+    }
+
+    // premultiplied ARGB values of a gradient, looked up by temperature instead of converting a Color per cell
+    public static int[] createPalette(Color[] colors) {
+        int[] palette = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            Color c = colors[i];
+            double a = c.getOpacity();
+            palette[i] = ((int) Math.round(a * 255) << 24)
+                    | ((int) Math.round(c.getRed() * a * 255) << 16)
+                    | ((int) Math.round(c.getGreen() * a * 255) << 8)
+                    | (int) Math.round(c.getBlue() * a * 255);
+        }
+        return palette;
+    }
+
+    // shows the whole grid, centred
+    public void fit() {
+        double scale = Math.max((double) gridWidth / viewWidth, (double) gridHeight / viewHeight);
+        Detail detail = (viewport != null) ? viewport.detail : Detail.MEAN;
+        viewport = new Viewport((gridWidth - viewWidth * scale) / 2, (gridHeight - viewHeight * scale) / 2,
+                scale, detail);
+    }
+
+    // zooms by a factor around a pixel of the image, which keeps showing the same cell; factors above 1 zoom in
+    public void zoom(double factor, double pixelX, double pixelY) {
+        Viewport v = viewport;
+        double scale = Math.max(MIN_SCALE, v.scale / factor);
+        double cellX = v.x + pixelX * v.scale;
+        double cellY = v.y + pixelY * v.scale;
+        viewport = new Viewport(cellX - pixelX * scale, cellY - pixelY * scale, scale, v.detail);
+    }
+
+    // moves the content of the image by a number of pixels
+    public void pan(double pixelsX, double pixelsY) {
+        Viewport v = viewport;
+        viewport = new Viewport(v.x - pixelsX * v.scale, v.y - pixelsY * v.scale, v.scale, v.detail);
+    }
+
+    // cell under a pixel of the image as x, y, null outside the grid
+    public int[] cellAt(double pixelX, double pixelY) {
+        Viewport v = viewport;
+        int x = (int) Math.floor(v.x + pixelX * v.scale);
+        int y = (int) Math.floor(v.y + pixelY * v.scale);
+        if (x < 0 || y < 0 || x >= gridWidth || y >= gridHeight) {
+            return null;
+        }
+        return new int[]{x, y};
+    }
+
+    // switches to the next statistic for pixels that cover several cells
+    public void cycleDetail() {
+        Viewport v = viewport;
+        Detail[] details = Detail.values();
+        viewport = new Viewport(v.x, v.y, v.scale, details[(v.detail.ordinal() + 1) % details.length]);
+    }
+
+    // called by the solver thread between sweeps, publishes a frame once the display is due for one and the solver
+    // has had its share of the time since the last frame
+    public void offer(Grid grid) {
+        long now = System.nanoTime();
+        if (isDue()) {
+            publish(grid, false);
+            long spent = System.nanoTime() - now;
+            nextFrame = now + Math.max(frameInterval, spent * SOLVER_SHARE);
+        }
+    }
+
+    // whether offer would publish a frame now, so a caller can skip preparing a grid nobody will see
+    public boolean isDue() {
+        return System.nanoTime() - nextFrame >= 0;
+    }
+
+    // draws a frame of the grid and hands it to the FX thread; complete refreshes the whole pyramid, otherwise it
+    // catches up on four times as many cells as the frame has pixels
+    public void publish(Grid grid, boolean complete) {
+        if (complete) {
+            pyramid.refreshAll(grid);
+        } else {
+            pyramid.refresh(grid, 4L * viewWidth * viewHeight);
+        }
+        draw(grid, viewport, back);
+
+        int[] dropped = latest.getAndSet(back);
+        if (dropped != null) {
+            back = dropped; // the FX thread never saw it, a newer frame replaces it
+        } else {
+            int[] shown = free.getAndSet(null);
+            back = (shown != null) ? shown : new int[viewWidth * viewHeight];
+        }
+    }
+
+    // called on the FX thread once per pulse, copies the newest frame into the image if there is one
+    public void show() {
+        int[] frame = latest.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        pixelBuffer.updateBuffer(buffer -> {
+            IntBuffer pixels = buffer.getBuffer();
+            pixels.clear();
+            pixels.put(frame);
+            return null; // the whole image changed
+        });
+        free.set(frame);
+    }
+
+    // colours every pixel of a frame; below 2^FIRST_LEVEL cells per pixel the cells come from the grid, above it
+    // from the pyramid level whose blocks are just smaller than a pixel, so a pixel reads at most 5 x 5 values
+    private void draw(Grid grid, Viewport v, int[] frame) {
+        int level = 0;
+        while (level < pyramid.getTopLevel() && (1 << (level + 1)) <= v.scale) {
+            level++;
+        }
+        if (level < Pyramid.FIRST_LEVEL) {
+            level = 0;
+        }
+
+        int blocksWide = (level == 0) ? gridWidth : pyramid.getWidth(level);
+        int blocksHigh = (level == 0) ? gridHeight : pyramid.getHeight(level);
+        int block = 1 << level;
+        span(v.x, v.scale, block, blocksWide, cellX0, cellX1);
+        span(v.y, v.scale, block, blocksHigh, cellY0, cellY1);
+
+        float[] values = null;
+        if (level > 0) {
+            values = (v.detail == Detail.MIN) ? pyramid.getMin(level)
+                    : (v.detail == Detail.MAX) ? pyramid.getMax(level) : pyramid.getMean(level);
+        }
+        double[] cells = grid.current();
+        int last = palette.length - 1;
+
+        for (int py = 0; py < viewHeight; py++) {
+            int y0 = cellY0[py];
+            int y1 = cellY1[py];
+            int row = py * viewWidth;
+            for (int px = 0; px < viewWidth; px++) {
+                int x0 = cellX0[px];
+                int x1 = cellX1[px];
+                if (x0 >= x1 || y0 >= y1) {
+                    frame[row + px] = BACKGROUND;
+                    continue;
+                }
+
+                double sum = 0;
+                double lowest = Double.POSITIVE_INFINITY;
+                double highest = Double.NEGATIVE_INFINITY;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        double value = (values != null) ? values[y * blocksWide + x] : cells[y * gridWidth + x];
+                        sum += value;
+                        lowest = Math.min(lowest, value);
+                        highest = Math.max(highest, value);
+                    }
+                }
+                double value = (v.detail == Detail.MIN) ? lowest
+                        : (v.detail == Detail.MAX) ? highest : sum / ((x1 - x0) * (y1 - y0));
+                int index = (int) value; // same as the floor for every temperature the palette covers
+                frame[row + px] = palette[Math.max(0, Math.min(index, last))];
+            }
+        }
+    }
+
+    // the range of cells or blocks of the given size under every pixel along one axis, clipped to count of them;
+    // a pixel always gets at least the block under its start, so zoomed in several pixels share a cell
+    private static void span(double origin, double scale, int block, int count, int[] start, int[] end) {
+        for (int p = 0; p < start.length; p++) {
+            double from = (origin + p * scale) / block;
+            double to = (origin + (p + 1) * scale) / block;
+            int first = (int) Math.floor(from);
+            int last = Math.max(first + 1, (int) Math.floor(to));
+            start[p] = Math.max(0, first);
+            end[p] = Math.min(count, last);
+        }
+    }
+}
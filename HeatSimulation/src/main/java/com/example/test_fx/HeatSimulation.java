@@ -1,20 +1,19 @@
 package com.example.test_fx;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 import javafx.scene.paint.Color;
-import javafx.util.Duration;
 
 import javax.swing.*;
-import java.util.Random;
-import java.util.concurrent.RecursiveAction;
-import java.util.concurrent.ForkJoinPool;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HeatSimulation extends Application {
@@ -23,43 +22,78 @@ public class HeatSimulation extends Application {
     private static int frameWidth = 800;
     private static int frameHeight = 600;
     private static int PIXEL_SIZE = 10;
+    private static final int MAX_VIEW_WIDTH = 1280; // largest window, bigger grids are shown zoomed out
+    private static final int MAX_VIEW_HEIGHT = 800;
     public static Color[] heatColors; // array to store color gradient for heat visualization
-    public static double[][] cellTemperature; // array to store the temperature of each cell
-    public static boolean[][] fixedPoints; // array to mark fixed heat points
+    public static Grid grid; // temperature of each cell and the fixed heat points
     public static int heatPoints = 10; // number of heat points
     public static boolean start = false; // flag to start simulation
     private static boolean showGraphicalInterface = true; // flag to toggle graphical interface
     private static boolean useParallel = false; // flag to toggle parallel computation
+    private static int threads = Runtime.getRuntime().availableProcessors(); // worker threads for parallel computation
+    private static int bandRows = 16; // fewest rows worth giving a worker thread of its own
+    private static SolverType solver = SolverType.JACOBI; // numerical method used to reach the steady state
+    private static double omega = 0; // relaxation factor for SOR, 0 estimates it from the grid size
+    private static int tileSteps = 1; // Jacobi steps a cache-sized tile advances at once, 1 sweeps the grid per step
+    private static int tileWidth = 256; // columns of a tile for the temporally blocked Jacobi kernel
+    private static int tileHeight = 64; // rows of a tile for the temporally blocked Jacobi kernel
+    private static Preconditioner preconditioner = Preconditioner.INCOMPLETE_CHOLESKY; // of the conjugate gradient
+    private static Precision precision = Precision.DOUBLE; // width of the temperatures the sweeps work on
+    private static volatile FloatGrid floatGrid; // swept by single and mixed precision until polishing, grid shows it
+    private static volatile Simulation simulation; // solver state of the grid, rebuilt with it
+    private static AdaptiveGrid adaptive; // mesh the solver works on with -Dheat.amr, grid shows its means
+    private static Metrics metrics; // per-iteration JFR events and samples of the simulation
+    private static SnapshotWriter snapshots; // time series of the grid, null takes none
+    private static Checkpoint restart; // checkpoint the run continues from, null starts afresh
+
+    // system properties, all optional and read once:
+    // -Dheat.activeTiles=<n> only sweeps the n x n tiles that still move and their neighbours (0, every cell), a
+    //     tile settles once it changes by at most -Dheat.activeTiles.fraction=<f> of the stability threshold (0.1)
+    // -Dheat.amr=<n> solves on an adaptive mesh of 2^n x 2^n cells per cell of the window (0, on the grid itself);
+    //     the grid then only shows the means of the mesh and takes no checkpoints or snapshots
+    // -Dheat.superposition=<MB> answers edits that only change temperatures from basis fields cached within the
+    //     budget (0, solves again)
+    // -Dheat.metrics=<file> samples the iterations, see MetricsSink
+    // -Dheat.checkpoint=<file> is rewritten every -Dheat.checkpoint.interval=<n> iterations (1000) while the
+    //     simulation runs, -Dheat.restart=<file> continues from such a checkpoint
+    // -Dheat.snapshots=<file> writes a time series of the grid, see SnapshotWriter.fromSystemProperties
+    private static final int activeTileSize = Integer.getInteger("heat.activeTiles", 0);
+    private static final double activeFraction = Double.parseDouble(System.getProperty("heat.activeTiles.fraction",
+            "0.1"));
+    private static final int adaptiveLevels = Integer.getInteger("heat.amr", 0);
+    private static final SuperpositionCache superposition = superpositionCache(); // null solves instead
+    private static final MetricsSink metricsSink = MetricsSink.fromSystemProperties(); // null samples nothing
+    private static final Path checkpointFile = pathProperty("heat.checkpoint"); // null writes none
+    private static final int checkpointInterval = Integer.getInteger("heat.checkpoint.interval", 1000);
+
     private static final double STABILITY_THRESHOLD = 0.25; // threshold for temperature stability
     public static final int FPS = 60; // frames per second for animation
     public static long runtime = 0; // variable to track runtime
 
     private static final AtomicBoolean computationRunning = new AtomicBoolean(false); // flag to check if computation is running
-    private static ForkJoinPool forkJoinPool; // fork/join pool for parallel computation
+    private static final int MAX_ITERATIONS = Integer.MAX_VALUE; // sweeps to run before giving up on stability
 
     // initializes the grid with temperature values and fixed points
     public static void initialize() {
         int gridWidth = frameWidth / PIXEL_SIZE;
         int gridHeight = frameHeight / PIXEL_SIZE;
 
-        cellTemperature = new double[gridWidth][gridHeight];
-        fixedPoints = new boolean[gridWidth][gridHeight];
-
-        // initialize the grid with temperature 0
-        for (int i = 0; i < gridWidth; i++) {
-            for (int j = 0; j < gridHeight; j++) {
-                cellTemperature[i][j] = 0;
-            }
+        // random heat sources or the grid of the checkpoint, the solver objects depend on the size and the fixed
+        // points of the grid
+        grid = (restart != null) ? restart.grid
+                : Simulation.createGrid(gridWidth, gridHeight, heatPoints, Simulation.DEFAULT_SEED);
+        adaptive = null;
+        if (adaptiveLevels > 0 && restart == null) {
+            adaptive = Simulation.createAdaptiveGrid(gridWidth << adaptiveLevels, gridHeight << adaptiveLevels,
+                    heatPoints, Simulation.DEFAULT_SEED, AdaptiveGrid.DEFAULT_MIN_LEVEL);
+            grid = new Grid(gridWidth, gridHeight);
+            adaptive.resample(grid);
         }
-
-        // generate random heat sources
-        Random random = new Random(89211208);
-
-        for (int i = 0; i < heatPoints; i++) {
-            int x = random.nextInt(gridWidth); // random x-coordinate
-            int y = random.nextInt(gridHeight); // random y-coordinate
-            cellTemperature[x][y] = 100; // set temperature of heat point
-            fixedPoints[x][y] = true; // mark cell as fixed heat point
+        floatGrid = null;
+        if (precision != Precision.DOUBLE && adaptive == null && restart == null) {
+            // the same heat points in floats, the grid is the copy the window shows
+            floatGrid = Simulation.createFloatGrid(gridWidth, gridHeight, heatPoints, Simulation.DEFAULT_SEED);
+            grid = floatGrid.toGrid();
         }
 
         // create a color gradient for visualizing heat
@@ -74,6 +108,58 @@ public class HeatSimulation extends Application {
                 Color.rgb(255, 182, 10, 1),
                 Color.rgb(255, 229, 84, 1),
                 Color.rgb(252, 239, 195, 1)}, 100);
+
+        // frames are coloured like the window, the writer is shared by every simulation of the process
+        if (snapshots == null) {
+            snapshots = SnapshotWriter.fromSystemProperties(HeatRenderer.createPalette(heatColors));
+        }
+
+        simulation = newSimulation((floatGrid != null) ? floatGrid : grid);
+        if (restart != null) {
+            simulation.setSeed(restart.seed);
+            simulation.setIterations(Math.toIntExact(restart.iteration)); // main rejects larger counts
+            restart = null; // a later initialize starts afresh
+        }
+        if (floatGrid != null && (checkpointFile != null || snapshots != null)) {
+            System.out.println("Checkpoints and snapshots are only taken by double precision sweeps.");
+        }
+    }
+
+    // a simulation of the field with the options of the dialogs; checkpoints, snapshots, superposition and active
+    // tiles work on the double arrays of a Grid, a float grid is swept without them
+    private static Simulation newSimulation(SweepGrid field) {
+        Simulation simulation = new Simulation(field);
+        simulation.setSolver(solver);
+        simulation.setOmega(omega);
+        simulation.setPreconditioner(preconditioner);
+        simulation.setParallel(useParallel, threads, bandRows);
+        simulation.setTiles(tileSteps, tileWidth, tileHeight);
+        if (simulation.getGrid() != null) {
+            simulation.setCheckpoint(checkpointFile, checkpointInterval);
+            if (adaptive == null) {
+                simulation.setSuperposition(superposition);
+            }
+            simulation.setActiveTiles(activeTileSize, STABILITY_THRESHOLD * activeFraction);
+            simulation.setSnapshots(snapshots);
+        }
+        metrics = new Metrics(solver + " " + field.width() + "x" + field.height(), field, metricsSink);
+        simulation.setMetrics(metrics);
+        return simulation;
+    }
+
+    // ends the single precision sweeps: the grid takes their temperatures, and in mixed precision a double
+    // precision simulation of the grid continues from them, with the checkpoints, snapshots and edits that a float
+    // grid does not have; returns whether there is more to solve
+    private static boolean leaveSinglePrecision() {
+        floatGrid.copyTo(grid);
+        if (precision != Precision.MIXED) {
+            return false;
+        }
+        Simulation polish = newSimulation(grid);
+        polish.setIterations(simulation.getIterations());
+        simulation = polish;
+        floatGrid = null;
+        return true;
     }
 
     // shows a dialog box to get user input for resolution, heat points, and options
@@ -133,7 +219,11 @@ public class HeatSimulation extends Application {
                 }
             }
         }
+        readOptions();
+    }
 
+    // shows the dialogs for the options that do not change the grid, a restart only asks for these
+    private static void readOptions() {
         // option to show or hide graphical interface
         int interfaceChoice = JOptionPane.showConfirmDialog(null,
                 "Do you want to show the graphical interface?",
@@ -149,225 +239,371 @@ public class HeatSimulation extends Application {
                 JOptionPane.YES_NO_OPTION);
 
         useParallel = (parallelChoice == JOptionPane.YES_OPTION);
+
+        // option to choose the solver
+        Object solverChoice = JOptionPane.showInputDialog(null, "Select the solver:", "Solver",
+                JOptionPane.QUESTION_MESSAGE, null, SolverType.values(), solver);
+        if (solverChoice != null) {
+            solver = (SolverType) solverChoice;
+        }
+        if (solver == SolverType.SOR) {
+            omega = readOmega();
+        }
+        if (solver == SolverType.JACOBI) {
+            tileSteps = readPositiveInt("Enter the number of Jacobi steps per tile (1 disables temporal blocking):",
+                    tileSteps);
+            if (tileSteps > 1) {
+                tileWidth = readPositiveInt("Enter the tile width:", tileWidth);
+                tileHeight = readPositiveInt("Enter the tile height:", tileHeight);
+            }
+        }
+        if (solver == SolverType.CONJUGATE_GRADIENT) {
+            Object preconditionerChoice = JOptionPane.showInputDialog(null, "Select the preconditioner:",
+                    "Preconditioner", JOptionPane.QUESTION_MESSAGE, null, Preconditioner.values(), preconditioner);
+            if (preconditionerChoice != null) {
+                preconditioner = (Preconditioner) preconditionerChoice;
+            }
+        }
+        // floats only run the plain Jacobi and SOR sweeps, and checkpoints and the adaptive mesh are in double
+        precision = Precision.DOUBLE;
+        if ((solver == SolverType.SOR || (solver == SolverType.JACOBI && tileSteps == 1)) && restart == null
+                && adaptiveLevels == 0) {
+            Object precisionChoice = JOptionPane.showInputDialog(null, "Select the precision:", "Precision",
+                    JOptionPane.QUESTION_MESSAGE, null, Precision.values(), Precision.DOUBLE);
+            if (precisionChoice != null) {
+                precision = (Precision) precisionChoice;
+            }
+        }
+
+        if (useParallel) {
+            threads = readPositiveInt("Enter the number of threads:", threads);
+            bandRows = readPositiveInt("Enter the minimum number of rows per thread:", bandRows);
+        }
         start = true; // set start flag to true
     }
 
-    private Timeline timeline = null; // initialize timeline as null
+    // asks for a positive number, an empty input keeps the default value
+    private static int readPositiveInt(String message, int defaultValue) {
+        while (true) {
+            String input = JOptionPane.showInputDialog(null, message, defaultValue);
+            if (input == null || input.trim().isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                int value = Integer.parseInt(input.trim());
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the error message
+            }
+            JOptionPane.showMessageDialog(null, "Please enter a positive number.");
+        }
+    }
+
+    // asks for the SOR relaxation factor, an empty input lets it be estimated from the grid size
+    private static double readOmega() {
+        while (true) {
+            String input = JOptionPane.showInputDialog(null,
+                    "Enter the relaxation factor between 0 and 2 (leave empty to estimate it):");
+            if (input == null || input.trim().isEmpty()) {
+                return 0;
+            }
+            try {
+                double value = Double.parseDouble(input.trim());
+                if (value > 0 && value < 2) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the error message
+            }
+            JOptionPane.showMessageDialog(null, "Please enter a number between 0 and 2.");
+        }
+    }
+
+    private AnimationTimer frameTimer = null; // copies the newest frame into the image once per pulse
 
     @Override
     public void start(Stage primaryStage) {
         if (start) {
             initialize(); // ensure initialization is always called
 
-            if (!showGraphicalInterface) {
-                // if no graphical interface is needed, run calculation and output results in the console
-                System.out.println("Starting simulation in non-graphical mode...");
-                runtime = System.currentTimeMillis(); // record start time
-                calculate(); // perform calculation without graphical output
-                System.out.println("Runtime: " + (System.currentTimeMillis() - runtime) + "ms"); // print runtime
-                System.exit(0); // exit the application
-                return;
-            }
-
-            Canvas canvas = new Canvas(frameWidth, frameHeight);
-            GraphicsContext gc = canvas.getGraphicsContext2D();
+            int viewWidth = Math.min(frameWidth, MAX_VIEW_WIDTH);
+            int viewHeight = Math.min(frameHeight, MAX_VIEW_HEIGHT);
+            HeatRenderer renderer = new HeatRenderer(viewWidth, viewHeight, grid.width, grid.height, heatColors, FPS);
 
             StackPane root = new StackPane();
-            root.getChildren().add(canvas);
+            root.getChildren().add(renderer.getView());
+            Scene scene = new Scene(root, viewWidth, viewHeight);
+            addViewportControls(scene, renderer);
 
             primaryStage.setTitle("Heat Simulation"); // set window title
-            primaryStage.setScene(new Scene(root, frameWidth, frameHeight)); // set scene with specified dimensions
+            primaryStage.setScene(scene);
             primaryStage.setResizable(false); // make window non-resizable
             primaryStage.show(); // display the stage
 
             // start computation and update the graphics automatically
-            startComputation(gc);
+            startComputation(renderer);
         }
     }
 
-    private void startComputation(GraphicsContext gc) {
-        if (computationRunning.get()) {
-            // prevent starting a new computation if one is already running
-            return;
-        }
-
-        computationRunning.set(true);
-
-        timeline = new Timeline(new KeyFrame(Duration.millis(1000 / FPS), event -> {
-            boolean thresholdReached = updateAndRender(gc);
-
-            if (thresholdReached) {
-                if (timeline != null) { // ensure timeline is not null before attempting to stop it
-                    timeline.stop();
-                }
-                computationRunning.set(false);
-                System.out.println("Threshold reached. Stopping simulation.");
+    // mouse wheel zooms around the pointer, dragging pans, M switches between mean, minimum and maximum for
+    // pixels that cover several cells and R shows the whole grid again; a click adds a heat point of 100 degrees
+    // or sets one to it, a shift-click the same with 50 degrees, a right click removes one and dragging one with
+    // ctrl held moves it, and the solver continues from the current temperatures
+    private void addViewportControls(Scene scene, HeatRenderer renderer) {
+        double[] dragStart = new double[2];
+        int[][] moving = new int[1][]; // heat point being dragged with ctrl held, null while panning
+
+        scene.setOnScroll(event -> {
+            renderer.zoom(event.getDeltaY() > 0 ? 1.25 : 1 / 1.25, event.getX(), event.getY());
+            redrawIfIdle(renderer);
+        });
+        scene.setOnMousePressed(event -> {
+            dragStart[0] = event.getX();
+            dragStart[1] = event.getY();
+            int[] cell = renderer.cellAt(event.getX(), event.getY());
+            boolean editable = adaptive == null && floatGrid == null && cell != null && event.isControlDown();
+            moving[0] = (editable && grid.isFixed(cell[0], cell[1])) ? cell : null;
+        });
+        scene.setOnMouseReleased(event -> {
+            int[] from = moving[0];
+            int[] to = renderer.cellAt(event.getX(), event.getY());
+            moving[0] = null;
+            if (from != null && to != null && (from[0] != to[0] || from[1] != to[1])) {
+                simulation.moveHeatPoint(from[0], from[1], to[0], to[1]);
+                resumeComputation(renderer);
             }
-        }));
-
-        timeline.setCycleCount(Timeline.INDEFINITE); // run indefinitely until manually stopped
-        timeline.play();
+        });
+        scene.setOnMouseClicked(event -> {
+            int[] cell = renderer.cellAt(event.getX(), event.getY());
+            if (adaptive != null || floatGrid != null || cell == null || !event.isStillSincePress()
+                    || event.isControlDown()) {
+                return; // the adaptive mesh and the float grid are not edited, the window only shows them
+            }
+            if (event.getButton() == MouseButton.SECONDARY) {
+                simulation.removeHeatPoint(cell[0], cell[1]);
+            } else if (event.getButton() == MouseButton.PRIMARY) {
+                simulation.setHeatPoint(cell[0], cell[1], event.isShiftDown() ? 50 : 100);
+            }
+            resumeComputation(renderer);
+        });
+        scene.setOnMouseDragged(event -> {
+            if (moving[0] != null) {
+                return;
+            }
+            renderer.pan(event.getX() - dragStart[0], event.getY() - dragStart[1]);
+            dragStart[0] = event.getX();
+            dragStart[1] = event.getY();
+            redrawIfIdle(renderer);
+        });
+        scene.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.M) {
+                renderer.cycleDetail();
+            } else if (event.getCode() == KeyCode.R) {
+                renderer.fit();
+            }
+            redrawIfIdle(renderer);
+        });
     }
 
-    // updates the temperature grid and renders the new state
-    private boolean updateAndRender(GraphicsContext gc) {
-        boolean thresholdReached = true;
-        double threshold = 0.25; // example threshold for temperature change
-
-        int gridWidth = frameWidth / PIXEL_SIZE;
-        int gridHeight = frameHeight / PIXEL_SIZE;
-
-        for (int x = 0; x < gridWidth; x++) {
-            for (int y = 0; y < gridHeight; y++) {
-                // check bounds to prevent ArrayIndexOutOfBoundsException
-                if (x >= 0 && x < gridWidth && y >= 0 && y < gridHeight) {
-                    if (!fixedPoints[x][y]) {
-                        double newTemp = calculateTemperature(x, y);
-                        if (Math.abs(newTemp - cellTemperature[x][y]) > threshold) {
-                            thresholdReached = false; // mark as not stable if temperature change is significant
-                        }
-                        cellTemperature[x][y] = newTemp;
-                    }
-
-                    // check bounds before accessing heatColors
-                    int colorIndex = (int) Math.min(Math.floor(cellTemperature[x][y]), heatColors.length - 1);
-                    gc.setFill(heatColors[colorIndex]);
-                    gc.fillRect(x * PIXEL_SIZE, y * PIXEL_SIZE, PIXEL_SIZE, PIXEL_SIZE);
-                }
-            }
+    // while the solver runs its next frame picks up the new viewport, afterwards the FX thread draws it itself
+    private void redrawIfIdle(HeatRenderer renderer) {
+        if (!computationRunning.get()) {
+            renderer.publish(grid, false);
+            renderer.show();
         }
-
-        return thresholdReached;
     }
 
-    // performs the heat simulation calculation
-    private void calculate() {
-        boolean stable = false;
-        int gridWidth = frameWidth / PIXEL_SIZE;
-        int gridHeight = frameHeight / PIXEL_SIZE;
-
-        if (useParallel) {
-            // parallel computation using Fork/Join
-            forkJoinPool = new ForkJoinPool();
-            try {
-                while (!stable) {
-                    stable = true;
-                    double[][] newTemperatures = new double[gridWidth][gridHeight];
+    // after an edit of the heat points the solver thread picks it up before its next sweep, or starts again from
+    // the current temperatures if it had already reached stability
+    private void resumeComputation(HeatRenderer renderer) {
+        if (!computationRunning.get()) {
+            startComputation(renderer);
+        }
+    }
 
-                    ComputeTask task = new ComputeTask(0, gridWidth, 0, gridHeight, newTemperatures);
-                    forkJoinPool.invoke(task);
+    private void startComputation(HeatRenderer renderer) {
+        if (computationRunning.get()) {
+            // prevent starting a new computation if one is already running
+            return;
+        }
 
-                    synchronized (this) {
-                        if (!task.isStable()) {
-                            stable = false;
-                        }
-                    }
+        computationRunning.set(true);
 
-                    cellTemperature = newTemperatures;
-                }
-            } finally {
-                forkJoinPool.shutdown(); // shut down the fork/join pool
+        frameTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                renderer.show();
             }
-        } else {
-            // sequential computation
-            while (!stable) {
-                stable = true;
-                double[][] newTemperatures = new double[gridWidth][gridHeight];
-                for (int x = 0; x < gridWidth; x++) {
-                    for (int y = 0; y < gridHeight; y++) {
-                        if (!fixedPoints[x][y]) {
-                            double newTemp = calculateTemperature(x, y);
-                            if (Math.abs(newTemp - cellTemperature[x][y]) > STABILITY_THRESHOLD) {
-                                stable = false; // mark as not stable if temperature change is significant
-                            }
-                            newTemperatures[x][y] = newTemp;
-                        } else {
-                            newTemperatures[x][y] = cellTemperature[x][y];
-                        }
+        };
+        frameTimer.start();
+
+        // the solver sweeps at full speed on its own thread and offers a frame at most once per frame interval,
+        // frames the FX thread has not picked up yet are replaced by newer ones
+        Thread solverThread = new Thread(() -> {
+            renderer.publish(grid, true);
+            if (adaptive != null) {
+                boolean stable = false;
+                while (!stable) {
+                    stable = adaptive.advance(STABILITY_THRESHOLD, adaptiveOmega());
+                    long renderStart = System.nanoTime();
+                    if (stable || renderer.isDue()) {
+                        adaptive.resample(grid); // only for frames that are shown
                     }
+                    renderer.offer(grid);
+                    metrics.addRenderTime(System.nanoTime() - renderStart);
+                }
+            } else {
+                // solve runs the thread team of a parallel simulation for the whole run and offers the frames in its
+                // pauses, stable once no temperature change is significant
+                boolean solving = true;
+                while (solving) {
+                    simulation.setProgress(new FrameProgress(renderer), 1);
+                    simulation.solve(STABILITY_THRESHOLD, MAX_ITERATIONS);
+                    solving = floatGrid != null && leaveSinglePrecision();
                 }
-                cellTemperature = newTemperatures;
             }
-        }
+            renderer.publish(grid, true); // the final state is always shown, with every pyramid level current
+            if (adaptive == null) {
+                simulation.saveCheckpoint(); // the steady state, a restart from it stops at once
+            }
+            if (snapshots != null) {
+                snapshots.close(); // waits for the frames still queued
+                snapshots = null; // runs resumed after an edit take no more of them
+                simulation.setSnapshots(null);
+            }
+
+            Platform.runLater(() -> {
+                renderer.show();
+                frameTimer.stop();
+                computationRunning.set(false);
+                System.out.println("Threshold reached. Stopping simulation.");
+                if (simulation.hasPendingEdits()) {
+                    startComputation(renderer); // edited after the last sweep
+                }
+            });
+        }, "heat-solver");
+        solverThread.setDaemon(true);
+        solverThread.start();
     }
 
-    // recursive task for parallel computation using Fork/Join
-    private class ComputeTask extends RecursiveAction {
-        private final int startX, endX, startY, endY;
-        private final double[][] newTemperatures;
-        private static final int THRESHOLD = 20; // adjust threshold as needed
-        private volatile boolean stable = true;
+    // offers a frame in the pauses of solve; the sweeps between two pauses grow or shrink until about one frame
+    // interval passes between them, so a thread team stops about once per frame however fast it sweeps
+    private static final class FrameProgress implements Simulation.Progress {
+        private static final long FRAME_NANOS = 1_000_000_000L / FPS;
+        private final HeatRenderer renderer;
+        private int interval = 1; // sweeps between two pauses
+        private long last = System.nanoTime(); // end of the previous pause
 
-        public ComputeTask(int startX, int endX, int startY, int endY, double[][] newTemperatures) {
-            this.startX = startX;
-            this.endX = endX;
-            this.startY = startY;
-            this.endY = endY;
-            this.newTemperatures = newTemperatures;
+        FrameProgress(HeatRenderer renderer) {
+            this.renderer = renderer;
         }
 
         @Override
-        protected void compute() {
-            if ((endX - startX) * (endY - startY) <= THRESHOLD) {
-                // perform computation on small enough task
-                computeDirectly();
-            } else {
-                // split task into smaller tasks
-                int midX = (startX + endX) / 2;
-                int midY = (startY + endY) / 2;
-
-                invokeAll(
-                        new ComputeTask(startX, midX, startY, midY, newTemperatures),
-                        new ComputeTask(midX, endX, startY, midY, newTemperatures),
-                        new ComputeTask(startX, midX, midY, endY, newTemperatures),
-                        new ComputeTask(midX, endX, midY, endY, newTemperatures)
-                );
+        public boolean report(int iterations, double residual) {
+            long renderStart = System.nanoTime();
+            if (renderStart - last < FRAME_NANOS / 2) {
+                interval *= 2;
+            } else if (renderStart - last > FRAME_NANOS * 2 && interval > 1) {
+                interval /= 2;
             }
-        }
-
-        private void computeDirectly() {
-            for (int x = startX; x < endX; x++) {
-                for (int y = startY; y < endY; y++) {
-                    if (!fixedPoints[x][y]) {
-                        double newTemp = calculateTemperature(x, y);
-                        if (Math.abs(newTemp - cellTemperature[x][y]) > STABILITY_THRESHOLD) {
-                            stable = false;
-                        }
-                        newTemperatures[x][y] = newTemp;
-                    } else {
-                        newTemperatures[x][y] = cellTemperature[x][y];
-                    }
-                }
+            if (floatGrid != null && renderer.isDue()) {
+                floatGrid.copyTo(grid); // only for frames that are shown
             }
+            renderer.offer(grid);
+            metrics.addRenderTime(System.nanoTime() - renderStart);
+            simulation.setProgress(this, interval);
+            last = System.nanoTime();
+            return true;
         }
+    }
 
-        public boolean isStable() {
-            return stable;
+    // performs the heat simulation calculation
+    private static void calculate() {
+        if (adaptive != null) {
+            int iterations = adaptive.solve(STABILITY_THRESHOLD, MAX_ITERATIONS, adaptiveOmega());
+            System.out.println("Adaptive mesh of " + adaptive.getBlocks() + " blocks and " + adaptive.getCells()
+                    + " cells for " + adaptive.width() + "x" + adaptive.height() + " after " + iterations + " sweeps");
+            return;
         }
+        simulation.solve(STABILITY_THRESHOLD, MAX_ITERATIONS);
+        if (floatGrid != null && leaveSinglePrecision()) {
+            simulation.solve(STABILITY_THRESHOLD, MAX_ITERATIONS);
+        }
+        simulation.saveCheckpoint();
     }
 
-    // draw the current state of the simulation
-    private void draw(GraphicsContext gc) {
-        int gridWidth = frameWidth / PIXEL_SIZE;
-        int gridHeight = frameHeight / PIXEL_SIZE;
-
-        for (int x = 0; x < gridWidth; x++) {
-            for (int y = 0; y < gridHeight; y++) {
-                int colorIndex = (int) Math.min(Math.floor(cellTemperature[x][y]), heatColors.length - 1);
-                gc.setFill(heatColors[colorIndex]);
-                gc.fillRect(x * PIXEL_SIZE, y * PIXEL_SIZE, PIXEL_SIZE, PIXEL_SIZE);
-            }
-        }
+    // relaxation factor on the adaptive mesh; every solver sweeps it in place, so all of them over-relax it by the
+    // estimated factor unless one was given for SOR
+    private static double adaptiveOmega() {
+        return (omega > 0) ? omega : adaptive.estimateOmega();
     }
 
     // entry point
     public static void main(String[] args) {
-        dialogBox(); // show dialog box for user input
-        if (start) {
+        Path restartFile = pathProperty("heat.restart");
+        if (restartFile != null) {
+            // the checkpoint fixes the grid, so only the options are asked for
+            try {
+                restart = Checkpoint.read(restartFile);
+            } catch (IOException e) {
+                System.err.println("Cannot restart from " + restartFile + ": " + e.getMessage());
+                System.exit(2);
+            }
+            // checkpoints count iterations in a long, a simulation in an int
+            if (restart.iteration > Integer.MAX_VALUE) {
+                System.err.println("Cannot restart from " + restartFile + " after " + restart.iteration
+                        + " iterations, a simulation counts at most " + Integer.MAX_VALUE);
+                System.exit(2);
+            }
+            frameWidth = restart.grid.width * PIXEL_SIZE;
+            frameHeight = restart.grid.height * PIXEL_SIZE;
+            try {
+                solver = SolverType.valueOf(restart.solver.toUpperCase(Locale.ROOT)); // preselected in the dialog
+            } catch (IllegalArgumentException e) {
+                // written by a solver this version does not know, the dialog offers the default
+            }
+            readOptions();
+        } else {
+            dialogBox(); // show dialog box for user input
+        }
+        if (start && !showGraphicalInterface) {
+            // if no graphical interface is needed, run calculation and output results in the console without
+            // starting JavaFX at all
+            initialize();
+            System.out.println("Starting simulation in non-graphical mode...");
+            runtime = System.currentTimeMillis(); // record start time
+            calculate(); // perform calculation without graphical output
+            System.out.println("Runtime: " + (System.currentTimeMillis() - runtime) + "ms"); // print runtime
+            if (metricsSink != null) {
+                metricsSink.close();
+            }
+            if (snapshots != null) {
+                snapshots.close();
+            }
+            System.exit(0); // exit the application, the dialogs left the Swing event thread running
+        } else if (start) {
             launch(args); // launch the JavaFX application if start flag is true
         }
     }
 
+    // cache of basis fields with the budget in megabytes given by -Dheat.superposition, null without it
+    private static SuperpositionCache superpositionCache() {
+        long megabytes = Long.getLong("heat.superposition", 0);
+        if (megabytes <= 0) {
+            return null;
+        }
+        return new SuperpositionCache(megabytes << 20, Runtime.getRuntime().availableProcessors(),
+                SuperpositionCache.DEFAULT_TOLERANCE);
+    }
+
+    // path given by a system property, null if it is not set
+    private static Path pathProperty(String name) {
+        String value = System.getProperty(name);
+        return (value == null || value.isEmpty()) ? null : Path.of(value);
+    }
+
     // create a gradient between two colors
     public static Color[] createGradient(final Color one, final Color two, final int numSteps) {
         double r1 = one.getRed();
@@ -428,27 +664,6 @@ public class HeatSimulation extends Application {
 
     // calculate the new temperature based on neighboring cells
     public static double calculateTemperature(int x, int y) {
-        double temp = 0;
-        int count = 0;
-
-        if (x > 0) {
-            temp += cellTemperature[x - 1][y];
-            count++;
-        }
-        if (x < frameWidth / PIXEL_SIZE - 1) {
-            temp += cellTemperature[x + 1][y];
-            count++;
-        }
-        if (y > 0) {
-            temp += cellTemperature[x][y - 1];
-            count++;
-        }
-        if (y < frameHeight / PIXEL_SIZE - 1) {
-            temp += cellTemperature[x][y + 1];
-            count++;
-        }
-
-        temp /= count; // calculate average temperature from neighbors
-        return temp;
+        return grid.average(x, y); // average temperature of the neighbors
     }
 }
\ No newline at end of file
@@ -0,0 +1,60 @@
+package com.example.test_fx;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// one solver iteration as a JFR event, recorded with e.g. -XX:StartFlightRecording:filename=heat.jfr and read with
+// "jfr print --events com.example.heat.Iteration heat.jfr"; Metrics fills it in
+@Name("com.example.heat.Iteration")
+@Label("Heat Iteration")
+@Category("Heat Simulation")
+@Description("Convergence and time split of one solver iteration")
+@StackTrace(false)
+public class IterationEvent extends jdk.jfr.Event {
+
+    @Label("Run")
+    String run;
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Max Delta")
+    @Description("Largest temperature change of the iteration, or residual norm for multigrid and conjugate gradient")
+    double maxDelta;
+
+    @Label("L2 Residual")
+    @Description("Only computed on sampled iterations, NaN otherwise")
+    double residualL2;
+
+    @Label("Compute")
+    @Timespan
+    long compute;
+
+    @Label("Communication")
+    @Timespan
+    long communication;
+
+    @Label("Reduction")
+    @Description("Waiting at the barrier or reduction that ends the iteration, including load imbalance")
+    @Timespan
+    long reduction;
+
+    @Label("Render")
+    @Description("Frames drawn by the solver thread since the previous iteration")
+    @Timespan
+    long render;
+
+    @Label("MLUPS")
+    @Description("Million cell updates per second of compute, communication and reduction")
+    double mlups;
+
+    @Label("Allocated")
+    @Description("Bytes the solver thread allocated per iteration since the previous reported iteration")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,7 @@
+package com.example.test_fx;
+
+// how the cells of a grid are laid out
+public enum Mesh {
+    UNIFORM, // every cell at the full resolution, every solver works on it
+    ADAPTIVE // a quadtree of blocks that are only fine near heat points and steep changes, relaxed in place
+}
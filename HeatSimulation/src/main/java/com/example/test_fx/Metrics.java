@@ -0,0 +1,88 @@
+package com.example.test_fx;
+
+import java.lang.management.ManagementFactory;
+
+// per-iteration measurements of one run: every iteration becomes an IterationEvent when a JFR recording has the
+// event enabled, and every sampled iteration also goes to the sink; an iteration that is neither costs a single
+// check, and only sampled iterations pay for the pass over the grid that the L2 residual needs
+public class Metrics {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final String run; // name of the run in events and samples
+    private final SweepGrid grid;
+    private final MetricsSink sink; // null records JFR events only
+    private int nextSample; // first iteration number that is sampled
+    private long render; // time spent on frames since the last iteration
+    private long solverThread = -1; // thread whose allocations are counted
+    private long allocated; // bytes that thread had allocated at the last reported iteration
+    private int reported; // number of the last reported iteration
+    private int latest; // number of the last iteration, reported or not
+
+    public Metrics(String run, SweepGrid grid, MetricsSink sink) {
+        this.run = run;
+        this.grid = grid;
+        this.sink = sink;
+        this.nextSample = (sink != null) ? sink.getInterval() : Integer.MAX_VALUE;
+    }
+
+    // counts the allocations of the calling thread from now on, the thread that drives the solver; the helpers of
+    // the thread teams only work on arrays allocated up front
+    public void attach() {
+        long id = Thread.currentThread().getId();
+        if (id != solverThread) {
+            solverThread = id;
+            allocated = THREADS.getThreadAllocatedBytes(id);
+            reported = latest;
+        }
+    }
+
+    // adds the time of a frame drawn between two iterations, it is reported with the next one
+    public void addRenderTime(long nanos) {
+        render += nanos;
+    }
+
+    // reports an iteration; cellUpdates is the number of cells it updated, the times are in nanoseconds
+    public void iteration(int iteration, long cellUpdates, double maxDelta, long compute, long communication,
+                          long reduction) {
+        latest = iteration;
+        boolean sampled = iteration >= nextSample;
+        IterationEvent event = new IterationEvent();
+        if (!sampled && !event.isEnabled()) {
+            render = 0;
+            return;
+        }
+
+        // reading the allocation counter is not free, between two reported iterations it is averaged
+        long allocatedNow = (solverThread >= 0) ? THREADS.getThreadAllocatedBytes(solverThread) : 0;
+        long allocatedPerIteration = (allocatedNow - allocated) / Math.max(1, iteration - reported);
+        allocated = allocatedNow;
+        reported = iteration;
+        long busy = compute + communication + reduction;
+        double mlups = (busy > 0) ? cellUpdates * 1e3 / busy : 0;
+        double residualL2 = sampled ? grid.residualL2() : Double.NaN;
+
+        if (event.shouldCommit()) {
+            event.run = run;
+            event.iteration = iteration;
+            event.maxDelta = maxDelta;
+            event.residualL2 = residualL2;
+            event.compute = compute;
+            event.communication = communication;
+            event.reduction = reduction;
+            event.render = render;
+            event.mlups = mlups;
+            event.allocated = allocatedPerIteration;
+            event.commit();
+        }
+        if (sampled) {
+            sink.write(run, iteration, maxDelta, residualL2, compute, communication, reduction, render, mlups,
+                    allocatedPerIteration);
+            while (nextSample <= iteration) {
+                nextSample += sink.getInterval();
+            }
+        }
+        render = 0;
+    }
+}
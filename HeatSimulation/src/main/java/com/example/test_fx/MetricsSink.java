@@ -0,0 +1,89 @@
+package com.example.test_fx;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+// file that receives every sampled iteration of any number of runs, one CSV row or, for a file name ending in
+// .json or .jsonl, one JSON object per line; -Dheat.metrics=<file> turns it on and -Dheat.metrics.interval=<n>
+// samples every n-th iteration
+public class MetricsSink implements AutoCloseable {
+
+    private static final int DEFAULT_INTERVAL = 100; // iterations between two samples
+
+    private final BufferedWriter out;
+    private final boolean json;
+    private final int interval;
+    private boolean failed; // a write failed, the rest of the samples are dropped instead of stopping the solver
+
+    public MetricsSink(Path file, int interval) throws IOException {
+        String name = file.getFileName().toString();
+        this.json = name.endsWith(".json") || name.endsWith(".jsonl");
+        this.interval = Math.max(1, interval);
+        this.out = Files.newBufferedWriter(file);
+        if (!json) {
+            out.write("run,iteration,max_delta,residual_l2,compute_ns,communication_ns,reduction_ns,render_ns,"
+                    + "mlups,allocated_bytes");
+            out.newLine();
+        }
+    }
+
+    // sink configured by the system properties, null if there is none
+    public static MetricsSink fromSystemProperties() {
+        String file = System.getProperty("heat.metrics");
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        int interval = Integer.getInteger("heat.metrics.interval", DEFAULT_INTERVAL);
+        try {
+            return new MetricsSink(Path.of(file), interval);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write metrics to " + file, e);
+        }
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    // writes one sampled iteration and flushes it, so a run that is killed still leaves its samples behind
+    public synchronized void write(String run, int iteration, double maxDelta, double residualL2, long compute,
+                                   long communication, long reduction, long render, double mlups, long allocated) {
+        if (failed) {
+            return;
+        }
+        String line = json
+                ? String.format(Locale.ROOT, "{\"run\":\"%s\",\"iteration\":%d,\"maxDelta\":%s,\"residualL2\":%s,"
+                        + "\"computeNs\":%d,\"communicationNs\":%d,\"reductionNs\":%d,\"renderNs\":%d,"
+                        + "\"mlups\":%s,\"allocatedBytes\":%d}", run.replace("\"", "\\\""), iteration,
+                        jsonNumber(maxDelta), jsonNumber(residualL2), compute, communication, reduction, render,
+                        jsonNumber(mlups), allocated)
+                : String.format(Locale.ROOT, "%s,%d,%s,%s,%d,%d,%d,%d,%s,%d", run, iteration, maxDelta, residualL2,
+                        compute, communication, reduction, render, mlups, allocated);
+        try {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("Metrics are no longer written: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Metrics file was not closed cleanly: " + e.getMessage());
+        }
+    }
+
+    // JSON has no NaN or infinity
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+}
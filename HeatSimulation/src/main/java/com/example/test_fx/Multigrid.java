@@ -0,0 +1,308 @@
+package com.example.test_fx;
+
+import java.util.Arrays;
+
+// geometric multigrid solver for the steady state of a grid over a hierarchy of grids with half the resolution
+// each, red-black Gauss-Seidel smoothing on every level and the fixed points carried down to the coarse operators
+public class Multigrid {
+
+    private static final int PRE_SMOOTHING = 2; // red-black sweeps before restricting the residual
+    private static final int POST_SMOOTHING = 2; // red-black sweeps after the coarse correction
+    private static final int COARSEST_SWEEPS = 50; // red-black sweeps that stand in for a direct solve on the coarsest level
+    private static final int COARSEST_SIZE = 3; // stop coarsening once a level is this narrow
+    private static final int COARSE_VISITS = 2; // coarse corrections per cycle, 2 makes it a W-cycle
+    // summing the fine operator over 2x2 cells underestimates how strongly smooth errors are coupled, scaling the
+    // coarse operator down makes the correction large enough; 0.5 is exact for a uniform grid but overshoots
+    // next to fixed points, 0.7 converges well for both few and many of them
+    private static final double COARSE_SCALE = 0.7;
+
+    // one grid of the hierarchy, each level solves diagonal * u - sum of coupling * neighbour = b on its free cells;
+    // the finest level uses the plain stencil of the grid, the coarser ones store their coefficients
+    private static class Level {
+        final int width, height;
+        double[] u; // temperatures on the finest level, correction on the coarser ones
+        final double[] b; // right-hand side, always 0 on the finest level
+        final boolean[] fixed; // cells whose value is known, their correction is always 0
+        final double[] diagonal; // null on the finest level
+        final double[] east; // coupling of a cell to the cell to its right
+        final double[] south; // coupling of a cell to the cell below it
+
+        Level(int width, int height, double[] u, boolean[] fixed, boolean coarse) {
+            this.width = width;
+            this.height = height;
+            this.u = u;
+            this.b = new double[width * height];
+            this.fixed = fixed;
+            this.diagonal = coarse ? new double[width * height] : null;
+            this.east = coarse ? new double[width * height] : null;
+            this.south = coarse ? new double[width * height] : null;
+        }
+
+        double diagonal(int x, int y) {
+            if (diagonal != null) {
+                return diagonal[y * width + x];
+            }
+            int count = 0;
+            if (x > 0) {
+                count++;
+            }
+            if (x < width - 1) {
+                count++;
+            }
+            if (y > 0) {
+                count++;
+            }
+            if (y < height - 1) {
+                count++;
+            }
+            return count;
+        }
+
+        // coupling of two free cells, a fixed neighbour is part of the right-hand side instead
+        double east(int x, int y) {
+            int i = y * width + x;
+            if (east != null) {
+                return east[i];
+            }
+            return x < width - 1 && !fixed[i] && !fixed[i + 1] ? 1 : 0;
+        }
+
+        double south(int x, int y) {
+            int i = y * width + x;
+            if (south != null) {
+                return south[i];
+            }
+            return y < height - 1 && !fixed[i] && !fixed[i + width] ? 1 : 0;
+        }
+
+        // sum of coupling * value over the neighbours of a cell, on the finest level fixed neighbours count with
+        // their temperature since the level solves for the temperatures themselves
+        double neighbourSum(int x, int y) {
+            int i = y * width + x;
+            double sum = 0;
+            if (east == null) {
+                if (x > 0) {
+                    sum += u[i - 1];
+                }
+                if (x < width - 1) {
+                    sum += u[i + 1];
+                }
+                if (y > 0) {
+                    sum += u[i - width];
+                }
+                if (y < height - 1) {
+                    sum += u[i + width];
+                }
+                return sum;
+            }
+            if (x > 0) {
+                sum += east[i - 1] * u[i - 1];
+            }
+            if (x < width - 1) {
+                sum += east[i] * u[i + 1];
+            }
+            if (y > 0) {
+                sum += south[i - width] * u[i - width];
+            }
+            if (y < height - 1) {
+                sum += south[i] * u[i + width];
+            }
+            return sum;
+        }
+
+        // b - (diagonal * u - sum of coupling * neighbour) of a free cell
+        double residual(int x, int y) {
+            return b[y * width + x] - (diagonal(x, y) * u[y * width + x] - neighbourSum(x, y));
+        }
+    }
+
+    private final Grid grid;
+    private final Level[] levels;
+
+    public Multigrid(Grid grid) {
+        this.grid = grid;
+
+        int count = 1;
+        for (int w = grid.width, h = grid.height; w > COARSEST_SIZE && h > COARSEST_SIZE; w = (w + 1) / 2, h = (h + 1) / 2) {
+            count++;
+        }
+
+        levels = new Level[count];
+        levels[0] = new Level(grid.width, grid.height, grid.current(), grid.fixed(), false);
+        for (int l = 1; l < count; l++) {
+            levels[l] = coarsen(levels[l - 1]);
+        }
+    }
+
+    // builds the level below a fine one; a coarse cell is fixed only when every fine cell it covers is fixed and
+    // its operator is the sum of the operators of its free fine cells, so a coarse cell that covers a few fixed
+    // points keeps the part of the diagonal that tied them to it and is pulled towards 0 instead of being fixed
+    private static Level coarsen(Level fine) {
+        int width = (fine.width + 1) / 2;
+        int height = (fine.height + 1) / 2;
+
+        boolean[] fixed = new boolean[width * height];
+        Arrays.fill(fixed, true);
+        for (int y = 0; y < fine.height; y++) {
+            for (int x = 0; x < fine.width; x++) {
+                if (!fine.fixed[y * fine.width + x]) {
+                    fixed[(y / 2) * width + x / 2] = false;
+                }
+            }
+        }
+
+        Level coarse = new Level(width, height, new double[width * height], fixed, true);
+        for (int y = 0; y < fine.height; y++) {
+            for (int x = 0; x < fine.width; x++) {
+                if (fine.fixed[y * fine.width + x]) {
+                    continue;
+                }
+                int c = (y / 2) * width + x / 2;
+                coarse.diagonal[c] += COARSE_SCALE * fine.diagonal(x, y);
+
+                // couplings inside a coarse cell cancel against its diagonal, the others join two coarse cells
+                double east = COARSE_SCALE * fine.east(x, y);
+                if ((x & 1) == 0) {
+                    coarse.diagonal[c] -= 2 * east;
+                } else {
+                    coarse.east[c] += east;
+                }
+                double south = COARSE_SCALE * fine.south(x, y);
+                if ((y & 1) == 0) {
+                    coarse.diagonal[c] -= 2 * south;
+                } else {
+                    coarse.south[c] += south;
+                }
+            }
+        }
+        return coarse;
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+
+    // runs cycles on the current buffer of the grid until the residual norm is at most the tolerance or
+    // maxCycles cycles are done, returns the number of cycles
+    public int solve(double tolerance, int maxCycles) {
+        int cycles = 0;
+        double norm = residualNorm();
+        while (norm > tolerance && cycles < maxCycles) {
+            norm = cycle();
+            cycles++;
+        }
+        return cycles;
+    }
+
+    // runs one cycle and returns the residual norm afterwards
+    public double cycle() {
+        levels[0].u = grid.current(); // the grid may have swapped its buffers since the last cycle
+        visit(0);
+        return residualNorm();
+    }
+
+    // largest change a Jacobi sweep would make to any cell, measures how far the grid is from the steady state
+    // in the same units as the stability threshold of the relaxation solvers
+    public double residualNorm() {
+        Level level = levels[0];
+        level.u = grid.current();
+
+        double norm = 0;
+        for (int y = 0; y < level.height; y++) {
+            for (int x = 0; x < level.width; x++) {
+                if (!level.fixed[y * level.width + x]) {
+                    norm = Math.max(norm, Math.abs(level.residual(x, y)) / level.diagonal(x, y));
+                }
+            }
+        }
+        return norm;
+    }
+
+    private void visit(int l) {
+        Level level = levels[l];
+        if (l == levels.length - 1) {
+            smooth(level, COARSEST_SWEEPS);
+            return;
+        }
+
+        smooth(level, PRE_SMOOTHING);
+
+        Level coarse = levels[l + 1];
+        restrictResidual(level, coarse);
+        Arrays.fill(coarse.u, 0);
+        int visits = l + 1 < levels.length - 1 ? COARSE_VISITS : 1; // the coarsest level is solved in one go
+        for (int v = 0; v < visits; v++) {
+            visit(l + 1);
+        }
+        prolongate(coarse, level);
+
+        smooth(level, POST_SMOOTHING);
+    }
+
+    // red-black Gauss-Seidel sweeps on the free cells of a level
+    private static void smooth(Level level, int sweeps) {
+        int width = level.width;
+        int lastX = width - 1;
+        int lastY = level.height - 1;
+        double[] u = level.u;
+        double[] b = level.b;
+        boolean[] fixed = level.fixed;
+        boolean finest = level.diagonal == null;
+
+        for (int sweep = 0; sweep < sweeps; sweep++) {
+            for (int color = 0; color < 2; color++) {
+                for (int y = 0; y <= lastY; y++) {
+                    boolean edgeRow = y == 0 || y == lastY;
+                    int row = y * width;
+                    for (int x = (y & 1) ^ color; x <= lastX; x += 2) {
+                        int i = row + x;
+                        if (fixed[i]) {
+                            continue;
+                        }
+                        if (finest && !edgeRow && x != 0 && x != lastX) {
+                            // interior cells of the finest level always have four neighbours and no right-hand side
+                            u[i] = (u[i - 1] + u[i + 1] + u[i - width] + u[i + width]) * 0.25;
+                        } else {
+                            u[i] = (level.neighbourSum(x, y) + b[i]) / level.diagonal(x, y);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // the right-hand side of a coarse cell is the sum of the residuals of the free fine cells it covers, which
+    // matches the coarse operator being the sum of their operators
+    private static void restrictResidual(Level fine, Level coarse) {
+        Arrays.fill(coarse.b, 0);
+        for (int y = 0; y < fine.height; y++) {
+            int coarseRow = (y / 2) * coarse.width;
+            int fineRow = y * fine.width;
+            for (int x = 0; x < fine.width; x++) {
+                if (!fine.fixed[fineRow + x]) {
+                    coarse.b[coarseRow + x / 2] += fine.residual(x, y);
+                }
+            }
+        }
+    }
+
+    // adds the bilinearly interpolated coarse correction to the free cells of the fine level, a fine cell takes
+    // 9/16 of the coarse cell covering it, 3/16 of the two coarse cells next to it and 1/16 of the diagonal one
+    private static void prolongate(Level coarse, Level fine) {
+        double[] e = coarse.u;
+        for (int y = 0; y < fine.height; y++) {
+            int cy = y / 2;
+            int ny = Math.max(0, Math.min(coarse.height - 1, (y & 1) == 0 ? cy - 1 : cy + 1));
+            for (int x = 0; x < fine.width; x++) {
+                int i = y * fine.width + x;
+                if (fine.fixed[i]) {
+                    continue;
+                }
+                int cx = x / 2;
+                int nx = Math.max(0, Math.min(coarse.width - 1, (x & 1) == 0 ? cx - 1 : cx + 1));
+                fine.u[i] += (9 * e[cy * coarse.width + cx] + 3 * e[cy * coarse.width + nx]
+                        + 3 * e[ny * coarse.width + cx] + e[ny * coarse.width + nx]) / 16;
+            }
+        }
+    }
+}
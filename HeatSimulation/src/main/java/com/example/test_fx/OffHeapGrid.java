@@ -0,0 +1,323 @@
+package com.example.test_fx;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// grid outside the heap on the incubating foreign memory API, for grids beyond the 2^31 cells of an array and
+// without multi-gigabyte arrays for the garbage collector to look after; the two temperature buffers hold a double
+// per cell, the fixed-point mask a bit per cell, and every index is a long; the memory is native, or mapped from a
+// scratch file so the page cache can hold grids larger than the memory of the machine
+//
+// Simulation only loads this class once it found the jdk.incubator.foreign module; the sweeps add the neighbours
+// in the same order as Grid, so both give bit-identical temperatures
+public class OffHeapGrid implements SweepGrid, AutoCloseable {
+
+    private static final long ALIGNMENT = 64; // buffers start on a cache line
+
+    private final int width;
+    private final int height;
+    private final long cells;
+    private final ResourceScope scope; // shared, the thread team sweeps the grid from several threads
+    private final MemorySegment mask; // one bit per cell, bit i % 64 of long i / 64
+    private final Path file; // scratch file the grid is mapped from, null for native memory
+    private MemorySegment current; // temperatures read by a sweep
+    private MemorySegment next; // temperatures written by a sweep
+    private final ThreadLocal<Rows> rows; // heap copies of the rows a sweep works on, one set per thread
+
+    // an inner row, the rows above and below it and the relaxed row on the heap, with segments over the arrays
+    // for the bulk copies
+    private static final class Rows {
+        final double[] above, center, below, out;
+        final MemorySegment aboveSegment, centerSegment, belowSegment, outSegment;
+
+        Rows(int width) {
+            above = new double[width];
+            center = new double[width];
+            below = new double[width];
+            out = new double[width];
+            aboveSegment = MemorySegment.ofArray(above);
+            centerSegment = MemorySegment.ofArray(center);
+            belowSegment = MemorySegment.ofArray(below);
+            outSegment = MemorySegment.ofArray(out);
+        }
+
+        // copies the row starting at cell row and its neighbours out of the buffer
+        void load(MemorySegment buffer, long row, int width) {
+            long bytes = (long) width * Double.BYTES;
+            aboveSegment.copyFrom(buffer.asSlice((row - width) * Double.BYTES, bytes));
+            centerSegment.copyFrom(buffer.asSlice(row * Double.BYTES, bytes));
+            belowSegment.copyFrom(buffer.asSlice((row + width) * Double.BYTES, bytes));
+        }
+
+        // copies columns [startX, endX) of a heap row back into the row starting at cell row of the buffer
+        void store(MemorySegment from, MemorySegment buffer, long row, int startX, int endX) {
+            long bytes = (long) (endX - startX) * Double.BYTES;
+            buffer.asSlice((row + startX) * Double.BYTES, bytes)
+                    .copyFrom(from.asSlice((long) startX * Double.BYTES, bytes));
+        }
+
+        // average of the neighbours of a cell in the first or last column of an inner row, summed in the order of
+        // Grid.average
+        double average(int x, int lastX) {
+            double temp = 0;
+            int count = 2;
+            if (x > 0) {
+                temp += center[x - 1];
+                count++;
+            }
+            if (x < lastX) {
+                temp += center[x + 1];
+                count++;
+            }
+            temp += above[x];
+            temp += below[x];
+            return temp / count;
+        }
+    }
+
+    // grid of the given size in native memory, or mapped from file if it is not null; a file is overwritten and
+    // removed again by close
+    public OffHeapGrid(int width, int height, Path file) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.cells = (long) width * height;
+        this.file = file;
+        this.scope = ResourceScope.newSharedScope();
+
+        long buffer = cells * Double.BYTES;
+        long maskBytes = ((cells + 63) >>> 6) * Long.BYTES;
+        MemorySegment memory;
+        if (file != null) {
+            // the mapping does not create the file, a fresh one reads as zeros like native memory
+            FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING).close();
+            memory = MemorySegment.mapFile(file, 0, 2 * buffer + maskBytes, FileChannel.MapMode.READ_WRITE, scope);
+        } else {
+            memory = MemorySegment.allocateNative(2 * buffer + maskBytes, ALIGNMENT, scope); // zeroed
+        }
+        this.current = memory.asSlice(0, buffer);
+        this.next = memory.asSlice(buffer, buffer);
+        this.mask = memory.asSlice(2 * buffer, maskBytes);
+        this.rows = ThreadLocal.withInitial(() -> new Rows(width));
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    public long cells() {
+        return cells;
+    }
+
+    @Override
+    public double get(int x, int y) {
+        return MemoryAccess.getDoubleAtIndex(current, (long) y * width + x);
+    }
+
+    // sets the temperature of a cell in both buffers so the next swap keeps it
+    public void set(int x, int y, double value) {
+        long i = (long) y * width + x;
+        MemoryAccess.setDoubleAtIndex(current, i, value);
+        MemoryAccess.setDoubleAtIndex(next, i, value);
+    }
+
+    @Override
+    public boolean isFixed(int x, int y) {
+        return isFixed((long) y * width + x);
+    }
+
+    // marks a cell as a fixed heat point with the given temperature; not safe while a sweep runs, other cells
+    // share the word of its bit
+    @Override
+    public void setFixed(int x, int y, double value) {
+        long i = (long) y * width + x;
+        long word = MemoryAccess.getLongAtIndex(mask, i >>> 6);
+        MemoryAccess.setLongAtIndex(mask, i >>> 6, word | (1L << i));
+        set(x, y, value);
+    }
+
+    @Override
+    public void swap() {
+        MemorySegment temp = current;
+        current = next;
+        next = temp;
+    }
+
+    // average temperature of the neighbours of a cell in the current buffer
+    public double average(int x, int y) {
+        MemorySegment src = current;
+        long i = (long) y * width + x;
+        double temp = 0;
+        int count = 0;
+
+        if (x > 0) {
+            temp += MemoryAccess.getDoubleAtIndex(src, i - 1);
+            count++;
+        }
+        if (x < width - 1) {
+            temp += MemoryAccess.getDoubleAtIndex(src, i + 1);
+            count++;
+        }
+        if (y > 0) {
+            temp += MemoryAccess.getDoubleAtIndex(src, i - width);
+            count++;
+        }
+        if (y < height - 1) {
+            temp += MemoryAccess.getDoubleAtIndex(src, i + width);
+            count++;
+        }
+
+        return temp / count;
+    }
+
+    @Override
+    public double residualL2() {
+        double sum = 0;
+        for (int y = 0; y < height; y++) {
+            long row = (long) y * width;
+            for (int x = 0; x < width; x++) {
+                if (!isFixed(row + x)) {
+                    double change = average(x, y) - MemoryAccess.getDoubleAtIndex(current, row + x);
+                    sum += change * change;
+                }
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    // Jacobi sweep like Grid.relaxScalar; every inner row is copied to the heap with its neighbours, relaxed there
+    // and copied back, so the bounds and liveness checks of the segments are paid per row instead of per cell
+    @Override
+    public double relax(int startX, int endX, int startY, int endY) {
+        MemorySegment src = current;
+        MemorySegment dst = next;
+        Rows rows = this.rows.get();
+        int lastX = width - 1;
+        int lastY = height - 1;
+        double maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            if (y == 0 || y == lastY) {
+                // boundary rows have fewer neighbours, fall back to the general stencil
+                for (int x = startX; x < endX; x++) {
+                    maxDelta = Math.max(maxDelta, relaxEdge(src, dst, x, y));
+                }
+                continue;
+            }
+
+            long row = (long) y * width;
+            rows.load(src, row, width);
+            double[] above = rows.above;
+            double[] center = rows.center;
+            double[] below = rows.below;
+            double[] out = rows.out;
+            long word = 0;
+            for (int x = startX; x < endX; x++) {
+                long i = row + x;
+                if (x == startX || (i & 63) == 0) {
+                    word = MemoryAccess.getLongAtIndex(mask, i >>> 6);
+                }
+                if ((word & (1L << i)) != 0) {
+                    out[x] = center[x]; // both buffers hold fixed points
+                    continue;
+                }
+                double newTemp = (x == 0 || x == lastX) ? rows.average(x, lastX)
+                        : (center[x - 1] + center[x + 1] + above[x] + below[x]) * 0.25;
+                double delta = Math.abs(newTemp - center[x]);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+                out[x] = newTemp;
+            }
+            rows.store(rows.outSegment, dst, row, startX, endX);
+        }
+
+        return maxDelta;
+    }
+
+    // red-black over-relaxation like Grid.relaxColor; inner rows are relaxed in heap copies like in relax, the
+    // cells of the other colour go back unchanged
+    @Override
+    public double relaxColor(int color, double omega, int startX, int endX, int startY, int endY) {
+        MemorySegment t = current;
+        Rows rows = this.rows.get();
+        int lastX = width - 1;
+        int lastY = height - 1;
+        double maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            boolean edgeRow = y == 0 || y == lastY;
+            long row = (long) y * width;
+            if (edgeRow) {
+                for (int x = startX + (((startX + y) & 1) ^ color); x < endX; x += 2) {
+                    long i = row + x;
+                    if (isFixed(i)) {
+                        continue;
+                    }
+                    double change = omega * (average(x, y) - MemoryAccess.getDoubleAtIndex(t, i));
+                    MemoryAccess.setDoubleAtIndex(t, i, MemoryAccess.getDoubleAtIndex(t, i) + change);
+                    maxDelta = Math.max(maxDelta, Math.abs(change));
+                }
+                continue;
+            }
+
+            rows.load(t, row, width);
+            double[] above = rows.above;
+            double[] center = rows.center;
+            double[] below = rows.below;
+            for (int x = startX + (((startX + y) & 1) ^ color); x < endX; x += 2) {
+                if (isFixed(row + x)) {
+                    continue;
+                }
+                double average = (x == 0 || x == lastX) ? rows.average(x, lastX)
+                        : (center[x - 1] + center[x + 1] + above[x] + below[x]) * 0.25;
+                double change = omega * (average - center[x]);
+                center[x] += change;
+                double delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+            rows.store(rows.centerSegment, t, row, startX, endX);
+        }
+
+        return maxDelta;
+    }
+
+    // releases the memory, the grid cannot be used afterwards
+    @Override
+    public void close() throws IOException {
+        scope.close();
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // relaxes a single cell on the border of the grid and returns its temperature change
+    private double relaxEdge(MemorySegment src, MemorySegment dst, int x, int y) {
+        long i = (long) y * width + x;
+        if (isFixed(i)) {
+            return 0;
+        }
+        double newTemp = average(x, y);
+        MemoryAccess.setDoubleAtIndex(dst, i, newTemp);
+        return Math.abs(newTemp - MemoryAccess.getDoubleAtIndex(src, i));
+    }
+
+    private boolean isFixed(long i) {
+        return (MemoryAccess.getLongAtIndex(mask, i >>> 6) & (1L << i)) != 0;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.test_fx;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// fixed team of threads that sweeps a grid, each thread owns a contiguous band of rows and the team meets at a
+// single barrier per Jacobi iteration, two for SOR; the calling thread is member 0 of the team
+public class ParallelEngine {
+
+    private static final int PADDING = 8; // doubles per result slot, keeps the slots of two threads on separate cache lines
+
+    private final SweepGrid grid;
+    private final int threads; // team size including the calling thread
+    private final int[] bandStart; // first row of every member's band, followed by the grid height
+    private final double[] maxDelta; // largest change per member, one padded slot each
+    private final long[] computeTime; // time every member spent sweeping in the current iteration, padded like maxDelta
+    private final SolverType solver;
+    private final double omega; // relaxation factor for SOR
+    private final TiledJacobi tiles; // temporally blocked Jacobi kernel, null sweeps the grid once per step
+    private final CyclicBarrier start; // releases the helpers into a run
+    private final CyclicBarrier colorDone; // separates the two colour half-sweeps of SOR
+    private final CyclicBarrier sweepDone; // ends every iteration, its action combines the results and swaps the grid
+    private Metrics metrics; // receives every iteration, null if nobody is interested
+    private ActiveTiles active; // worklist of the tiles that still move, null sweeps the bands of rows
+
+    // state of the current run, published to the helpers by the barriers so none of it needs to be volatile
+    private double threshold;
+    private int maxIterations;
+    private int iterations;
+    private double lastDelta;
+    private boolean stop;
+    private boolean shutdown;
+    private long iterationStart; // when the current iteration started
+    private int completed; // iterations of all runs, numbers the reported ones when a solve is split into runs
+    private long cellUpdates; // cells relaxed by all runs, active tiles only count the ones they relaxed
+
+    // threads is the requested team size, bandRows the fewest rows worth giving a thread of its own; tiles, if not
+    // null, advances every Jacobi iteration by several steps and has to work on the same grid
+    public ParallelEngine(SweepGrid grid, int threads, int bandRows, SolverType solver, double omega,
+                          TiledJacobi tiles) {
+        this.grid = grid;
+        this.solver = solver;
+        this.omega = omega;
+        this.tiles = tiles;
+        this.threads = Math.max(1, Math.min(threads, grid.height() / Math.max(1, bandRows)));
+        this.bandStart = new int[this.threads + 1];
+        for (int t = 0; t <= this.threads; t++) {
+            bandStart[t] = (int) ((long) grid.height() * t / this.threads);
+        }
+        this.maxDelta = new double[this.threads * PADDING];
+        this.computeTime = new long[this.threads * PADDING];
+        this.start = new CyclicBarrier(this.threads, this::beginRun);
+        this.colorDone = new CyclicBarrier(this.threads);
+        this.sweepDone = new CyclicBarrier(this.threads, this::finishSweep);
+
+        for (int t = 1; t < this.threads; t++) {
+            int member = t;
+            Thread helper = new Thread(() -> work(member), "heat-worker-" + t);
+            helper.setDaemon(true);
+            helper.start();
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // reports every iteration of the following runs to metrics, the time outside the sweeps of the slowest
+    // member counts as reduction
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // the members pull the tiles of every sweep from the worklist of active instead of sweeping their bands; active
+    // has to work on the same grid with the same solver, null goes back to the bands
+    public void setActiveTiles(ActiveTiles active) {
+        this.active = active;
+    }
+
+    // runs sweeps until the largest change is at most the threshold or maxIterations sweeps are done,
+    // returns the number of sweeps; with tiles the count moves in whole iterations of several steps
+    public int run(double threshold, int maxIterations) {
+        this.threshold = threshold;
+        this.maxIterations = maxIterations;
+        this.iterations = 0;
+        this.iterationStart = System.nanoTime();
+
+        await(start);
+        sweepBand(0);
+        return iterations;
+    }
+
+    // cell updates of all runs so far, every tiled step counts the whole grid
+    public long getCellUpdates() {
+        return cellUpdates;
+    }
+
+    // largest temperature change of the last sweep
+    public double getLastDelta() {
+        return lastDelta;
+    }
+
+    // stops the helper threads, the engine cannot be used afterwards
+    public void shutdown() {
+        shutdown = true;
+        await(start);
+    }
+
+    // loop of a helper thread, waits for a run and then sweeps its band until the run stops
+    private void work(int member) {
+        try {
+            while (true) {
+                start.await();
+                if (shutdown) {
+                    return;
+                }
+                sweepBand(member);
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // the engine is being shut down
+        }
+    }
+
+    // sweeps the band of a member once per iteration until the barrier action decides to stop
+    private void sweepBand(int member) {
+        int y0 = bandStart[member];
+        int y1 = bandStart[member + 1];
+        double[][] scratch = (tiles != null) ? tiles.newScratch() : null;
+        while (!stop) {
+            long begin = System.nanoTime();
+            if (active != null) {
+                // the largest change is collected per tile, finish combines it
+                if (solver == SolverType.SOR) {
+                    active.relaxColor(0, omega);
+                    long redTime = System.nanoTime() - begin;
+                    await(colorDone);
+                    begin = System.nanoTime() - redTime;
+                    active.relaxColor(1, omega);
+                } else {
+                    active.relax();
+                }
+            } else if (solver == SolverType.SOR) {
+                // every band has to finish the red cells before any black cell reads them
+                double red = grid.relaxColor(0, omega, 0, grid.width(), y0, y1);
+                long redTime = System.nanoTime() - begin;
+                await(colorDone);
+                begin = System.nanoTime() - redTime;
+                double black = grid.relaxColor(1, omega, 0, grid.width(), y0, y1);
+                maxDelta[member * PADDING] = Math.max(red, black);
+            } else if (tiles != null) {
+                maxDelta[member * PADDING] = tiles.advance(y0, y1, scratch);
+            } else {
+                maxDelta[member * PADDING] = grid.relax(0, grid.width(), y0, y1);
+            }
+            computeTime[member * PADDING] = System.nanoTime() - begin;
+            await(sweepDone);
+        }
+    }
+
+    // runs once every member waits at the start barrier; a helper may only just have read stop at the end of the
+    // previous run, so it is not reset before all of them are back
+    private void beginRun() {
+        stop = maxIterations <= 0;
+        if (active != null) {
+            active.prepare();
+        }
+    }
+
+    // runs once per iteration in the last thread to reach the barrier
+    private void finishSweep() {
+        double delta = 0;
+        long relaxed = (long) grid.width() * grid.height();
+        if (active != null) {
+            delta = active.finish();
+            relaxed = active.getRelaxedCells();
+        } else {
+            for (int t = 0; t < threads; t++) {
+                delta = Math.max(delta, maxDelta[t * PADDING]);
+            }
+        }
+        if (solver == SolverType.JACOBI) {
+            grid.swap(); // SOR updates the grid in place
+        }
+        lastDelta = delta;
+        int steps = (tiles != null && solver == SolverType.JACOBI) ? tiles.getSteps() : 1;
+        iterations += steps;
+        completed += steps;
+        cellUpdates += relaxed * steps;
+        boolean converged = (active != null) ? active.converged(delta, threshold) : delta <= threshold;
+        stop = converged || iterations >= maxIterations;
+        if (active != null && !stop) {
+            active.prepare();
+        }
+
+        if (metrics != null) {
+            long compute = 0;
+            for (int t = 0; t < threads; t++) {
+                compute = Math.max(compute, computeTime[t * PADDING]);
+            }
+            long elapsed = System.nanoTime() - iterationStart;
+            metrics.iteration(completed, relaxed * steps, delta, compute, 0, elapsed - compute);
+            iterationStart = System.nanoTime();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException("heat worker team was interrupted", e);
+        }
+    }
+}
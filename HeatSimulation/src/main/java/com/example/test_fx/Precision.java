@@ -0,0 +1,8 @@
+package com.example.test_fx;
+
+// floating point width the temperatures are stored and swept in
+public enum Precision {
+    DOUBLE, // 64 bit, every solver works on it
+    SINGLE, // 32 bit, half the memory and the memory traffic per sweep, only the Jacobi and SOR sweeps work on it
+    MIXED // single precision until stable, then double precision sweeps from that state until stable again
+}
@@ -0,0 +1,7 @@
+package com.example.test_fx;
+
+// preconditioners available to the conjugate gradient solver
+public enum Preconditioner {
+    JACOBI, // divides the residual by the number of neighbours of each cell
+    INCOMPLETE_CHOLESKY // zero fill-in incomplete Cholesky factor of each band of rows, solved by two triangular sweeps
+}
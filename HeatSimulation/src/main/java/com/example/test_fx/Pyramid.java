@@ -0,0 +1,159 @@
+package com.example.test_fx;
+
+// downsampled copies of a grid for drawing it zoomed out, level l holds the mean, minimum and maximum temperature
+// of blocks of 2^l x 2^l cells; levels below FIRST_LEVEL are not stored, a pixel that covers fewer cells reads
+// the grid itself; the levels are refreshed a few rows at a time so keeping them current costs a bounded amount
+// of work per frame
+public class Pyramid {
+
+    public static final int FIRST_LEVEL = 2; // blocks of 4x4 cells on the finest stored level
+
+    private final int width, height; // size of the grid
+    private final int[] levelWidth, levelHeight; // blocks per row and per column, indexed by level - FIRST_LEVEL
+    private final float[][] mean, min, max; // statistics of every block, indexed by level - FIRST_LEVEL
+    private int nextRow; // next block row of the finest stored level the rolling refresh updates
+
+    public Pyramid(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        // stop once a whole row and column fit into one block
+        int count = 1;
+        while ((width - 1) >> (FIRST_LEVEL + count - 1) > 0 || (height - 1) >> (FIRST_LEVEL + count - 1) > 0) {
+            count++;
+        }
+
+        levelWidth = new int[count];
+        levelHeight = new int[count];
+        mean = new float[count][];
+        min = new float[count][];
+        max = new float[count][];
+        for (int k = 0; k < count; k++) {
+            int block = 1 << (FIRST_LEVEL + k);
+            levelWidth[k] = (width + block - 1) / block;
+            levelHeight[k] = (height + block - 1) / block;
+            int blocks = levelWidth[k] * levelHeight[k];
+            mean[k] = new float[blocks];
+            min[k] = new float[blocks];
+            max[k] = new float[blocks];
+        }
+    }
+
+    // coarsest stored level, a single block covers the grid
+    public int getTopLevel() {
+        return FIRST_LEVEL + levelWidth.length - 1;
+    }
+
+    public int getWidth(int level) {
+        return levelWidth[level - FIRST_LEVEL];
+    }
+
+    public int getHeight(int level) {
+        return levelHeight[level - FIRST_LEVEL];
+    }
+
+    public float[] getMean(int level) {
+        return mean[level - FIRST_LEVEL];
+    }
+
+    public float[] getMin(int level) {
+        return min[level - FIRST_LEVEL];
+    }
+
+    public float[] getMax(int level) {
+        return max[level - FIRST_LEVEL];
+    }
+
+    // refreshes the next block rows of the finest stored level, about as many as cover the given number of cells,
+    // and the blocks above them; wraps around to the top of the grid after the last row
+    public void refresh(Grid grid, long cells) {
+        int rowCells = width << FIRST_LEVEL;
+        int rows = (int) Math.max(1, Math.min(levelHeight[0], cells / rowCells));
+        int start = nextRow;
+        int end = Math.min(levelHeight[0], start + rows);
+        refreshRows(grid, start, end);
+        nextRow = (end == levelHeight[0]) ? 0 : end;
+    }
+
+    // refreshes every level from the grid
+    public void refreshAll(Grid grid) {
+        refreshRows(grid, 0, levelHeight[0]);
+        nextRow = 0;
+    }
+
+    // refreshes block rows [start, end) of the finest stored level and the block rows above them
+    private void refreshRows(Grid grid, int start, int end) {
+        double[] t = grid.current();
+        int block = 1 << FIRST_LEVEL;
+        int blocks = levelWidth[0];
+
+        for (int by = start; by < end; by++) {
+            int y0 = by * block;
+            int y1 = Math.min(y0 + block, height);
+            for (int bx = 0; bx < blocks; bx++) {
+                int x0 = bx * block;
+                int x1 = Math.min(x0 + block, width);
+                double sum = 0;
+                double lowest = Double.POSITIVE_INFINITY;
+                double highest = Double.NEGATIVE_INFINITY;
+                for (int y = y0; y < y1; y++) {
+                    for (int i = y * width + x0, rowEnd = y * width + x1; i < rowEnd; i++) {
+                        double value = t[i];
+                        sum += value;
+                        lowest = Math.min(lowest, value);
+                        highest = Math.max(highest, value);
+                    }
+                }
+                int b = by * blocks + bx;
+                mean[0][b] = (float) (sum / ((x1 - x0) * (y1 - y0)));
+                min[0][b] = (float) lowest;
+                max[0][b] = (float) highest;
+            }
+        }
+
+        for (int k = 1; k < levelWidth.length; k++) {
+            start >>= 1;
+            end = (end + 1) >> 1;
+            combine(k, start, end);
+        }
+    }
+
+    // computes block rows [start, end) of stored level k from the up to 2x2 blocks below each of them,
+    // the mean weighted by the number of cells every block covers
+    private void combine(int k, int start, int end) {
+        int level = FIRST_LEVEL + k;
+        int below = level - 1;
+        int fineWidth = levelWidth[k - 1];
+        int fineHeight = levelHeight[k - 1];
+
+        for (int by = start; by < end; by++) {
+            for (int bx = 0; bx < levelWidth[k]; bx++) {
+                double sum = 0;
+                double cells = 0;
+                float lowest = Float.POSITIVE_INFINITY;
+                float highest = Float.NEGATIVE_INFINITY;
+                for (int fy = 2 * by; fy < Math.min(2 * by + 2, fineHeight); fy++) {
+                    for (int fx = 2 * bx; fx < Math.min(2 * bx + 2, fineWidth); fx++) {
+                        int f = fy * fineWidth + fx;
+                        double area = cellsIn(below, fx, fy);
+                        sum += mean[k - 1][f] * area;
+                        cells += area;
+                        lowest = Math.min(lowest, min[k - 1][f]);
+                        highest = Math.max(highest, max[k - 1][f]);
+                    }
+                }
+                int b = by * levelWidth[k] + bx;
+                mean[k][b] = (float) (sum / cells);
+                min[k][b] = lowest;
+                max[k][b] = highest;
+            }
+        }
+    }
+
+    // number of grid cells a block covers, blocks on the right and bottom edge may be cut off
+    private double cellsIn(int level, int bx, int by) {
+        int x0 = bx << level;
+        int y0 = by << level;
+        return (double) (Math.min(x0 + (1 << level), width) - x0) * (Math.min(y0 + (1 << level), height) - y0);
+    }
+}
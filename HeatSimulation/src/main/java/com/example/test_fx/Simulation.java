@@ -0,0 +1,588 @@
+package com.example.test_fx;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// one run of the heat simulation: a grid, the solver settings and the solver objects built for that grid; every
+// run owns its state, so the interactive application and the batch runner can both drive it and any number of
+// runs can proceed side by side
+public class Simulation {
+
+    public static final long DEFAULT_SEED = 89211208; // seed of the heat points when none is given
+
+    private static final int EDIT_RADIUS = 32; // cells around an edited heat point relaxed before the whole grid
+    private static final int EDIT_SWEEPS = 400; // most red-black sweeps of the region around an edit
+    private static final double EDIT_TOLERANCE = 0.01; // change at which the region around an edit counts as settled
+
+    // receives the iterations done and the residual between the chunks of solve, see setProgress; returning false
+    // stops the solve as if maxIterations had been reached
+    public interface Progress {
+        boolean report(int iterations, double residual);
+    }
+
+    // a change of the heat points waiting for the solver thread, removes the point at x, y or fixes it at value
+    private static final class Edit {
+        final int x, y;
+        final boolean remove;
+        final double value;
+
+        Edit(int x, int y, boolean remove, double value) {
+            this.x = x;
+            this.y = y;
+            this.remove = remove;
+            this.value = value;
+        }
+    }
+
+    private final SweepGrid field; // what the Jacobi and SOR sweeps work on
+    private final Grid grid; // the same grid if it is a double precision grid on the heap, null otherwise
+    private SolverType solver = SolverType.JACOBI; // numerical method used to reach the steady state
+    private double omega = 0; // relaxation factor for SOR, 0 estimates it from the grid size
+    private Preconditioner preconditioner = Preconditioner.INCOMPLETE_CHOLESKY; // preconditioner of the conjugate gradient solver
+    private boolean parallel = false; // sweep on a team of threads instead of the calling thread alone
+    private int threads = 1; // worker threads for parallel computation
+    private int bandRows = 16; // fewest rows worth giving a worker thread of its own
+    private int tileSteps = 1; // Jacobi steps a cache-sized tile advances at once, 1 sweeps the whole grid per step
+    private int tileWidth = 256; // columns of a tile for the temporally blocked Jacobi kernel
+    private int tileHeight = 64; // rows of a tile for the temporally blocked Jacobi kernel
+    private int activeTileSize = 0; // side of the tiles of active-tile scheduling, 0 sweeps every cell
+    private double activeThreshold; // change up to which a tile counts as settled
+
+    // built on first use, they depend on the size and the fixed points of the grid
+    private TiledJacobi tiledJacobi; // temporally blocked Jacobi kernel of the sequential sweeps
+    private ActiveTiles activeTiles; // tiles that still move, shared by the sequential sweeps and the thread team
+    private double[][] tileScratch; // scratch buffers of the sequential tiled sweeps
+    private Multigrid multigrid; // grid hierarchy of the multigrid solver
+    private ConjugateGradient conjugateGradient; // state of the sequential conjugate gradient solver
+
+    private double residual; // largest temperature change or residual norm after the last sweep
+    private int iterations; // sequential iterations so far, tiled Jacobi counts every step
+    private long cellUpdates; // cells relaxed so far, active tiles only count the ones they relaxed
+    private Metrics metrics; // receives every iteration, null if nobody is interested
+    private long seed = DEFAULT_SEED; // seed the heat points were placed with, recorded in checkpoints
+    private Path checkpointFile; // rewritten every checkpointInterval iterations, null writes none
+    private int checkpointInterval;
+    private SnapshotWriter snapshots; // receives the grid every snapshotInterval iterations, null takes none
+    private int snapshotInterval;
+    private final Queue<Edit> edits = new ConcurrentLinkedQueue<>(); // heat point changes not applied yet
+    private SuperpositionCache superposition; // answers new temperatures of the same heat points, null solves
+    private Progress progress; // told every progressInterval iterations, null tells nobody
+    private int progressInterval;
+    private boolean stopped; // the progress listener asked the running solve to stop
+
+    // a grid outside the heap or in single precision only runs the Jacobi and SOR sweeps, without tiles,
+    // checkpoints or snapshots
+    public Simulation(SweepGrid grid) {
+        this.field = grid;
+        this.grid = (grid instanceof Grid) ? (Grid) grid : null;
+    }
+
+    // grid of the given size with heatPoints cells fixed at 100 degrees, placed at random from the seed
+    public static Grid createGrid(int width, int height, int heatPoints, long seed) {
+        Grid grid = new Grid(width, height); // both temperature buffers start at 0
+        placeHeatPoints(grid, heatPoints, seed);
+        return grid;
+    }
+
+    // like createGrid, but in the given storage; file is the scratch file of mapped storage, grids outside the heap
+    // have to be closed once they are no longer needed
+    public static SweepGrid createGrid(int width, int height, int heatPoints, long seed, GridStorage storage,
+                                       Path file) {
+        if (storage == GridStorage.HEAP) {
+            return createGrid(width, height, heatPoints, seed);
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.foreign").isEmpty()) {
+            throw new IllegalStateException("grids outside the heap need --add-modules jdk.incubator.foreign");
+        }
+        if (storage == GridStorage.MAPPED && file == null) {
+            throw new IllegalArgumentException("mapped storage needs a scratch file");
+        }
+        try {
+            OffHeapGrid grid = new OffHeapGrid(width, height, (storage == GridStorage.MAPPED) ? file : null);
+            placeHeatPoints(grid, heatPoints, seed);
+            return grid;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot map the grid to " + file, e);
+        }
+    }
+
+    // like createGrid, but with single precision temperatures
+    public static FloatGrid createFloatGrid(int width, int height, int heatPoints, long seed) {
+        FloatGrid grid = new FloatGrid(width, height);
+        placeHeatPoints(grid, heatPoints, seed);
+        return grid;
+    }
+
+    // like createGrid, but on an adaptive mesh that stands for the uniform grid of the given size and only keeps
+    // fine cells around the heat points and where the temperature changes steeply
+    public static AdaptiveGrid createAdaptiveGrid(int width, int height, int heatPoints, long seed, int minLevel) {
+        AdaptiveGrid grid = new AdaptiveGrid(width, height, minLevel);
+        placeHeatPoints(width, height, heatPoints, seed, grid::setFixed);
+        return grid;
+    }
+
+    // receives the heat points, the setFixed of a grid
+    private interface FixedPoints {
+        void setFixed(int x, int y, double value);
+    }
+
+    private static void placeHeatPoints(SweepGrid grid, int heatPoints, long seed) {
+        placeHeatPoints(grid.width(), grid.height(), heatPoints, seed, grid::setFixed);
+    }
+
+    // the same cells for the same seed in every storage, precision and mesh
+    private static void placeHeatPoints(int width, int height, int heatPoints, long seed, FixedPoints grid) {
+        Random random = new Random(seed);
+        for (int i = 0; i < heatPoints; i++) {
+            int x = random.nextInt(width); // random x-coordinate
+            int y = random.nextInt(height); // random y-coordinate
+            grid.setFixed(x, y, 100); // mark cell as fixed heat point with temperature 100
+        }
+    }
+
+    // the grid if it is a double precision grid on the heap, null otherwise
+    public Grid getGrid() {
+        return grid;
+    }
+
+    public void setSolver(SolverType solver) {
+        this.solver = solver;
+        this.activeTiles = null; // Jacobi also tracks the tiles whose two buffers differ
+    }
+
+    public void setOmega(double omega) {
+        this.omega = omega;
+    }
+
+    public void setPreconditioner(Preconditioner preconditioner) {
+        this.preconditioner = preconditioner;
+    }
+
+    // parallel runs split the grid into bands of at least bandRows rows among up to threads threads
+    public void setParallel(boolean parallel, int threads, int bandRows) {
+        this.parallel = parallel;
+        this.threads = threads;
+        this.bandRows = bandRows;
+    }
+
+    // steps above 1 switch Jacobi to the temporally blocked kernel with tiles of the given size
+    public void setTiles(int steps, int width, int height) {
+        this.tileSteps = steps;
+        this.tileWidth = width;
+        this.tileHeight = height;
+    }
+
+    // size above 0 only sweeps the tiles of that size which changed by more than threshold in their last sweep, or
+    // next to one that did; for Jacobi without temporal blocking and SOR
+    public void setActiveTiles(int size, double threshold) {
+        this.activeTileSize = size;
+        this.activeThreshold = threshold;
+        this.activeTiles = null;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // iterations done before this run, by the run a checkpoint was written by when restarting from it
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    // rewrites the checkpoint file every interval iterations, a null file writes none
+    public void setCheckpoint(Path file, int interval) {
+        if (file != null) {
+            heapGrid("checkpoints");
+        }
+        this.checkpointFile = file;
+        this.checkpointInterval = Math.max(1, interval);
+    }
+
+    // hands a copy of the grid to the writer every interval iterations of the writer, null takes none
+    public void setSnapshots(SnapshotWriter snapshots) {
+        if (snapshots != null) {
+            heapGrid("snapshots");
+        }
+        this.snapshots = snapshots;
+        this.snapshotInterval = (snapshots != null) ? snapshots.getInterval() : 1;
+    }
+
+    // reports to the listener every interval iterations, in the pauses that checkpoints and snapshots take, so a
+    // thread team keeps running across the reports; null reports nothing
+    public void setProgress(Progress progress, int interval) {
+        this.progress = progress;
+        this.progressInterval = Math.max(1, interval);
+    }
+
+    // fixes a cell at the given temperature, a new heat point or a new temperature for an existing one; like the
+    // other edits it may be called from any thread while the simulation runs, the solver applies it before its next
+    // sweep and continues from the current temperatures instead of starting afresh
+    public void setHeatPoint(int x, int y, double value) {
+        heapGrid("heat point edits");
+        edits.add(new Edit(x, y, false, value));
+    }
+
+    // frees a heat point, its cell keeps its temperature until the sweeps relax it
+    public void removeHeatPoint(int x, int y) {
+        heapGrid("heat point edits");
+        edits.add(new Edit(x, y, true, 0));
+    }
+
+    // moves a heat point with its temperature, nothing happens if there is none at the first cell
+    public void moveHeatPoint(int fromX, int fromY, int toX, int toY) {
+        Grid grid = heapGrid("heat point edits");
+        if (grid.isFixed(fromX, fromY)) {
+            double value = grid.get(fromX, fromY); // a fixed point keeps its temperature in both buffers
+            edits.add(new Edit(fromX, fromY, true, 0));
+            edits.add(new Edit(toX, toY, false, value));
+        }
+    }
+
+    // with a cache, edits that only change the temperatures of existing heat points are answered by the weighted
+    // sum of the basis fields of the layout, the steady state itself instead of a warm start towards it; the first
+    // such edit of a layout solves its basis fields
+    public void setSuperposition(SuperpositionCache cache) {
+        if (cache != null) {
+            heapGrid("superposition");
+        }
+        this.superposition = cache;
+    }
+
+    // whether edits of the heat points are waiting for the next sweep
+    public boolean hasPendingEdits() {
+        return !edits.isEmpty();
+    }
+
+    // writes the grid and the iteration count to a checkpoint that a later run can continue from
+    public void writeCheckpoint(Path file) throws IOException {
+        Checkpoint.write(file, heapGrid("checkpoints"), iterations, seed, solver.name());
+    }
+
+    // largest temperature change of the last sweep, for multigrid and conjugate gradient the largest change a
+    // further Jacobi sweep would make
+    public double getResidual() {
+        return residual;
+    }
+
+    // cells relaxed by all iterations so far, for rates that should not count the cells active tiles skipped; a
+    // multigrid cycle or conjugate gradient iteration counts the cells of the grid once
+    public long getCellUpdates() {
+        return cellUpdates;
+    }
+
+    // relaxation factor used by SOR
+    public double relaxationFactor() {
+        return (omega > 0) ? omega : field.estimateOmega();
+    }
+
+    // sweeps until the largest temperature change is at most the threshold or maxIterations iterations are done,
+    // returns the number of iterations; tiled Jacobi counts every step, multigrid every cycle
+    public int solve(double threshold, int maxIterations) {
+        if (metrics != null) {
+            metrics.attach();
+        }
+        stopped = false;
+        if (parallel && solver == SolverType.CONJUGATE_GRADIENT) {
+            // conjugate gradient on a fixed team of threads, the dot products are reduced at the team's barriers
+            applyEdits();
+            ConjugateGradient engine = new ConjugateGradient(heapGrid(solver.name()), threads, bandRows,
+                    preconditioner);
+            engine.setMetrics(metrics);
+            try {
+                // a run continues where the previous one stopped, so the team can pause for checkpoints and
+                // snapshots
+                int first = iterations;
+                while (true) {
+                    int chunk = untilPause(maxIterations - (iterations - first));
+                    int done = engine.run(threshold, chunk);
+                    iterations += done;
+                    cellUpdates += (long) done * field.width() * field.height();
+                    residual = engine.getResidualNorm();
+                    pause(iterations - done);
+                    boolean edited = applyEdits();
+                    if (edited) {
+                        // the engine keeps its own copy of the preconditioner, which no longer fits
+                        engine.shutdown();
+                        engine = new ConjugateGradient(heapGrid(solver.name()), threads, bandRows, preconditioner);
+                        engine.setMetrics(metrics);
+                    }
+                    if (!edited && (done < chunk || residual <= threshold) || iterations - first >= maxIterations
+                            || stopped) {
+                        break;
+                    }
+                }
+                return iterations - first;
+            } finally {
+                engine.shutdown(); // stop the worker threads
+            }
+        }
+        if (parallel && solver != SolverType.MULTIGRID) {
+            // parallel computation on a fixed team of threads, each one sweeping its own band of rows
+            if (grid != null) {
+                applyEdits();
+            }
+            ParallelEngine engine = new ParallelEngine(field, threads, bandRows, solver, relaxationFactor(), tiles());
+            engine.setMetrics(metrics);
+            engine.setActiveTiles(activeTiles());
+            try {
+                int first = iterations;
+                while (true) {
+                    int chunk = untilPause(maxIterations - (iterations - first));
+                    long before = engine.getCellUpdates();
+                    int done = engine.run(threshold, chunk);
+                    iterations += done;
+                    cellUpdates += engine.getCellUpdates() - before;
+                    residual = engine.getLastDelta();
+                    pause(iterations - done);
+                    // edited heat points need more sweeps even if the team had settled, the sweeps read the mask of
+                    // the grid itself, so the same team carries on
+                    boolean edited = grid != null && applyEdits();
+                    // a last sweep that skipped tiles does not count, its run only stopped for the pause
+                    boolean settled = residual <= threshold && (activeTiles() == null || activeTiles().isComplete());
+                    if (!edited && (done < chunk || settled) || iterations - first >= maxIterations || stopped) {
+                        break;
+                    }
+                }
+                return iterations - first;
+            } finally {
+                engine.shutdown(); // stop the worker threads
+            }
+        }
+
+        // sequential computation, the two grid buffers are reused for every sweep; multigrid always runs here
+        // since the thread team only knows the relaxation solvers
+        int first = iterations;
+        boolean stable = false;
+        while (!stable && !stopped && iterations - first < maxIterations) {
+            double maxDelta = sweep();
+            ActiveTiles active = activeTiles();
+            // stable once no temperature change is significant, with active tiles in a sweep of every tile
+            stable = (active != null) ? active.converged(maxDelta, threshold) : maxDelta <= threshold;
+        }
+        return iterations - first;
+    }
+
+    // performs one sequential sweep with the selected solver and returns the largest temperature change,
+    // for tiled Jacobi several steps and the change of the last one, for multigrid one cycle and for conjugate
+    // gradient one iteration and the largest change a further Jacobi sweep would make
+    public double sweep() {
+        if (grid != null) {
+            applyEdits();
+        }
+        long start = System.nanoTime();
+        residual = step();
+        long compute = System.nanoTime() - start;
+
+        int steps = (tiles() != null) ? tileSteps : 1;
+        iterations += steps;
+        long cells = (activeTiles() != null) ? activeTiles().getRelaxedCells() : (long) field.width() * field.height();
+        cellUpdates += cells * steps;
+        if (metrics != null) {
+            metrics.attach();
+            metrics.iteration(iterations, cells * steps, residual, compute, 0, 0);
+        }
+        pause(iterations - steps);
+        return residual;
+    }
+
+    // applies the waiting edits of the heat points and relaxes the region around each of them until it settles, so
+    // the sweeps of the whole grid that follow only carry the change further out; returns whether there were any
+    private boolean applyEdits() {
+        Edit edit = edits.poll();
+        if (edit == null) {
+            return false;
+        }
+        List<Edit> applied = new ArrayList<>();
+        for (; edit != null; edit = edits.poll()) {
+            applied.add(edit);
+        }
+        if (superposition != null && onlyTemperatures(applied)) {
+            for (Edit change : applied) {
+                grid.setFixed(change.x, change.y, change.value);
+            }
+            superposition.get(grid).combine(grid);
+            activeTiles = null; // every cell changed
+            multigrid = null;
+            conjugateGradient = null;
+            return true;
+        }
+
+        for (Edit change : applied) {
+            if (change.x < 0 || change.y < 0 || change.x >= grid.width || change.y >= grid.height) {
+                continue;
+            }
+            if (change.remove) {
+                grid.clearFixed(change.x, change.y);
+            } else {
+                grid.setFixed(change.x, change.y, change.value);
+            }
+            relaxAround(change.x, change.y);
+        }
+
+        // the solver objects built from the fixed points start over, the temperatures stay
+        multigrid = null;
+        conjugateGradient = null;
+        return true;
+    }
+
+    // whether the edits keep the layout of the heat points and only change their temperatures
+    private boolean onlyTemperatures(List<Edit> applied) {
+        for (Edit edit : applied) {
+            if (edit.remove || edit.x < 0 || edit.y < 0 || edit.x >= grid.width || edit.y >= grid.height
+                    || !grid.isFixed(edit.x, edit.y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // red-black sweeps of the cells within EDIT_RADIUS of a cell, in place in the current buffer that the next
+    // sweep of any solver reads
+    private void relaxAround(int x, int y) {
+        int x0 = Math.max(0, x - EDIT_RADIUS);
+        int x1 = Math.min(grid.width, x + EDIT_RADIUS + 1);
+        int y0 = Math.max(0, y - EDIT_RADIUS);
+        int y1 = Math.min(grid.height, y + EDIT_RADIUS + 1);
+        double factor = 2 / (1 + Math.sin(Math.PI / Math.max(x1 - x0, y1 - y0)));
+        for (int sweep = 0; sweep < EDIT_SWEEPS; sweep++) {
+            double red = grid.relaxColor(0, factor, x0, x1, y0, y1);
+            double black = grid.relaxColor(1, factor, x0, x1, y0, y1);
+            if (Math.max(red, black) <= EDIT_TOLERANCE) {
+                break;
+            }
+        }
+        if (activeTiles != null) {
+            activeTiles.wake(x0, y0, x1, y1);
+        }
+    }
+
+    // iterations a thread team may run before it has to stop for the next checkpoint, snapshot or progress report, at
+    // most remaining
+    private int untilPause(int remaining) {
+        int run = remaining;
+        if (checkpointFile != null) {
+            run = Math.min(run, checkpointInterval - iterations % checkpointInterval);
+        }
+        if (snapshots != null) {
+            run = Math.min(run, snapshotInterval - iterations % snapshotInterval);
+        }
+        if (progress != null) {
+            run = Math.min(run, progressInterval - iterations % progressInterval);
+        }
+        return run;
+    }
+
+    // takes the snapshot, writes the checkpoint and reports the progress that fell due since the given iteration count
+    private void pause(int before) {
+        if (progress != null && iterations / progressInterval != before / progressInterval
+                && !progress.report(iterations, residual)) {
+            stopped = true;
+        }
+        if (snapshots != null && iterations / snapshotInterval != before / snapshotInterval) {
+            snapshots.offer(grid, iterations);
+        }
+        if (checkpointFile != null && iterations / checkpointInterval != before / checkpointInterval) {
+            saveCheckpoint();
+        }
+    }
+
+    // writes the configured checkpoint file, if any; a checkpoint that cannot be written is reported and the run
+    // itself carries on
+    public void saveCheckpoint() {
+        if (checkpointFile == null) {
+            return;
+        }
+        try {
+            writeCheckpoint(checkpointFile);
+        } catch (IOException e) {
+            System.err.println("Checkpoint " + checkpointFile + " was not written: " + e.getMessage());
+        }
+    }
+
+    private double step() {
+        if (solver == SolverType.MULTIGRID) {
+            if (multigrid == null) {
+                multigrid = new Multigrid(heapGrid(solver.name()));
+            }
+            return multigrid.cycle();
+        }
+        if (solver == SolverType.CONJUGATE_GRADIENT) {
+            if (conjugateGradient == null) {
+                conjugateGradient = new ConjugateGradient(heapGrid(solver.name()), 1, bandRows, preconditioner);
+            }
+            conjugateGradient.run(0, 1);
+            return conjugateGradient.getResidualNorm();
+        }
+        ActiveTiles active = activeTiles();
+        if (active != null) {
+            double maxDelta = active.sweep(relaxationFactor());
+            if (solver == SolverType.JACOBI) {
+                field.swap();
+            }
+            return maxDelta;
+        }
+        if (solver == SolverType.SOR) {
+            double factor = relaxationFactor();
+            double red = field.relaxColor(0, factor, 0, field.width(), 0, field.height());
+            double black = field.relaxColor(1, factor, 0, field.width(), 0, field.height());
+            return Math.max(red, black);
+        }
+
+        double maxDelta;
+        TiledJacobi tiles = tiles();
+        if (tiles != null) {
+            if (tileScratch == null) {
+                tileScratch = tiles.newScratch();
+            }
+            maxDelta = tiles.advance(0, grid.height, tileScratch);
+        } else {
+            maxDelta = field.relax(0, field.width(), 0, field.height());
+        }
+        field.swap();
+        return maxDelta;
+    }
+
+    // temporally blocked Jacobi kernel, null when every step sweeps the whole grid
+    private TiledJacobi tiles() {
+        if (solver != SolverType.JACOBI || tileSteps <= 1) {
+            return null;
+        }
+        if (tiledJacobi == null) {
+            tiledJacobi = new TiledJacobi(heapGrid("tiled Jacobi"), tileWidth, tileHeight, tileSteps);
+        }
+        return tiledJacobi;
+    }
+
+    // active-tile scheduling of the sweeps, null when every sweep visits every cell
+    private ActiveTiles activeTiles() {
+        if (activeTileSize <= 0 || (solver != SolverType.JACOBI && solver != SolverType.SOR) || tiles() != null) {
+            return null;
+        }
+        if (activeTiles == null) {
+            activeTiles = new ActiveTiles(heapGrid("active tiles"), solver, activeTileSize, activeThreshold);
+        }
+        return activeTiles;
+    }
+
+    // the grid for the features that work on its double arrays, which other grids do not have
+    private Grid heapGrid(String feature) {
+        if (grid == null) {
+            throw new IllegalStateException(feature + " needs a double precision grid on the heap");
+        }
+        return grid;
+    }
+}
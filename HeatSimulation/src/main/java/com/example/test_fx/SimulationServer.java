@@ -0,0 +1,499 @@
+package com.example.test_fx;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// long-running entry point that solves jobs sent over HTTP in one warm JVM, so the start of the JVM and the
+// compilation of the kernels are paid once instead of per job, for example
+//   SimulationServer -port 8080 -cache 512
+//   curl 'localhost:8080/solve?size=400x300&points=10&solver=sor&tolerance=0.01'
+//   curl -o field.bin 'localhost:8080/field?size=400x300&points=10&solver=sor&tolerance=0.01'
+// the parameters of a job are the options of BatchRunner that change its result, given in the query or, for POST,
+// as a form body; /solve streams a line per -progress iterations while it runs and a summary at the end:
+//   progress,<iterations>,<residual>
+//   done,<iterations>,<runtime_ms>,<residual>,<cached>
+// and /field answers with the steady state as little-endian doubles in row-major order, like the temperatures of a
+// checkpoint; finished fields are kept by their full set of parameters, and the least recently used ones are dropped
+// once they take more than -cache megabytes
+//
+// every exchange runs on a thread of its own, a virtual one when the runtime has them, so any number of jobs can wait
+// cheaply; the solves themselves take a permit per solver thread from a semaphore sized to the cores, so the cores
+// are never oversubscribed however many jobs come in, and a job may not ask for more threads than there are cores;
+// requests for a job that is already being solved wait for that solve and get its progress at the interval of the
+// request that started it
+public class SimulationServer {
+
+    private static final int MAX_BODY = 1 << 16; // bytes of a form body, far more than any set of parameters
+    private static final int BAND_ROWS = 16; // fewest rows worth giving a solver thread of its own
+
+    // value of every parameter of a job that its request leaves out
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("size", "80x60");
+        DEFAULTS.put("points", "10");
+        DEFAULTS.put("seed", Long.toString(Simulation.DEFAULT_SEED));
+        DEFAULTS.put("solver", "jacobi");
+        DEFAULTS.put("threads", "1");
+        DEFAULTS.put("tolerance", "0.25");
+        DEFAULTS.put("max-iterations", "1000000");
+        DEFAULTS.put("omega", "0");
+        DEFAULTS.put("preconditioner", "incomplete_cholesky");
+        DEFAULTS.put("temperatures", "100");
+        DEFAULTS.put("progress", "100"); // iterations between two progress lines, does not change the result
+    }
+
+    // parameters of one job, parsed before it waits for the cores so a typo is answered at once
+    private static final class Job {
+        final int width, height;
+        final int points;
+        final long seed;
+        final SolverType solver;
+        final int threads;
+        final double tolerance;
+        final int maxIterations;
+        final double omega;
+        final Preconditioner preconditioner;
+        final double[] temperatures; // of the heat points in row-major order, repeated for as many as there are
+        final int progress;
+        final String key; // every parameter that changes the result, in a fixed order
+
+        Job(Map<String, String> options) {
+            String[] size = options.get("size").split("x");
+            if (size.length != 2) {
+                throw new IllegalArgumentException("expected width x height but got " + options.get("size"));
+            }
+            width = Integer.parseInt(size[0].trim());
+            height = Integer.parseInt(size[1].trim());
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("width and height must be positive in " + options.get("size"));
+            }
+            points = parseInt(options, "points", 0);
+            seed = Long.parseLong(options.get("seed"));
+            solver = SolverType.valueOf(options.get("solver").toUpperCase(Locale.ROOT));
+            threads = parseInt(options, "threads", 1);
+            tolerance = Double.parseDouble(options.get("tolerance"));
+            maxIterations = parseInt(options, "max-iterations", 1);
+            omega = Double.parseDouble(options.get("omega"));
+            preconditioner = Preconditioner.valueOf(options.get("preconditioner").toUpperCase(Locale.ROOT));
+            String[] values = options.get("temperatures").split(":");
+            temperatures = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                temperatures[i] = Double.parseDouble(values[i]);
+            }
+            progress = parseInt(options, "progress", 1);
+
+            StringBuilder builder = new StringBuilder()
+                    .append(width).append('x').append(height)
+                    .append(",points=").append(points)
+                    .append(",seed=").append(seed)
+                    .append(",solver=").append(solver)
+                    .append(",threads=").append(threads)
+                    .append(",tolerance=").append(tolerance)
+                    .append(",max-iterations=").append(maxIterations)
+                    .append(",omega=").append(omega)
+                    .append(",preconditioner=").append(preconditioner)
+                    .append(",temperatures=");
+            for (int i = 0; i < temperatures.length; i++) {
+                builder.append((i == 0) ? "" : ":").append(temperatures[i]);
+            }
+            key = builder.toString();
+        }
+
+        long bytes() {
+            return (long) width * height * Double.BYTES;
+        }
+
+        // solves the job on the calling thread and reports to the listener every progress iterations, returns null
+        // if the listener stopped it; the whole job runs on one thread team, which keeps sweeping across the reports
+        Result solve(Simulation.Progress listener) {
+            Grid grid = Simulation.createGrid(width, height, points, seed);
+            int k = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (grid.isFixed(x, y)) {
+                        grid.setFixed(x, y, temperatures[k++ % temperatures.length]);
+                    }
+                }
+            }
+            Simulation simulation = new Simulation(grid);
+            simulation.setSolver(solver);
+            simulation.setOmega(omega);
+            simulation.setPreconditioner(preconditioner);
+            simulation.setParallel(threads > 1, threads, BAND_ROWS);
+            boolean[] stopped = {false};
+            simulation.setProgress((iterations, residual) -> {
+                stopped[0] = !listener.report(iterations, residual);
+                return !stopped[0];
+            }, progress);
+
+            long start = System.nanoTime();
+            int iterations = simulation.solve(tolerance, maxIterations);
+            long elapsed = System.nanoTime() - start;
+            if (stopped[0]) {
+                return null;
+            }
+            return new Result(width, height, grid.current().clone(), iterations, simulation.getResidual(), elapsed);
+        }
+    }
+
+    // a job being solved and the requests waiting for it, the progress goes to every one of them; the solve stops
+    // once all of them went away
+    private static final class Solve implements Simulation.Progress {
+        final CompletableFuture<Result> result = new CompletableFuture<>(); // cancelled if the solve was stopped
+        final List<Simulation.Progress> listeners = new CopyOnWriteArrayList<>();
+        final AtomicInteger waiters = new AtomicInteger();
+
+        // adds a request, a null listener waits for the result without progress
+        void join(Simulation.Progress listener) {
+            waiters.incrementAndGet();
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+
+        // a listener that returns false lost its client and stops waiting
+        @Override
+        public boolean report(int iterations, double residual) {
+            for (Simulation.Progress listener : listeners) {
+                if (!listener.report(iterations, residual)) {
+                    listeners.remove(listener);
+                    waiters.decrementAndGet();
+                }
+            }
+            return waiters.get() > 0;
+        }
+    }
+
+    // steady state of a finished job, never changed once built
+    private static final class Result {
+        final int width, height;
+        final double[] field; // temperatures in row-major order
+        final int iterations;
+        final double residual;
+        final long elapsed; // nanoseconds the solve took
+
+        Result(int width, int height, double[] field, int iterations, double residual, long elapsed) {
+            this.width = width;
+            this.height = height;
+            this.field = field;
+            this.iterations = iterations;
+            this.residual = residual;
+            this.elapsed = elapsed;
+        }
+    }
+
+    private final long maxBytes; // budget of the cached fields
+    private final int coreCount; // solver threads that may run at once
+    private final Semaphore cores; // one permit per solver thread that runs
+    private final Map<String, Result> results = new LinkedHashMap<>(16, 0.75f, true); // in order of last use
+    private final Map<String, Solve> solves = new ConcurrentHashMap<>(); // jobs being solved, by key
+    private long bytes; // taken by the cached fields
+
+    public SimulationServer(long maxBytes, int cores) {
+        this.maxBytes = maxBytes;
+        this.coreCount = Math.max(1, cores);
+        this.cores = new Semaphore(coreCount, true);
+    }
+
+    // serves the jobs on the port until the process is stopped
+    public HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/solve", exchange -> handle(exchange, false));
+        server.createContext("/field", exchange -> handle(exchange, true));
+        server.setExecutor(exchangeExecutor());
+        server.start();
+        return server;
+    }
+
+    private void handle(HttpExchange exchange, boolean field) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "GET, POST");
+                sendText(exchange, 405, "use GET or POST\n");
+                return;
+            }
+            Job job;
+            try {
+                job = new Job(parameters(exchange));
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, "Invalid job: " + e.getMessage() + "\n");
+                return;
+            }
+            if (job.threads > coreCount) {
+                sendText(exchange, 400, "Invalid job: threads must be at most " + coreCount + "\n");
+                return;
+            }
+            if (field) {
+                sendField(exchange, job);
+            } else {
+                streamSolve(exchange, job);
+            }
+        }
+    }
+
+    // answers with the progress of the job as it solves, or only the summary if its field is cached
+    private void streamSolve(HttpExchange exchange, Job job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0); // chunked, every line goes out as it is written
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        Result cached = cached(job);
+        Result result;
+        try {
+            result = (cached != null) ? cached : result(job, (iterations, residual) -> {
+                out.printf(Locale.ROOT, "progress,%d,%.6e%n", iterations, residual);
+                out.flush();
+                return !out.checkError(); // the client went away
+            });
+        } catch (RuntimeException e) {
+            out.println("error," + e.getMessage());
+            out.flush();
+            return;
+        }
+        if (result == null) {
+            return; // stopped, nobody is left to answer
+        }
+        out.printf(Locale.ROOT, "done,%d,%.3f,%.6e,%b%n", result.iterations, result.elapsed / 1e6, result.residual,
+                cached != null);
+        out.flush();
+    }
+
+    // answers with the steady state of the job, solving it first if it is not cached
+    private void sendField(HttpExchange exchange, Job job) throws IOException {
+        Result result = cached(job);
+        if (result == null) {
+            try {
+                result = result(job, null);
+            } catch (RuntimeException e) {
+                sendText(exchange, 500, "Job failed: " + e.getMessage() + "\n");
+                return;
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("X-Heat-Size", result.width + "x" + result.height);
+        exchange.getResponseHeaders().set("X-Heat-Iterations", Integer.toString(result.iterations));
+        exchange.sendResponseHeaders(200, (long) result.field.length * Double.BYTES);
+        OutputStream body = exchange.getResponseBody();
+        ByteBuffer buffer = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+        for (double value : result.field) {
+            if (!buffer.hasRemaining()) {
+                body.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putDouble(value);
+        }
+        body.write(buffer.array(), 0, buffer.position());
+    }
+
+    // the field of the job from the cache, from a solve of the same job that is already running, or else from a solve
+    // on the calling thread; null if that solve was stopped because every request for it went away
+    private Result result(Job job, Simulation.Progress listener) {
+        while (true) {
+            Solve solve = solves.get(job.key);
+            if (solve == null) {
+                // a finished solve is cached before it leaves the map, so a miss in both means none ran
+                Result cached = cached(job);
+                if (cached != null) {
+                    return cached;
+                }
+                Solve created = new Solve();
+                solve = solves.putIfAbsent(job.key, created);
+                if (solve == null) {
+                    created.join(listener);
+                    return solve(job, created);
+                }
+            }
+            solve.join(listener);
+            try {
+                return solve.result.join();
+            } catch (CancellationException e) {
+                // every request before this one went away just as it joined, it starts the solve again
+            } catch (CompletionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    // solves the job once it holds a permit for every thread it sweeps with, caches its field and hands it to every
+    // request waiting for it; multigrid always sweeps on one thread
+    private Result solve(Job job, Solve solve) {
+        int permits = (job.solver == SolverType.MULTIGRID) ? 1 : job.threads;
+        try {
+            try {
+                cores.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for a core", e);
+            }
+            Result result;
+            try {
+                result = job.solve(solve);
+            } finally {
+                cores.release(permits);
+            }
+            if (result == null) {
+                solve.result.cancel(false);
+            } else {
+                store(job, result);
+                solve.result.complete(result);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            solve.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            solves.remove(job.key, solve);
+        }
+    }
+
+    private synchronized Result cached(Job job) {
+        return results.get(job.key);
+    }
+
+    // keeps the field unless it alone is larger than the whole budget, dropping the least recently used ones
+    private synchronized void store(Job job, Result result) {
+        if (job.bytes() > maxBytes || results.containsKey(job.key)) {
+            return;
+        }
+        results.put(job.key, result);
+        bytes += job.bytes();
+        Iterator<Result> eldest = results.values().iterator();
+        while (bytes > maxBytes) {
+            Result dropped = eldest.next();
+            bytes -= (long) dropped.field.length * Double.BYTES;
+            eldest.remove();
+        }
+    }
+
+    // parameters of the query and of a form body, on top of the defaults
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        putParameters(options, exchange.getRequestURI().getRawQuery());
+        if (exchange.getRequestMethod().equals("POST")) {
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                throw new IllegalArgumentException("the body is larger than " + MAX_BODY + " bytes");
+            }
+            putParameters(options, new String(body, StandardCharsets.UTF_8).trim());
+        }
+        return options;
+    }
+
+    private static void putParameters(Map<String, String> options, String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("missing value for " + pair);
+            }
+            String name = URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8);
+            if (!options.containsKey(name)) {
+                throw new IllegalArgumentException("unknown parameter " + name + ", known are "
+                        + String.join(", ", DEFAULTS.keySet()));
+            }
+            options.put(name, URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // a virtual thread per exchange where the runtime has them, looked up by name since the build targets 17;
+    // otherwise a growing pool of platform threads, idle ones are reused
+    private static ExecutorService exchangeExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "heat-job");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // parses an integer parameter that must be at least the given minimum
+    private static int parseInt(Map<String, String> options, String name, int minimum) {
+        int value = Integer.parseInt(options.get(name));
+        if (value < minimum) {
+            throw new IllegalArgumentException(name + " must be at least " + minimum);
+        }
+        return value;
+    }
+
+    public static void main(String[] args) {
+        int port = 8080;
+        long megabytes = Runtime.getRuntime().maxMemory() / 4 >> 20;
+        int solves = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "-port":
+                        port = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-cache":
+                        megabytes = Long.parseLong(args[i + 1]);
+                        break;
+                    case "-cores":
+                        solves = Integer.parseInt(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + args[i]
+                                + ", known are -port, -cache and -cores");
+                }
+            }
+            if (port < 0 || megabytes < 0 || solves <= 0) {
+                throw new IllegalArgumentException("-port and -cache must not be negative and -cores must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid options: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        try {
+            HttpServer server = new SimulationServer(megabytes << 20, solves).start(port);
+            System.out.println("Serving simulation jobs on port " + server.getAddress().getPort());
+        } catch (IOException e) {
+            System.err.println("Cannot serve on port " + port + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
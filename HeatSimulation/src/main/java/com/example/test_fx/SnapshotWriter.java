@@ -0,0 +1,308 @@
+package com.example.test_fx;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+// time series of the temperature field, written on a thread of its own: the solver only copies the grid into one
+// of a few pooled buffers and queues it, the writer thread encodes the queued frames and returns the buffers; once
+// every buffer is queued the solver either waits for the writer or drops the frame, as the policy says, but it
+// never waits for the file itself; -Dheat.snapshots=<file> turns it on, see fromSystemProperties for the options
+//
+// raw, delta and compressed frames go to one stream file that starts with the magic HEATSNAP and a version int,
+// followed by frames of iteration (long), width and height (ints), payload bytes (long) and the payload, all
+// little-endian; a raw payload holds the temperatures as doubles in row-major order, a compressed one the same
+// bytes deflated, a delta one the bits of every double xor the bits of the same cell in the previous frame,
+// deflated, which leaves mostly zero bytes once the field changes slowly; png writes every frame as an image of
+// its own, frame-<iteration>.png in the directory given as file, averaging blocks of scale x scale cells per pixel
+public class SnapshotWriter implements AutoCloseable {
+
+    public enum Format {
+        RAW, // temperatures as they are
+        DELTA, // xor with the previous frame, deflated
+        COMPRESSED, // temperatures deflated
+        PNG // downsampled image per frame
+    }
+
+    public enum Policy {
+        BLOCK, // the solver waits for a free buffer, no frame is lost
+        DROP // the solver skips the frame, it never waits
+    }
+
+    private static final byte[] MAGIC = "HEATSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FRAME_HEADER_BYTES = 24;
+    private static final int CHUNK_CELLS = 1 << 16; // cells encoded at a time, bounds the writer's buffers
+
+    // pooled copy of the grid waiting for the writer
+    private static final class Frame {
+        double[] values;
+        int width, height;
+        long iteration;
+    }
+
+    private static final Frame END = new Frame(); // queued by close, stops the writer thread
+
+    private final Path target;
+    private final Format format;
+    private final Policy policy;
+    private final int scale;
+    private final int[] palette; // colours of the png frames by temperature
+    private final int interval;
+    private final int buffers; // most frames that exist at once
+    private final BlockingQueue<Frame> free; // buffers the writer is done with
+    private final BlockingQueue<Frame> queued; // frames waiting for the writer, never more than there are buffers
+    private final Thread writer;
+    private int allocated; // buffers created so far, at most buffers; solver side only
+    private long dropped; // frames skipped because every buffer was queued; solver side only
+
+    // owned by the writer thread
+    private FileChannel channel; // stream file, null for png frames
+    private final ByteBuffer chunk = ByteBuffer.allocate(8 * CHUNK_CELLS).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] deflated = new byte[8 * CHUNK_CELLS];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private long[] previous; // bits of the previous frame for delta frames
+    private boolean failed; // writing failed, the remaining frames are only recycled
+
+    // palette may be null unless the format is png; interval is only kept for callers that take frames every n
+    // iterations
+    public SnapshotWriter(Path target, Format format, Policy policy, int buffers, int scale, int[] palette,
+                          int interval) throws IOException {
+        this.target = target;
+        this.format = format;
+        this.policy = policy;
+        this.scale = Math.max(1, scale);
+        this.palette = palette;
+        this.interval = Math.max(1, interval);
+        this.buffers = Math.max(1, buffers);
+        this.free = new ArrayBlockingQueue<>(this.buffers);
+        this.queued = new ArrayBlockingQueue<>(this.buffers + 1); // room for END as well
+
+        if (format == Format.PNG) {
+            Files.createDirectories(target);
+        } else {
+            channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+
+        writer = new Thread(this::drain, "heat-snapshots");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // writer configured by the system properties, null if there is none: -Dheat.snapshots=<file> with
+    // -Dheat.snapshots.interval=<n> (100), -Dheat.snapshots.format=raw|delta|compressed|png (raw),
+    // -Dheat.snapshots.policy=block|drop (block), -Dheat.snapshots.buffers=<n> (4) and
+    // -Dheat.snapshots.scale=<cells per pixel> (1)
+    public static SnapshotWriter fromSystemProperties(int[] palette) {
+        String file = System.getProperty("heat.snapshots");
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        Format format = Format.valueOf(System.getProperty("heat.snapshots.format", "raw").toUpperCase(Locale.ROOT));
+        Policy policy = Policy.valueOf(System.getProperty("heat.snapshots.policy", "block").toUpperCase(Locale.ROOT));
+        try {
+            return new SnapshotWriter(Path.of(file), format, policy, Integer.getInteger("heat.snapshots.buffers", 4),
+                    Integer.getInteger("heat.snapshots.scale", 1), palette,
+                    Integer.getInteger("heat.snapshots.interval", 100));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write snapshots to " + file, e);
+        }
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    // frames skipped under the drop policy because the writer was behind
+    public long getDropped() {
+        return dropped;
+    }
+
+    // copies the current temperatures of the grid into a pooled buffer and queues it for the writer; returns false
+    // if the frame was dropped; always called from the same thread
+    public boolean offer(Grid grid, long iteration) {
+        Frame frame = free.poll();
+        if (frame == null && allocated < buffers) {
+            frame = new Frame();
+            allocated++;
+        }
+        if (frame == null) {
+            if (policy == Policy.DROP) {
+                dropped++;
+                return false;
+            }
+            try {
+                frame = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        double[] values = grid.current();
+        if (frame.values == null || frame.values.length != values.length) {
+            frame.values = new double[values.length];
+        }
+        System.arraycopy(values, 0, frame.values, 0, values.length);
+        frame.width = grid.width;
+        frame.height = grid.height;
+        frame.iteration = iteration;
+        queued.add(frame); // there is always room, only existing buffers are ever queued
+        return true;
+    }
+
+    // writes the frames still queued and closes the file
+    @Override
+    public void close() {
+        queued.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deflater.end();
+        if (dropped > 0) {
+            System.err.println("Snapshots dropped because the writer fell behind: " + dropped);
+        }
+    }
+
+    // loop of the writer thread
+    private void drain() {
+        try {
+            while (true) {
+                Frame frame = queued.take();
+                if (frame == END) {
+                    break;
+                }
+                if (!failed) {
+                    try {
+                        write(frame);
+                    } catch (IOException e) {
+                        failed = true; // the solver carries on without snapshots
+                        System.err.println("Snapshots are no longer written: " + e.getMessage());
+                    }
+                }
+                free.add(frame);
+            }
+        } catch (InterruptedException e) {
+            // the application is exiting
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    System.err.println("Snapshot file was not closed cleanly: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        if (format == Format.PNG) {
+            writeImage(frame);
+            return;
+        }
+
+        long headerPosition = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(frame.iteration).putInt(frame.width).putInt(frame.height).putLong(0).flip();
+        writeFully(header);
+        long payloadStart = channel.position();
+
+        double[] values = frame.values;
+        boolean delta = format == Format.DELTA;
+        if (delta && (previous == null || previous.length != values.length)) {
+            previous = new long[values.length]; // the first frame of a size is xored with zeros, so it is complete
+        }
+        for (int start = 0; start < values.length; start += CHUNK_CELLS) {
+            int end = Math.min(values.length, start + CHUNK_CELLS);
+            chunk.clear();
+            for (int i = start; i < end; i++) {
+                long bits = Double.doubleToRawLongBits(values[i]);
+                if (delta) {
+                    chunk.putLong(bits ^ previous[i]);
+                    previous[i] = bits;
+                } else {
+                    chunk.putLong(bits);
+                }
+            }
+            chunk.flip();
+            if (format == Format.RAW) {
+                writeFully(chunk);
+            } else {
+                deflater.setInput(chunk.array(), 0, chunk.limit());
+                while (!deflater.needsInput()) {
+                    writeDeflated(deflater.deflate(deflated));
+                }
+            }
+        }
+        if (format != Format.RAW) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeDeflated(deflater.deflate(deflated));
+            }
+            deflater.reset();
+        }
+
+        // the payload length is only known now
+        long end = channel.position();
+        ByteBuffer length = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        length.putLong(end - payloadStart).flip();
+        while (length.hasRemaining()) {
+            channel.write(length, headerPosition + 16 + length.position());
+        }
+    }
+
+    private void writeDeflated(int count) throws IOException {
+        writeFully(ByteBuffer.wrap(deflated, 0, count));
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // one pixel per block of scale x scale cells, coloured by the mean temperature of the block
+    private void writeImage(Frame frame) throws IOException {
+        int width = (frame.width + scale - 1) / scale;
+        int height = (frame.height + scale - 1) / scale;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        int last = palette.length - 1;
+        for (int py = 0; py < height; py++) {
+            int y0 = py * scale;
+            int y1 = Math.min(y0 + scale, frame.height);
+            for (int px = 0; px < width; px++) {
+                int x0 = px * scale;
+                int x1 = Math.min(x0 + scale, frame.width);
+                double sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int i = y * frame.width + x0, rowEnd = y * frame.width + x1; i < rowEnd; i++) {
+                        sum += frame.values[i];
+                    }
+                }
+                int index = (int) (sum / ((x1 - x0) * (y1 - y0))); // same as the floor for every temperature the palette covers
+                row[px] = palette[Math.max(0, Math.min(index, last))];
+            }
+            image.setRGB(0, py, width, 1, row, 0, width);
+        }
+        ImageIO.write(image, "png", target.resolve(String.format("frame-%08d.png", frame.iteration)).toFile());
+    }
+}
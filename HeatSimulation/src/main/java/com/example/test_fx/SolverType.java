@@ -0,0 +1,9 @@
+package com.example.test_fx;
+
+// numerical methods available to reach the steady state
+public enum SolverType {
+    JACOBI, // every cell becomes the average of its neighbours from the previous sweep
+    SOR, // red-black successive over-relaxation, updates the grid in place one colour at a time
+    MULTIGRID, // cycles over a hierarchy of coarser grids, the cost of reaching the steady state grows with the cell count
+    CONJUGATE_GRADIENT // preconditioned conjugate gradient on the linear system of the steady state
+}
@@ -0,0 +1,369 @@
+package com.example.test_fx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// steady states by superposition: the steady state is linear in the temperatures of the heat points, so for a fixed
+// layout of points it is the sum of one basis field per point, the steady state with that point at 1 degree and
+// every other one at 0, weighted by the temperatures; the basis fields are solved once per layout by multigrid on a
+// pool of threads and kept as floats, and any later set of temperatures costs one pass over the grid per point
+// instead of a solve
+//
+// the error of a sum is at most the error of the fields weighted by the sum of the absolute temperatures; a request
+// for a tighter sum than the cached fields give solves the layout again to a tighter tolerance, in double precision
+// once the rounding of the floats alone would take up half of what the sum may be off by
+//
+// the bases are kept by layout, the size of the grid and the cells of its heat points, and the least recently
+// used ones are dropped once they take more than the budget; the lock only guards that bookkeeping, so bases of
+// different layouts are solved at the same time and cached ones are returned while others are being solved, and
+// threads asking for a layout that is being solved wait for that solve
+public class SuperpositionCache {
+
+    public static final double DEFAULT_TOLERANCE = 1e-7; // largest change a further sweep would make to a basis field
+    // largest change a further sweep would make to a field of values in [0, 1] only because they were rounded to
+    // floats, two neighbours off by half a unit in the last place in the opposite direction of the cell
+    private static final double FLOAT_ERROR = 0x1p-24;
+    private static final int MAX_CYCLES = 1000; // multigrid cycles per basis field before giving up on the tolerance
+    private static final int CHUNK = 4096; // cells summed over every basis field at a time, the sums stay in cache
+
+    // sums use the vector kernel under the same conditions as the Jacobi sweeps
+    private static final boolean VECTOR = Grid.isVectorized();
+
+    // size of a grid and the cells of its heat points in row-major order
+    private static final class Layout {
+        final int width, height;
+        final int[] points; // y * width + x of every heat point
+        final int hash;
+
+        Layout(int width, int height, int[] points) {
+            this.width = width;
+            this.height = height;
+            this.points = points;
+            this.hash = 31 * (31 * width + height) + Arrays.hashCode(points);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Layout)) {
+                return false;
+            }
+            Layout other = (Layout) o;
+            return width == other.width && height == other.height && Arrays.equals(points, other.points);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // basis fields of one layout, immutable once solved so any number of threads can combine them
+    public static final class Basis {
+        private final Layout layout;
+        private final float[][] fields; // one per heat point in the order of the points, null in double precision
+        private final double[][] doubleFields; // the same in double precision, null in single precision
+        private final double tolerance; // the fields were solved to
+        private final int cycles; // multigrid cycles of all the fields
+
+        private Basis(Layout layout, float[][] fields, double[][] doubleFields, double tolerance, int cycles) {
+            this.layout = layout;
+            this.fields = fields;
+            this.doubleFields = doubleFields;
+            this.tolerance = tolerance;
+            this.cycles = cycles;
+        }
+
+        public int getSources() {
+            return layout.points.length;
+        }
+
+        // largest change a further sweep would make to any of the fields, with the rounding of single precision
+        public double getError() {
+            return tolerance + ((fields != null) ? FLOAT_ERROR : 0);
+        }
+
+        public boolean isSinglePrecision() {
+            return fields != null;
+        }
+
+        // multigrid cycles the basis was solved with, summed over its fields
+        public int getCycles() {
+            return cycles;
+        }
+
+        // heat points as y * width + x, in the order the temperatures are given in
+        public int[] getPoints() {
+            return layout.points.clone();
+        }
+
+        long bytes() {
+            return (long) getSources() * layout.width * layout.height * ((fields != null) ? Float.BYTES : Double.BYTES);
+        }
+
+        // writes the steady state for the given temperatures of the heat points into both buffers of the grid,
+        // which has to have the layout of the basis
+        public void combine(double[] temperatures, Grid grid) {
+            int sources = getSources();
+            if (temperatures.length != sources) {
+                throw new IllegalArgumentException("expected " + sources + " temperatures but got "
+                        + temperatures.length);
+            }
+            if (!layout.equals(layoutOf(grid))) {
+                throw new IllegalArgumentException("the grid does not have the heat points of the basis");
+            }
+            double[] sum = grid.current();
+            int cells = layout.width * layout.height;
+            for (int from = 0; from < cells; from += CHUNK) {
+                int to = Math.min(cells, from + CHUNK);
+                Arrays.fill(sum, from, to, 0);
+                for (int k = 0; k < sources; k++) {
+                    if (temperatures[k] == 0) {
+                        continue;
+                    }
+                    if (fields == null) {
+                        accumulate(sum, doubleFields[k], temperatures[k], from, to);
+                    } else if (VECTOR) {
+                        VectorSum.accumulate(sum, fields[k], temperatures[k], from, to);
+                    } else {
+                        accumulate(sum, fields[k], temperatures[k], from, to);
+                    }
+                }
+            }
+            // the heat points themselves get exactly their temperature, the float fields hold them to 7 digits
+            for (int k = 0; k < sources; k++) {
+                sum[layout.points[k]] = temperatures[k];
+            }
+            System.arraycopy(sum, 0, grid.next(), 0, cells);
+        }
+
+        // like combine, with the temperatures the heat points of the grid have now
+        public void combine(Grid grid) {
+            combine(temperaturesOf(grid, layout), grid);
+        }
+    }
+
+    private final long maxBytes; // budget of the cached basis fields
+    private final double tolerance;
+    private final ExecutorService pool; // solves the basis fields of every layout, as many at once as it has threads
+    private final Map<Layout, Basis> bases = new LinkedHashMap<>(16, 0.75f, true); // in order of last use
+    private final Map<Layout, CompletableFuture<Basis>> solving = new ConcurrentHashMap<>(); // not cached yet
+    private long bytes; // taken by the cached basis fields
+
+    public SuperpositionCache(long maxBytes, int threads, double tolerance) {
+        this.maxBytes = maxBytes;
+        this.tolerance = tolerance;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "heat-basis");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // the basis of the layout of the grid with fields solved to the tolerance of the cache, solved first if it is
+    // not cached
+    public Basis get(Grid grid) {
+        return get(grid, Double.POSITIVE_INFINITY);
+    }
+
+    // the basis of the layout of the grid whose sum for the temperatures the heat points have now changes by at most
+    // tolerance in a further sweep, solved first if no cached one is that accurate; a basis larger than the whole
+    // budget is returned without being kept; threads asking for the same layout wait for one solve
+    public Basis get(Grid grid, double tolerance) {
+        Layout layout = layoutOf(grid);
+        double error = fieldError(temperaturesOf(grid, layout), tolerance);
+        while (true) {
+            CompletableFuture<Basis> pending = solving.get(layout);
+            if (pending == null) {
+                // a finished solve is cached before it leaves the map, so a miss in both means none ran
+                Basis basis = cached(layout);
+                if (basis != null && basis.getError() <= error) {
+                    return basis;
+                }
+                CompletableFuture<Basis> created = new CompletableFuture<>();
+                pending = solving.putIfAbsent(layout, created);
+                if (pending == null) {
+                    return solve(layout, error, created);
+                }
+            }
+            try {
+                Basis basis = pending.join();
+                if (basis.getError() <= error) {
+                    return basis;
+                }
+                // solved for a looser tolerance, look again
+            } catch (CompletionException e) {
+                throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause()
+                        : new IllegalStateException("a basis field could not be solved", e.getCause());
+            }
+        }
+    }
+
+    // the cached basis of the layout of the grid that get would return for the tolerance, null if it has to be
+    // solved first
+    public Basis getCached(Grid grid, double tolerance) {
+        Layout layout = layoutOf(grid);
+        Basis basis = cached(layout);
+        boolean accurate = basis != null && basis.getError() <= fieldError(temperaturesOf(grid, layout), tolerance);
+        return accurate ? basis : null;
+    }
+
+    // largest error of the basis fields that keeps the sum for the temperatures within tolerance
+    private double fieldError(double[] temperatures, double tolerance) {
+        double weight = 0;
+        for (double temperature : temperatures) {
+            weight += Math.abs(temperature);
+        }
+        return (weight > 0) ? tolerance / weight : Double.POSITIVE_INFINITY;
+    }
+
+    // number of layouts cached and the bytes they take
+    public synchronized int size() {
+        return bases.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private synchronized Basis cached(Layout layout) {
+        return bases.get(layout);
+    }
+
+    // keeps the basis unless it alone is larger than the whole budget, dropping the least recently used ones
+    private synchronized void store(Layout layout, Basis basis) {
+        if (basis.bytes() > maxBytes) {
+            return;
+        }
+        Basis replaced = bases.put(layout, basis); // a basis of the layout solved to a looser tolerance
+        if (replaced != null) {
+            bytes -= replaced.bytes();
+        }
+        bytes += basis.bytes();
+        Iterator<Basis> eldest = bases.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().bytes();
+            eldest.remove();
+        }
+    }
+
+    // solves the basis for the threads waiting on the future, caches it and only then lets the next ones look again
+    private Basis solve(Layout layout, double error, CompletableFuture<Basis> pending) {
+        try {
+            Basis basis = solve(layout, error);
+            store(layout, basis);
+            pending.complete(basis);
+            return basis;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            solving.remove(layout, pending);
+        }
+    }
+
+    // solves the basis field of every heat point on the pool, each on a grid of its own, so that no field is off by
+    // more than error; half of it goes to the solve and half to the rounding, fields that cannot afford the
+    // rounding of floats are kept in double precision
+    private Basis solve(Layout layout, double error) {
+        if (layout.points.length == 0) {
+            throw new IllegalArgumentException("a grid without heat points has no basis");
+        }
+        double fieldTolerance = Math.min(tolerance, error / 2);
+        boolean single = FLOAT_ERROR <= error / 2;
+        List<Future<double[]>> solves = new ArrayList<>();
+        try {
+            int[] cycles = new int[layout.points.length];
+            for (int k = 0; k < layout.points.length; k++) {
+                int source = k;
+                solves.add(pool.submit(() -> solveField(layout, source, fieldTolerance, cycles)));
+            }
+            float[][] fields = single ? new float[layout.points.length][] : null;
+            double[][] doubleFields = single ? null : new double[layout.points.length][];
+            for (int k = 0; k < layout.points.length; k++) {
+                double[] field = solves.get(k).get();
+                if (single) {
+                    fields[k] = new float[field.length];
+                    for (int i = 0; i < field.length; i++) {
+                        fields[k][i] = (float) field[i];
+                    }
+                } else {
+                    doubleFields[k] = field;
+                }
+            }
+            return new Basis(layout, fields, doubleFields, fieldTolerance, Arrays.stream(cycles).sum());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while solving the basis", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("a basis field could not be solved", e.getCause());
+        } finally {
+            for (Future<double[]> solve : solves) {
+                solve.cancel(true); // the pool is shared, fields nobody waits for any more are not solved
+            }
+        }
+    }
+
+    // steady state with the given heat point at 1 degree and every other one at 0, its cycles go to cycles[source]
+    private double[] solveField(Layout layout, int source, double tolerance, int[] cycles) {
+        Grid grid = new Grid(layout.width, layout.height);
+        for (int k = 0; k < layout.points.length; k++) {
+            int point = layout.points[k];
+            grid.setFixed(point % layout.width, point / layout.width, (k == source) ? 1 : 0);
+        }
+        Simulation simulation = new Simulation(grid);
+        simulation.setSolver(SolverType.MULTIGRID);
+        cycles[source] = simulation.solve(tolerance, MAX_CYCLES);
+        return grid.current();
+    }
+
+    // temperatures of the heat points of the layout in the grid, in the order of the points
+    private static double[] temperaturesOf(Grid grid, Layout layout) {
+        double[] current = grid.current();
+        double[] temperatures = new double[layout.points.length];
+        for (int k = 0; k < temperatures.length; k++) {
+            temperatures[k] = current[layout.points[k]];
+        }
+        return temperatures;
+    }
+
+    private static Layout layoutOf(Grid grid) {
+        boolean[] fixed = grid.fixed();
+        int count = 0;
+        for (boolean point : fixed) {
+            if (point) {
+                count++;
+            }
+        }
+        int[] points = new int[count];
+        for (int i = 0, k = 0; k < count; i++) {
+            if (fixed[i]) {
+                points[k++] = i;
+            }
+        }
+        return new Layout(grid.width, grid.height, points);
+    }
+
+    // sum[i] += weight * field[i] for the cells [from, to)
+    private static void accumulate(double[] sum, float[] field, double weight, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sum[i] += weight * field[i];
+        }
+    }
+
+    private static void accumulate(double[] sum, double[] field, double weight, int from, int to) {
+        for (int i = from; i < to; i++) {
+            sum[i] += weight * field[i];
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.test_fx;
+
+// what the Jacobi and SOR sweeps, sequential or on the thread team, need from a grid; Grid keeps the cells in
+// arrays on the heap, OffHeapGrid in native or file-backed memory for grids too large for arrays
+public interface SweepGrid {
+
+    int width(); // number of cells in a row
+
+    int height(); // number of rows
+
+    double get(int x, int y);
+
+    boolean isFixed(int x, int y);
+
+    // marks a cell as a fixed heat point with the given temperature
+    void setFixed(int x, int y, double value);
+
+    // relaxes rows [startY, endY) and columns [startX, endX) from the current buffer into the next one and returns
+    // the largest temperature change
+    double relax(int startX, int endX, int startY, int endY);
+
+    // over-relaxes in place the cells of one colour of a checkerboard, (x + y) % 2 == color, in rows
+    // [startY, endY) and columns [startX, endX) and returns the largest temperature change
+    double relaxColor(int color, double omega, int startX, int endX, int startY, int endY);
+
+    // makes the buffer written by the last sweep the one read by the next sweep
+    void swap();
+
+    // root of the sum of squares of the change a Jacobi sweep would make to every free cell
+    double residualL2();
+
+    // relaxation factor for over-relaxation, estimated from the spectral radius of the Jacobi iteration
+    // on a grid of this size
+    default double estimateOmega() {
+        double rho = (Math.cos(Math.PI / width()) + Math.cos(Math.PI / height())) / 2;
+        return 2 / (1 + Math.sqrt(1 - rho * rho));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.test_fx;
+
+// Jacobi kernel with temporal blocking for grids larger than the cache: the grid is cut into tiles that each
+// advance several steps while they stay in cache; a tile works on a copy of itself and its surroundings that
+// shrinks by one cell per step (overlapped tiling), so the result is bit-identical to as many plain sweeps
+public class TiledJacobi {
+
+    private final Grid grid;
+    private final int tileWidth; // columns written by a tile
+    private final int tileHeight; // rows written by a tile
+    private final int steps; // Jacobi steps a tile advances before the next tile is loaded
+    private final int scratchStride; // row length of the scratch buffers, a tile plus its surroundings
+
+    public TiledJacobi(Grid grid, int tileWidth, int tileHeight, int steps) {
+        this.grid = grid;
+        this.tileWidth = Math.max(1, tileWidth);
+        this.tileHeight = Math.max(1, tileHeight);
+        this.steps = Math.max(1, steps);
+        this.scratchStride = this.tileWidth + 2 * this.steps;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    // two buffers large enough for any tile and its surroundings, every thread needs its own pair
+    public double[][] newScratch() {
+        int size = scratchStride * (tileHeight + 2 * steps);
+        return new double[][]{new double[size], new double[size]};
+    }
+
+    // advances rows [startY, endY) by the configured number of steps from the current buffer into the next one
+    // and returns the largest temperature change of the last step; rows outside the range are only read, so
+    // any split of the rows can be advanced in parallel before the grid swaps its buffers
+    public double advance(int startY, int endY, double[][] scratch) {
+        double maxDelta = 0;
+        for (int y0 = startY; y0 < endY; y0 += tileHeight) {
+            int y1 = Math.min(y0 + tileHeight, endY);
+            for (int x0 = 0; x0 < grid.width; x0 += tileWidth) {
+                int x1 = Math.min(x0 + tileWidth, grid.width);
+                maxDelta = Math.max(maxDelta, advanceTile(x0, x1, y0, y1, scratch));
+            }
+        }
+        return maxDelta;
+    }
+
+    // advances the cells of columns [x0, x1) and rows [y0, y1), returns the largest change of the last step
+    private double advanceTile(int x0, int x1, int y0, int y1, double[][] scratch) {
+        double[] current = grid.current();
+        int width = grid.width;
+        int height = grid.height;
+
+        // the tile and everything a cell of it can depend on within the steps, clipped to the grid
+        int left = Math.max(0, x0 - steps);
+        int right = Math.min(width, x1 + steps);
+        int top = Math.max(0, y0 - steps);
+        int bottom = Math.min(height, y1 + steps);
+
+        double[] src = scratch[0];
+        double[] dst = scratch[1];
+        for (int y = top; y < bottom; y++) {
+            System.arraycopy(current, y * width + left, src, (y - top) * scratchStride, right - left);
+        }
+
+        double maxDelta = 0;
+        for (int step = 1; step <= steps; step++) {
+            // cells further than this from the tile are not needed by the remaining steps
+            int reach = steps - step;
+            int startX = Math.max(left, x0 - reach);
+            int endX = Math.min(right, x1 + reach);
+            int startY = Math.max(top, y0 - reach);
+            int endY = Math.min(bottom, y1 + reach);
+            double delta = relax(src, dst, left, top, startX, endX, startY, endY);
+            if (step == steps) {
+                maxDelta = delta;
+            }
+            double[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+
+        double[] next = grid.next();
+        for (int y = y0; y < y1; y++) {
+            System.arraycopy(src, (y - top) * scratchStride + (x0 - left), next, y * width + x0, x1 - x0);
+        }
+        return maxDelta;
+    }
+
+    // one Jacobi step of global columns [startX, endX) and rows [startY, endY) between two scratch buffers whose
+    // first cell is global (left, top); mirrors Grid.relax operation for operation so the sums round the same way
+    private double relax(double[] src, double[] dst, int left, int top, int startX, int endX, int startY, int endY) {
+        boolean[] mask = grid.fixed();
+        int width = grid.width;
+        int lastX = width - 1;
+        int lastY = grid.height - 1;
+        int stride = scratchStride;
+        double maxDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            int row = (y - top) * stride - left; // scratch index of global column 0 in this row
+            int fixedRow = y * width;
+            boolean edgeRow = y == 0 || y == lastY;
+            int interiorStart = edgeRow ? endX : Math.max(startX, 1);
+            int interiorEnd = edgeRow ? endX : Math.min(endX, lastX);
+
+            int x = startX;
+            for (; x < interiorStart; x++) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, row + x, fixedRow + x, x, y));
+            }
+
+            // interior cells always have four neighbours
+            for (; x < interiorEnd; x++) {
+                int i = row + x;
+                if (mask[fixedRow + x]) {
+                    dst[i] = src[i]; // the scratch buffers are reused, so fixed points are carried along
+                    continue;
+                }
+                double newTemp = (src[i - 1] + src[i + 1] + src[i - stride] + src[i + stride]) * 0.25;
+                double delta = Math.abs(newTemp - src[i]);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+                dst[i] = newTemp;
+            }
+
+            for (; x < endX; x++) {
+                maxDelta = Math.max(maxDelta, relaxEdge(src, dst, row + x, fixedRow + x, x, y));
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relaxes a single cell on the border of the grid, i is its scratch index and cell its index in the grid,
+    // and returns its temperature change
+    private double relaxEdge(double[] src, double[] dst, int i, int cell, int x, int y) {
+        if (grid.fixed()[cell]) {
+            dst[i] = src[i];
+            return 0;
+        }
+        double newTemp = average(src, i, x, y);
+        dst[i] = newTemp;
+        return Math.abs(newTemp - src[i]);
+    }
+
+    // average of the neighbours of a cell on the border of the grid, summed in the order of Grid.average
+    private double average(double[] src, int i, int x, int y) {
+        double temp = 0;
+        int count = 0;
+
+        if (x > 0) {
+            temp += src[i - 1];
+            count++;
+        }
+        if (x < grid.width - 1) {
+            temp += src[i + 1];
+            count++;
+        }
+        if (y > 0) {
+            temp += src[i - scratchStride];
+            count++;
+        }
+        if (y < grid.height - 1) {
+            temp += src[i + scratchStride];
+            count++;
+        }
+
+        return temp / count;
+    }
+}
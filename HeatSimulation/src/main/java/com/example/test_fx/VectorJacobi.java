@@ -0,0 +1,71 @@
+package com.example.test_fx;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Jacobi sweep on the incubating vector API, Grid only loads it once it found the jdk.incubator.vector module;
+// every lane adds the same four neighbours in the same order as the scalar loop, so both give bit-identical grids
+final class VectorJacobi {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorJacobi() {
+    }
+
+    // doubles per vector on this machine, 1 means the hardware has nothing to gain over the scalar loop
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    // relaxes rows [startY, endY) and columns [startX, endX) like Grid.relax; the interior of every inner row
+    // runs without branches a vector at a time, the borders of the grid and the tail of each row run scalar
+    static double relax(Grid grid, int startX, int endX, int startY, int endY) {
+        double[] src = grid.current();
+        double[] dst = grid.next();
+        boolean[] mask = grid.fixed();
+        int stride = grid.stride;
+        int lastX = grid.width - 1;
+        int lastY = grid.height - 1;
+        int lanes = SPECIES.length();
+        DoubleVector maxDelta = DoubleVector.zero(SPECIES);
+        double scalarDelta = 0;
+
+        for (int y = startY; y < endY; y++) {
+            if (y == 0 || y == lastY) {
+                scalarDelta = Math.max(scalarDelta, grid.relaxScalar(startX, endX, y, y + 1));
+                continue;
+            }
+
+            int x = startX;
+            if (x == 0 && x < endX) {
+                scalarDelta = Math.max(scalarDelta, grid.relaxScalar(0, 1, y, y + 1));
+                x = 1;
+            }
+
+            int row = y * stride;
+            int interiorEnd = Math.min(endX, lastX);
+            for (; x + lanes <= interiorEnd; x += lanes) {
+                int i = row + x;
+                DoubleVector center = DoubleVector.fromArray(SPECIES, src, i);
+                DoubleVector newTemp = DoubleVector.fromArray(SPECIES, src, i - 1)
+                        .add(DoubleVector.fromArray(SPECIES, src, i + 1))
+                        .add(DoubleVector.fromArray(SPECIES, src, i - stride))
+                        .add(DoubleVector.fromArray(SPECIES, src, i + stride))
+                        .mul(0.25);
+                // fixed points keep their value, which both buffers already hold
+                VectorMask<Double> fixed = VectorMask.fromArray(SPECIES, mask, i);
+                newTemp = newTemp.blend(center, fixed);
+                maxDelta = maxDelta.max(newTemp.sub(center).abs());
+                newTemp.intoArray(dst, i);
+            }
+
+            if (x < endX) {
+                scalarDelta = Math.max(scalarDelta, grid.relaxScalar(x, endX, y, y + 1));
+            }
+        }
+
+        return Math.max(scalarDelta, maxDelta.reduceLanes(VectorOperators.MAX));
+    }
+}
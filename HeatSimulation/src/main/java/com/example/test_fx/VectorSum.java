@@ -0,0 +1,35 @@
+package com.example.test_fx;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// weighted sums of the float basis fields of SuperpositionCache on the incubating vector API, only loaded once
+// Grid found the jdk.incubator.vector module; every lane widens, multiplies and adds like the scalar loop, so both
+// give the same sums
+final class VectorSum {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // as many floats as there are doubles in a vector, half its width
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class,
+            VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private VectorSum() {
+    }
+
+    // sum[i] += weight * field[i] for the cells [from, to)
+    static void accumulate(double[] sum, float[] field, double weight, int from, int to) {
+        int lanes = DOUBLES.length();
+        int i = from;
+        for (; i + lanes <= to; i += lanes) {
+            DoubleVector widened = (DoubleVector) FloatVector.fromArray(FLOATS, field, i)
+                    .convertShape(VectorOperators.F2D, DOUBLES, 0);
+            DoubleVector.fromArray(DOUBLES, sum, i).add(widened.mul(weight)).intoArray(sum, i);
+        }
+        for (; i < to; i++) {
+            sum[i] += weight * field[i];
+        }
+    }
+}
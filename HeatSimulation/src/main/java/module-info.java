@@ -3,6 +3,11 @@ module com.example.test_fx {
     requires javafx.fxml;
     requires javafx.graphics;
     requires java.desktop;
+    requires jdk.jfr; // per-iteration flight recorder events
+    requires jdk.management; // allocation counters of the solver thread
+    requires jdk.httpserver; // jobs of SimulationServer
+    requires static jdk.incubator.vector; // optional, the Jacobi kernel falls back to scalar code without it
+    requires static jdk.incubator.foreign; // optional, only grids outside the heap need it
 
 
     opens com.example.test_fx to javafx.fxml;
@@ -0,0 +1,89 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// skipping the tiles that settled must not change where a solve ends up: a run with active tiles has to converge
+// to the field of a run that sweeps every cell, and may only stop where a sweep of every cell would
+class ActiveTilesTest {
+
+    private static final int MAX_ITERATIONS = 200_000;
+
+    private static Simulation simulation(int width, int height, int points, SolverType solver, int activeTiles,
+                                         double tolerance, boolean parallel) {
+        Simulation simulation = new Simulation(Simulation.createGrid(width, height, points, Simulation.DEFAULT_SEED));
+        simulation.setSolver(solver);
+        simulation.setParallel(parallel, 4, 8);
+        simulation.setActiveTiles(activeTiles, tolerance / 10); // a tenth of the tolerance like BatchRunner
+        return simulation;
+    }
+
+    private static double maxDifference(Grid a, Grid b) {
+        double max = 0;
+        for (int y = 0; y < a.height; y++) {
+            for (int x = 0; x < a.width; x++) {
+                max = Math.max(max, Math.abs(a.get(x, y) - b.get(x, y)));
+            }
+        }
+        return max;
+    }
+
+    // solves a small grid once sweeping every cell and once with active tiles, then adds a heat point and solves
+    // both again from where they stopped, which only wakes the tiles around the edit
+    private static void assertSameField(SolverType solver, boolean parallel) {
+        double tolerance = 1e-4;
+        Simulation full = simulation(64, 48, 3, solver, 0, tolerance, parallel);
+        Simulation active = simulation(64, 48, 3, solver, 8, tolerance, parallel);
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) {
+                full.setHeatPoint(20, 30, 250);
+                active.setHeatPoint(20, 30, 250);
+            }
+            full.solve(tolerance, MAX_ITERATIONS);
+            active.solve(tolerance, MAX_ITERATIONS);
+            double difference = maxDifference(full.getGrid(), active.getGrid());
+            assertTrue(difference <= tolerance, "round " + round + " ends " + difference + " from the full sweeps");
+        }
+    }
+
+    // solves a large grid with few heat points to a loose tolerance, where most of the grid is skipped for most of
+    // the run; the run has to go on until a sweep of every cell changes none by more than the tolerance
+    private static void assertSettledGrid(boolean parallel) {
+        double tolerance = 0.01;
+        Simulation full = simulation(200, 150, 4, SolverType.JACOBI, 0, tolerance, parallel);
+        Simulation active = simulation(200, 150, 4, SolverType.JACOBI, 16, tolerance, parallel);
+        full.solve(tolerance, MAX_ITERATIONS);
+        active.solve(tolerance, MAX_ITERATIONS);
+        assertTrue(active.getCellUpdates() < full.getCellUpdates() * 0.9,
+                active.getCellUpdates() + " cell updates against " + full.getCellUpdates() + " of the full sweeps");
+        Grid grid = active.getGrid();
+        double maxDelta = grid.relax(0, grid.width, 0, grid.height);
+        assertTrue(maxDelta <= tolerance, "a further sweep of every cell still changes one by " + maxDelta);
+    }
+
+    @Test
+    void jacobiConvergesToFullSweep() {
+        assertSameField(SolverType.JACOBI, false);
+    }
+
+    @Test
+    void jacobiOnThreadTeamConvergesToFullSweep() {
+        assertSameField(SolverType.JACOBI, true);
+    }
+
+    @Test
+    void sorConvergesToFullSweep() {
+        assertSameField(SolverType.SOR, false);
+    }
+
+    @Test
+    void jacobiStopsOnlyOnceEveryCellSettled() {
+        assertSettledGrid(false);
+    }
+
+    @Test
+    void jacobiOnThreadTeamStopsOnlyOnceEveryCellSettled() {
+        assertSettledGrid(true);
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// a checkpoint has to give back the grid it was written from bit for bit, whatever the number of cells in the bitmap
+class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    // random temperatures and random fixed points
+    private static Grid randomGrid(int width, int height, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new Grid(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(5) == 0) {
+                    grid.setFixed(x, y, 100 * random.nextDouble());
+                } else {
+                    grid.set(x, y, 100 * random.nextDouble());
+                }
+            }
+        }
+        return grid;
+    }
+
+    private void assertRoundTrip(int width, int height) throws IOException {
+        Grid grid = randomGrid(width, height, 31L * width + height);
+        Path file = directory.resolve("grid.ckpt");
+        Checkpoint.write(file, grid, 1234, 89211208, "JACOBI");
+
+        Checkpoint checkpoint = Checkpoint.read(file);
+        String name = width + "x" + height;
+        assertEquals(width, checkpoint.grid.width, name);
+        assertEquals(height, checkpoint.grid.height, name);
+        assertEquals(1234, checkpoint.iteration, name);
+        assertEquals(89211208, checkpoint.seed, name);
+        assertEquals("JACOBI", checkpoint.solver, name);
+        assertArrayEquals(grid.fixed(), checkpoint.grid.fixed(), name);
+        assertArrayEquals(grid.current(), checkpoint.grid.current(), name);
+        assertArrayEquals(grid.current(), checkpoint.grid.next(), name);
+        assertFalse(Files.exists(directory.resolve("grid.ckpt.tmp")), name);
+    }
+
+    @Test
+    void oddSizesRoundTrip() throws IOException {
+        for (int width = 1; width <= 19; width += 2) {
+            for (int height = 1; height <= 5; height++) {
+                assertRoundTrip(width, height);
+            }
+        }
+        assertRoundTrip(37, 23);
+        assertRoundTrip(64, 64);
+    }
+
+    @Test
+    void temperaturesStartAfterThePaddedBitmap() throws IOException {
+        for (int cells = 1; cells <= 200; cells++) {
+            long bitmapBytes = (cells + 7) / 8;
+            long offset = Checkpoint.temperatureOffset(cells);
+            assertEquals(0, offset % 8, "cells " + cells);
+            assertEquals(Checkpoint.HEADER_BYTES + bitmapBytes + (8 - bitmapBytes % 8) % 8, offset, "cells " + cells);
+        }
+
+        // 7 x 11 cells need 10 bytes of bitmap, the temperatures start at 64 + 16
+        Grid grid = randomGrid(7, 11, 2);
+        Path file = directory.resolve("grid.ckpt");
+        Checkpoint.write(file, grid, 0, 0, "SOR");
+        assertEquals(80, Checkpoint.temperatureOffset(77));
+        assertEquals(80 + 8 * 77, Files.size(file));
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        boolean[] fixed = grid.fixed();
+        for (int i = 0; i < 77; i++) {
+            assertEquals(fixed[i], (bytes.get(64 + i / 8) & (1 << (i % 8))) != 0, "bit " + i);
+            assertEquals(grid.current()[i], bytes.getDouble(80 + 8 * i), "cell " + i);
+        }
+        for (int i = 64 + 10; i < 80; i++) {
+            assertEquals(0, bytes.get(i), "padding byte " + i);
+        }
+    }
+
+    @Test
+    void truncatedCheckpointIsRejected() throws IOException {
+        Path file = directory.resolve("grid.ckpt");
+        Checkpoint.write(file, randomGrid(9, 7, 3), 0, 0, "CG");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 8);
+        }
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+
+        Files.write(file, new byte[Checkpoint.HEADER_BYTES]);
+        assertThrows(IOException.class, () -> Checkpoint.read(file));
+    }
+}
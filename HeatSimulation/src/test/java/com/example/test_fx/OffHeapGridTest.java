@@ -0,0 +1,125 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// the off-heap grid has to hold what it was given and sweep to the temperatures of Grid bit for bit, also where the
+// bits of the fixed-point mask do not line up with the rows
+class OffHeapGridTest {
+
+    @TempDir
+    Path directory;
+
+    private static void assumeForeignModule() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent(),
+                "needs --add-modules jdk.incubator.foreign");
+    }
+
+    // random temperatures and random fixed points, the same in both grids
+    private static void fill(Grid grid, OffHeapGrid offHeap, long seed) {
+        Random random = new Random(seed);
+        for (int y = 0; y < grid.height; y++) {
+            for (int x = 0; x < grid.width; x++) {
+                double value = 100 * random.nextDouble();
+                if (random.nextInt(10) == 0) {
+                    grid.setFixed(x, y, value);
+                    offHeap.setFixed(x, y, value);
+                } else {
+                    grid.set(x, y, value);
+                    offHeap.set(x, y, value);
+                }
+            }
+        }
+    }
+
+    private static void assertSameCells(Grid grid, OffHeapGrid offHeap, String message) {
+        for (int y = 0; y < grid.height; y++) {
+            for (int x = 0; x < grid.width; x++) {
+                assertEquals(grid.isFixed(x, y), offHeap.isFixed(x, y), message + ", fixed point " + x + "," + y);
+                assertEquals(grid.get(x, y), offHeap.get(x, y), 0, message + ", cell " + x + "," + y);
+            }
+        }
+    }
+
+    // Jacobi and then red-black sweeps of the region in both grids
+    private static void assertSameSweeps(int width, int height, int startX, int endX, int startY, int endY)
+            throws Exception {
+        Grid grid = new Grid(width, height);
+        try (OffHeapGrid offHeap = new OffHeapGrid(width, height, null)) {
+            fill(grid, offHeap, 31L * width + height);
+            for (int sweep = 0; sweep < 3; sweep++) {
+                double delta = grid.relax(startX, endX, startY, endY);
+                double offHeapDelta = offHeap.relax(startX, endX, startY, endY);
+                assertEquals(delta, offHeapDelta, 0, "largest change of sweep " + sweep);
+                grid.swap();
+                offHeap.swap();
+                assertSameCells(grid, offHeap, "grid after sweep " + sweep);
+            }
+            double omega = grid.estimateOmega();
+            for (int sweep = 0; sweep < 3; sweep++) {
+                for (int color = 0; color < 2; color++) {
+                    double delta = grid.relaxColor(color, omega, startX, endX, startY, endY);
+                    double offHeapDelta = offHeap.relaxColor(color, omega, startX, endX, startY, endY);
+                    assertEquals(delta, offHeapDelta, 0, "largest change of colour " + color + " in sweep " + sweep);
+                }
+                assertSameCells(grid, offHeap, "grid after over-relaxed sweep " + sweep);
+            }
+            assertEquals(grid.residualL2(), offHeap.residualL2(), 0, "residual");
+        }
+    }
+
+    @Test
+    void nativeGridKeepsCells() throws Exception {
+        assumeForeignModule();
+        Grid grid = new Grid(67, 9);
+        try (OffHeapGrid offHeap = new OffHeapGrid(67, 9, null)) {
+            fill(grid, offHeap, 7);
+            assertEquals(67L * 9, offHeap.cells());
+            assertSameCells(grid, offHeap, "native grid");
+            offHeap.swap(); // set and setFixed write both buffers
+            assertSameCells(grid, offHeap, "native grid after a swap");
+        }
+    }
+
+    @Test
+    void mappedGridKeepsCells() throws Exception {
+        assumeForeignModule();
+        Grid grid = new Grid(131, 5);
+        try (OffHeapGrid offHeap = new OffHeapGrid(131, 5, directory.resolve("grid.bin"))) {
+            fill(grid, offHeap, 11);
+            assertSameCells(grid, offHeap, "mapped grid");
+            offHeap.swap();
+            assertSameCells(grid, offHeap, "mapped grid after a swap");
+        }
+    }
+
+    @Test
+    void wholeGridMatchesGrid() throws Exception {
+        assumeForeignModule();
+        assertSameSweeps(80, 60, 0, 80, 0, 60);
+    }
+
+    @Test
+    void widthsAcrossMaskWordsMatchGrid() throws Exception {
+        assumeForeignModule();
+        // rows that start at every offset within a word of the mask
+        for (int width : new int[]{3, 63, 65, 97, 129}) {
+            assertSameSweeps(width, 11, 0, width, 0, 11);
+        }
+    }
+
+    @Test
+    void bandsAndTilesMatchGrid() throws Exception {
+        assumeForeignModule();
+        assertSameSweeps(97, 53, 0, 97, 16, 32); // a band of rows like ParallelEngine sweeps
+        assertSameSweeps(97, 53, 5, 38, 0, 53); // a tile that starts inside a row
+        assertSameSweeps(97, 53, 64, 97, 40, 53); // the bottom right corner
+        assertSameSweeps(65, 17, 1, 64, 1, 16); // a tile that leaves out the border on every side
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// a weighted sum of basis fields has to be the steady state a direct solve finds, and the cache has to keep the
+// least recently used layouts within its budget and count the bytes of what it keeps
+class SuperpositionCacheTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int POINTS = 3;
+    private static final long FLOAT_BASIS = (long) POINTS * WIDTH * HEIGHT * Float.BYTES;
+    private static final long DOUBLE_BASIS = 2 * FLOAT_BASIS;
+
+    // heat points of the seed at random temperatures between -50 and 150
+    private static Grid grid(int width, int height, int points, long seed) {
+        Grid grid = Simulation.createGrid(width, height, points, seed);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (grid.isFixed(x, y)) {
+                    grid.setFixed(x, y, 200 * random.nextDouble() - 50);
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static double maxDifference(Grid a, Grid b) {
+        double max = 0;
+        for (int y = 0; y < a.height; y++) {
+            for (int x = 0; x < a.width; x++) {
+                max = Math.max(max, Math.abs(a.get(x, y) - b.get(x, y)));
+            }
+        }
+        return max;
+    }
+
+    private static Simulation multigrid(double tolerance) {
+        Simulation simulation = new Simulation(grid(90, 70, 5, 7));
+        simulation.setSolver(SolverType.MULTIGRID);
+        simulation.solve(tolerance, 1000);
+        return simulation;
+    }
+
+    // combines the basis for the tolerance and checks the sum against multigrid solves of the same grid: it has to
+    // be as settled as the tolerance asks for, and at least as close to the steady state as a solve to it
+    private static void assertMatchesSolve(double tolerance, boolean singlePrecision) {
+        SuperpositionCache cache = new SuperpositionCache(1 << 24, 2, SuperpositionCache.DEFAULT_TOLERANCE);
+        Grid combined = grid(90, 70, 5, 7);
+        SuperpositionCache.Basis basis = cache.get(combined, tolerance);
+        assertEquals(singlePrecision, basis.isSinglePrecision(), "precision of the fields for " + tolerance);
+        basis.combine(combined);
+
+        Grid steady = multigrid(1e-11).getGrid();
+        double solveError = maxDifference(steady, multigrid(tolerance).getGrid());
+        double sumError = maxDifference(steady, combined);
+        assertTrue(sumError <= solveError, "the sum is " + sumError + " off, a solve to " + tolerance + " only "
+                + solveError);
+
+        double maxDelta = combined.relax(0, combined.width, 0, combined.height);
+        assertTrue(maxDelta <= tolerance, "a further sweep still changes a cell by " + maxDelta);
+    }
+
+    @Test
+    void floatFieldsMatchMultigrid() {
+        assertMatchesSolve(1e-3, true);
+    }
+
+    @Test
+    void doubleFieldsMatchMultigridToTighterTolerance() {
+        assertMatchesSolve(1e-6, false);
+        assertMatchesSolve(1e-9, false);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedLayout() {
+        SuperpositionCache cache = new SuperpositionCache(3 * FLOAT_BASIS, 1, SuperpositionCache.DEFAULT_TOLERANCE);
+        Grid a = grid(WIDTH, HEIGHT, POINTS, 1);
+        Grid b = grid(WIDTH, HEIGHT, POINTS, 2);
+        Grid c = grid(WIDTH, HEIGHT, POINTS, 3);
+        Grid d = grid(WIDTH, HEIGHT, POINTS, 4);
+        SuperpositionCache.Basis basisA = cache.get(a);
+        cache.get(b);
+        cache.get(c);
+        assertEquals(3, cache.size());
+        assertEquals(3 * FLOAT_BASIS, cache.getBytes());
+
+        assertSame(basisA, cache.get(a)); // a is now used more recently than b
+        cache.get(d);
+        assertEquals(3, cache.size());
+        assertEquals(3 * FLOAT_BASIS, cache.getBytes());
+        assertNull(cache.getCached(b, Double.POSITIVE_INFINITY), "the least recently used layout is dropped");
+        assertNotNull(cache.getCached(a, Double.POSITIVE_INFINITY));
+        assertNotNull(cache.getCached(c, Double.POSITIVE_INFINITY));
+        assertNotNull(cache.getCached(d, Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void tighterBasisReplacesLooserOne() {
+        SuperpositionCache cache = new SuperpositionCache(3 * FLOAT_BASIS, 1, SuperpositionCache.DEFAULT_TOLERANCE);
+        Grid a = grid(WIDTH, HEIGHT, POINTS, 1);
+        Grid c = grid(WIDTH, HEIGHT, POINTS, 3);
+        Grid d = grid(WIDTH, HEIGHT, POINTS, 4);
+        cache.get(c);
+        cache.get(d);
+        cache.get(a);
+        assertNull(cache.getCached(a, 1e-9), "float fields are not accurate enough for 1e-9");
+
+        // the double fields of a take the place of its float ones, which leaves no room for c
+        SuperpositionCache.Basis tight = cache.get(a, 1e-9);
+        assertFalse(tight.isSinglePrecision());
+        assertEquals(2, cache.size());
+        assertEquals(FLOAT_BASIS + DOUBLE_BASIS, cache.getBytes());
+        assertNull(cache.getCached(c, Double.POSITIVE_INFINITY));
+        assertSame(tight, cache.getCached(a, 1e-9));
+        assertSame(tight, cache.get(a), "a tighter basis also serves looser requests");
+    }
+
+    @Test
+    void basisLargerThanBudgetIsNotKept() {
+        SuperpositionCache cache = new SuperpositionCache(FLOAT_BASIS - 1, 1, SuperpositionCache.DEFAULT_TOLERANCE);
+        Grid grid = grid(WIDTH, HEIGHT, POINTS, 1);
+        assertNotNull(cache.get(grid));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+}
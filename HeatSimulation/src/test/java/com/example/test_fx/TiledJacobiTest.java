@@ -0,0 +1,78 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// a tiled advance over several steps has to give the grids of as many plain sweeps bit for bit, whether or not the
+// tiles divide the grid and however the rows are split between threads
+class TiledJacobiTest {
+
+    // random temperatures, random fixed points and the same values in both buffers
+    private static Grid randomGrid(int width, int height, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new Grid(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(10) == 0) {
+                    grid.setFixed(x, y, 100 * random.nextDouble());
+                } else {
+                    grid.set(x, y, 100 * random.nextDouble());
+                }
+            }
+        }
+        return grid;
+    }
+
+    // advances the grid by rounds of steps in the given bands of rows and checks it against plain sweeps
+    private static void assertSameSweeps(int width, int height, int tileWidth, int tileHeight, int steps,
+                                         int... bands) {
+        Grid plain = randomGrid(width, height, 31L * width + height);
+        Grid tiled = randomGrid(width, height, 31L * width + height);
+        TiledJacobi jacobi = new TiledJacobi(tiled, tileWidth, tileHeight, steps);
+        double[][] scratch = jacobi.newScratch();
+        for (int round = 0; round < 3; round++) {
+            double plainDelta = 0;
+            for (int step = 0; step < steps; step++) {
+                plainDelta = plain.relax(0, width, 0, height);
+                plain.swap();
+            }
+            double tiledDelta = 0;
+            int startY = 0;
+            for (int endY : bands) {
+                tiledDelta = Math.max(tiledDelta, jacobi.advance(startY, endY, scratch));
+                startY = endY;
+            }
+            tiled.swap();
+            assertEquals(plainDelta, tiledDelta, 0, "largest change of the last step of round " + round);
+            assertArrayEquals(plain.current(), tiled.current(), 0, "grid after round " + round);
+        }
+    }
+
+    @Test
+    void singleStepMatchesSweep() {
+        assertSameSweeps(40, 30, 16, 8, 1, 30);
+    }
+
+    @Test
+    void tilesThatDoNotDivideTheGrid() {
+        assertSameSweeps(97, 53, 16, 8, 4, 53);
+        assertSameSweeps(97, 53, 13, 7, 3, 53);
+        assertSameSweeps(50, 41, 64, 64, 5, 41); // one tile larger than the grid
+    }
+
+    @Test
+    void stepsReachingPastTheTile() {
+        // the surroundings of a tile are wider than the tile itself
+        assertSameSweeps(61, 37, 3, 2, 6, 37);
+    }
+
+    @Test
+    void bandsOfRowsMatchSweep() {
+        // bands like ParallelEngine hands to its threads, none of them a multiple of the tile height
+        assertSameSweeps(97, 53, 16, 8, 4, 11, 30, 31, 53);
+    }
+}
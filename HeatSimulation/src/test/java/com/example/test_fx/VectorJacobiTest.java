@@ -0,0 +1,70 @@
+package com.example.test_fx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// the vector kernel has to give the scalar loop's grids bit for bit, whatever the vector width and the region swept
+class VectorJacobiTest {
+
+    private static void assumeVectorModule() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "needs --add-modules jdk.incubator.vector");
+    }
+
+    // random temperatures, random fixed points and the same values in both buffers
+    private static Grid randomGrid(int width, int height, long seed) {
+        Random random = new Random(seed);
+        Grid grid = new Grid(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(10) == 0) {
+                    grid.setFixed(x, y, 100 * random.nextDouble());
+                } else {
+                    grid.set(x, y, 100 * random.nextDouble());
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static void assertSameSweeps(int width, int height, int startX, int endX, int startY, int endY) {
+        Grid scalar = randomGrid(width, height, 31L * width + height);
+        Grid vector = randomGrid(width, height, 31L * width + height);
+        for (int sweep = 0; sweep < 5; sweep++) {
+            double scalarDelta = scalar.relaxScalar(startX, endX, startY, endY);
+            double vectorDelta = VectorJacobi.relax(vector, startX, endX, startY, endY);
+            assertEquals(scalarDelta, vectorDelta, 0, "largest change of sweep " + sweep);
+            assertArrayEquals(scalar.next(), vector.next(), 0, "grid after sweep " + sweep);
+            scalar.swap();
+            vector.swap();
+        }
+    }
+
+    @Test
+    void wholeGridMatchesScalarSweep() {
+        assumeVectorModule();
+        assertSameSweeps(80, 60, 0, 80, 0, 60);
+    }
+
+    @Test
+    void oddSizesMatchScalarSweep() {
+        assumeVectorModule();
+        // widths that leave a scalar tail of every length behind the vectors
+        for (int width = 3; width <= 21; width++) {
+            assertSameSweeps(width, 7, 0, width, 0, 7);
+        }
+    }
+
+    @Test
+    void bandsAndTilesMatchScalarSweep() {
+        assumeVectorModule();
+        assertSameSweeps(97, 53, 0, 97, 16, 32); // a band of rows like ParallelEngine sweeps
+        assertSameSweeps(97, 53, 5, 38, 0, 53); // a tile that starts inside a row
+        assertSameSweeps(97, 53, 64, 97, 40, 53); // the bottom right corner
+    }
+}
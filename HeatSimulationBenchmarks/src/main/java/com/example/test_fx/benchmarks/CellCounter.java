@@ -0,0 +1,20 @@
+package com.example.test_fx.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// cell updates done by a benchmark, reported by JMH as cells per second next to the operations per second
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class CellCounter {
+
+    public long cells;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        cells = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.test_fx.benchmarks;
+
+import com.example.test_fx.Grid;
+import com.example.test_fx.ParallelEngine;
+import com.example.test_fx.Simulation;
+import com.example.test_fx.SolverType;
+import com.example.test_fx.TiledJacobi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// one sweep of the thread team that replaced the ComputeTask fork/join sweep, including the barrier that ends it;
+// bandRows is the smallest band worth a thread and takes the place of the old task THRESHOLD
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector") // lets Grid pick the vector kernel
+@State(Scope.Benchmark)
+public class ParallelBenchmark {
+
+    @Param({"800x600", "4000x3000"})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"4", "16", "64"})
+    public int bandRows;
+
+    @Param({"JACOBI", "SOR"})
+    public SolverType solver;
+
+    @Param({"1"})
+    public int tileSteps;
+
+    @Param({"256x64"})
+    public String tileSize;
+
+    private ParallelEngine engine;
+    private long cells;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] gridSize = BenchmarkMain.parseSize(size);
+        int[] tile = BenchmarkMain.parseSize(tileSize);
+        Grid grid = Simulation.createGrid(gridSize[0], gridSize[1], 10, Simulation.DEFAULT_SEED);
+        TiledJacobi tiles = (solver == SolverType.JACOBI && tileSteps > 1)
+                ? new TiledJacobi(grid, tile[0], tile[1], tileSteps) : null;
+        engine = new ParallelEngine(grid, threads, bandRows, solver, grid.estimateOmega(), tiles);
+        cells = (long) gridSize[0] * gridSize[1];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public double sweep(CellCounter counter) {
+        // a negative threshold never counts as stable, so every run is exactly one iteration
+        int steps = engine.run(-1, 1);
+        counter.cells += cells * steps;
+        return engine.getLastDelta();
+    }
+}
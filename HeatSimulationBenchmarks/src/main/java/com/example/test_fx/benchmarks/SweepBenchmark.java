@@ -0,0 +1,62 @@
+package com.example.test_fx.benchmarks;
+
+import com.example.test_fx.Simulation;
+import com.example.test_fx.SolverType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// one full sequential sweep of every solver, a cycle for multigrid and an iteration for conjugate gradient;
+// tileSteps above 1 measures the temporally blocked Jacobi kernel, e.g. -p tileSteps=4,8 -p tileSize=128x32,256x64
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector") // lets Grid pick the vector kernel
+@State(Scope.Benchmark)
+public class SweepBenchmark {
+
+    @Param({"80x60", "800x600", "4000x3000"})
+    public String size;
+
+    @Param({"JACOBI", "SOR", "MULTIGRID", "CONJUGATE_GRADIENT"})
+    public SolverType solver;
+
+    @Param({"1"})
+    public int tileSteps;
+
+    @Param({"256x64"})
+    public String tileSize;
+
+    private Simulation simulation;
+    private long cellsPerSweep;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] cells = BenchmarkMain.parseSize(size);
+        int[] tile = BenchmarkMain.parseSize(tileSize);
+        simulation = new Simulation(Simulation.createGrid(cells[0], cells[1], 10, Simulation.DEFAULT_SEED));
+        simulation.setSolver(solver);
+        simulation.setTiles(tileSteps, tile[0], tile[1]);
+        // a tiled Jacobi sweep advances every cell by several steps
+        int steps = (solver == SolverType.JACOBI) ? tileSteps : 1;
+        cellsPerSweep = (long) cells[0] * cells[1] * steps;
+    }
+
+    @Benchmark
+    public double sweep(CellCounter counter) {
+        counter.cells += cellsPerSweep;
+        return simulation.sweep();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.test_fx.benchmarks;
+
+import com.example.test_fx.HeatSimulation;
+import com.example.test_fx.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// HeatSimulation.calculateTemperature for every cell of the grid, the per-cell entry point without the sweep loop
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemperatureBenchmark {
+
+    @Param({"80x60", "800x600", "4000x3000"})
+    public String size;
+
+    private int width, height;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] cells = BenchmarkMain.parseSize(size);
+        width = cells[0];
+        height = cells[1];
+        HeatSimulation.grid = Simulation.createGrid(width, height, 10, Simulation.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public double calculateTemperature(CellCounter counter) {
+        double sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sum += HeatSimulation.calculateTemperature(x, y);
+            }
+        }
+        counter.cells += (long) width * height;
+        return sum;
+    }
+}
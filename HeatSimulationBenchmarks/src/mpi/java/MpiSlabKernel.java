@@ -0,0 +1,45 @@
+import com.example.test_fx.benchmarks.SlabKernel;
+import mpi.Cartcomm;
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.util.Random;
+
+// a single process owning the whole grid as one block, swept by a WorkerTeam exactly like a Jacobi iteration of Main
+public class MpiSlabKernel implements SlabKernel {
+
+    private final Block block;
+    private final WorkerTeam team;
+
+    public MpiSlabKernel(String[] args, int width, int height, int threads) throws MPIException {
+        MPI.Init(args);
+        Cartcomm cart = MPI.COMM_WORLD.Create_cart(new int[]{1, 1}, new boolean[]{false, false}, false);
+        block = new Block(cart, width, height, Block.partition(height, 1), Block.partition(width, 1));
+
+        // the heat points of Main.initialize
+        double[] temperatures = new double[width * height];
+        boolean[] fixedPoints = new boolean[width * height];
+        Random rand = new Random(89211208);
+        for (int i = 0; i < 10; i++) {
+            int x = rand.nextInt(width);
+            int y = rand.nextInt(height);
+            temperatures[x + y * width] = 100;
+            fixedPoints[x + y * width] = true;
+        }
+        block.scatter(temperatures, fixedPoints);
+        team = new WorkerTeam(threads);
+    }
+
+    @Override
+    public double sweep() throws MPIException {
+        double delta = team.sweep(block);
+        block.swap();
+        return delta;
+    }
+
+    @Override
+    public void close() throws MPIException {
+        team.shutdown();
+        MPI.Finalize();
+    }
+}
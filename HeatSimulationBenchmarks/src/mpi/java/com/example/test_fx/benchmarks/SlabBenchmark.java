@@ -0,0 +1,59 @@
+package com.example.test_fx.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// one Jacobi sweep of the MPI block kernel and its worker team in a single process; the whole grid is one block
+// and every halo goes to MPI.PROC_NULL, so it measures the kernel without the network; MPI.Init gets the
+// arguments mpjrun would pass a single process, set them with -jvmArgsAppend -Dmpj.args="..."
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SlabBenchmark {
+
+    @Param({"800x600", "4000x3000"})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private SlabKernel kernel;
+    private long cells;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int[] gridSize = BenchmarkMain.parseSize(size);
+        String args = System.getProperty("mpj.args", "").trim();
+        kernel = (SlabKernel) Class.forName("MpiSlabKernel")
+                .getConstructor(String[].class, int.class, int.class, int.class)
+                .newInstance(args.isEmpty() ? new String[0] : args.split("\\s+"), gridSize[0], gridSize[1], threads);
+        cells = (long) gridSize[0] * gridSize[1];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        kernel.close();
+    }
+
+    @Benchmark
+    public double sweep(CellCounter counter) throws Exception {
+        counter.cells += cells;
+        return kernel.sweep();
+    }
+}
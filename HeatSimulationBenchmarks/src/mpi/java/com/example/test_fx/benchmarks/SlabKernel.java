@@ -0,0 +1,12 @@
+package com.example.test_fx.benchmarks;
+
+// the block kernel of the MPI project as seen by SlabBenchmark; the MPI classes live in the unnamed package,
+// which no named package can refer to, so MpiSlabKernel there implements this and is loaded by name
+public interface SlabKernel {
+
+    // performs one sweep and returns its largest temperature change
+    double sweep() throws Exception;
+
+    // stops the worker threads and finalizes MPI
+    void close() throws Exception;
+}
@@ -0,0 +1,965 @@
+import mpi.Cartcomm;
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Request;
+import mpi.ShiftParms;
+
+import java.util.Arrays;
+
+// the part of the grid owned by one process of a 2D process grid, surrounded by one ghost cell on every side
+public class Block {
+
+    // message tags, one per direction of travel
+    private static final int TAG_NORTH = 0;
+    private static final int TAG_SOUTH = 1;
+    private static final int TAG_WEST = 2;
+    private static final int TAG_EAST = 3;
+
+    public static final int ALL_CELLS = -1; // sweep colour of a Jacobi sweep, which updates every cell
+
+    private final Cartcomm comm; // communicator of the process grid
+    private final int gridWidth, gridHeight; // size of the whole grid
+    private final int[] rowBounds, columnBounds; // first row and column of every process row and column
+    public final int startX, startY; // global coordinates of the first owned cell
+    public final int localWidth, localHeight; // number of owned columns and rows
+    public final int stride; // distance between vertically adjacent cells, including the two ghost columns
+    private final int north, south, west, east; // neighbouring processes or MPI.PROC_NULL at the grid edge
+    private final boolean hasNorth, hasSouth, hasWest, hasEast;
+
+    private double[] temperatures; // temperatures read by a sweep, including the ghost cells, null in single precision
+    private double[] newTemperatures; // temperatures written by a sweep, null in single precision
+    private float[] floatTemperatures; // temperatures read by a sweep in single precision, null in double precision
+    private float[] newFloatTemperatures; // temperatures written by a sweep in single precision
+    private final boolean[] fixedPoints; // fixed heat points, same layout as the temperatures
+
+    // packed copies of the first and last owned columns, which are not contiguous in memory
+    private final double[] sendWest, sendEast, receiveWest, receiveEast;
+    private final double[] packed; // owned cells without the ghost cells, used to move whole blocks
+    private final int[] counts, displacements; // size and offset of every block in the grid packed by rank
+    private double[] packedGrid; // every block packed one after the other by rank, only used on rank 0
+    private final Request[] requests = new Request[8]; // halo messages in flight
+    private double[] exchanged; // array whose halo messages are in flight
+    private boolean exchangedSingle; // the halo messages in flight carry the single precision temperatures
+
+    // single precision: the temperatures are stored and swept as floats and travel as floats, which halves the bytes
+    // of every sweep, halo, scatter and gather; a float holds about seven digits, far finer than the threshold
+    private boolean singlePrecision;
+    private float[] sendRows, receiveRows; // first and last owned rows, ghost rows above and below
+    private float[] sendColumns, receiveColumns; // first and last owned columns, ghost columns west and east
+    private float[] packedSingle; // packed in single precision
+    private float[] packedGridSingle; // packedGrid in single precision, only used on rank 0
+    private int color = ALL_CELLS; // cells updated by the next sweep, ALL_CELLS or a checkerboard colour for SOR
+    private double omega = 1; // relaxation factor of the SOR half-sweeps
+
+    // active tiles, see setActiveTiles: the owned cells are cut into square tiles from local cell 1, 1 and a sweep
+    // only relaxes the tiles that changed by more than the threshold in the last iteration, their four neighbours
+    // and the rim cells of tiles next to a ghost cell that changed by more than the threshold; every tile is active
+    // without them
+    private int tileSize;
+    private int tileColumns, tileRows; // tiles across and down the block
+    private double tileThreshold;
+    private long[] activeTiles; // tiles the sweeps of the current iteration relax, bit t % 64 of word t / 64
+    private long[] haloTiles; // tiles whose rim cells are relaxed because a ghost cell next to them changed
+    private long[] staleTiles; // tiles whose two buffers differ, a Jacobi sweep that skips one copies it over
+    private long[] nextTiles; // active tiles of the next iteration while finishTiles picks them
+    // largest change per local row and tile column, one array for the interior bands and one for the rim, so every
+    // slot is only written by the thread that relaxes its row
+    private double[] interiorDelta, rimDelta;
+    private double[] lastHalo; // ghost cells of the last halo exchange of the temperatures, north, south, west, east
+    private long relaxedCells; // cells the last iteration relaxed
+    private boolean skippedTiles; // the last iteration left out tiles, its largest change says nothing about them
+
+    // rowBounds and columnBounds hold the first row and column of every process row and column,
+    // followed by the height and width of the grid
+    public Block(Cartcomm comm, int gridWidth, int gridHeight, int[] rowBounds, int[] columnBounds)
+            throws MPIException {
+        this.comm = comm;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.rowBounds = rowBounds;
+        this.columnBounds = columnBounds;
+
+        int[] coords = comm.Coords(comm.Rank());
+        startY = rowBounds[coords[0]];
+        startX = columnBounds[coords[1]];
+        localHeight = rowBounds[coords[0] + 1] - startY;
+        localWidth = columnBounds[coords[1] + 1] - startX;
+        stride = localWidth + 2;
+
+        ShiftParms vertical = comm.Shift(0, 1);
+        ShiftParms horizontal = comm.Shift(1, 1);
+        north = vertical.rank_source;
+        south = vertical.rank_dest;
+        west = horizontal.rank_source;
+        east = horizontal.rank_dest;
+        hasNorth = north != MPI.PROC_NULL;
+        hasSouth = south != MPI.PROC_NULL;
+        hasWest = west != MPI.PROC_NULL;
+        hasEast = east != MPI.PROC_NULL;
+
+        int size = stride * (localHeight + 2);
+        temperatures = new double[size];
+        newTemperatures = new double[size];
+        fixedPoints = new boolean[size];
+
+        sendWest = new double[localHeight];
+        sendEast = new double[localHeight];
+        receiveWest = new double[localHeight];
+        receiveEast = new double[localHeight];
+        packed = new double[localWidth * localHeight];
+        relaxedCells = packed.length;
+
+        // every process knows the extent of every block, so counts and displacements need no messages
+        int processes = comm.Size();
+        counts = new int[processes];
+        displacements = new int[processes];
+        for (int r = 0; r < processes; r++) {
+            int[] c = comm.Coords(r);
+            counts[r] = (rowBounds[c[0] + 1] - rowBounds[c[0]]) * (columnBounds[c[1] + 1] - columnBounds[c[1]]);
+            displacements[r] = (r == 0) ? 0 : displacements[r - 1] + counts[r - 1];
+        }
+    }
+
+    // splits n cells as evenly as possible into the given number of parts, returns the first cell of every part
+    // followed by n
+    public static int[] partition(int n, int parts) {
+        int[] bounds = new int[parts + 1];
+        for (int p = 0; p <= parts; p++) {
+            bounds[p] = (int) ((long) n * p / parts);
+        }
+        return bounds;
+    }
+
+    // moves the bounds so that every part gets cells in proportion to how fast it processed its current ones,
+    // cost holds the time each part needed for its cells
+    public static int[] balance(int[] bounds, double[] cost) {
+        int parts = bounds.length - 1;
+        int n = bounds[parts];
+        double[] speed = new double[parts];
+        double totalSpeed = 0;
+        for (int p = 0; p < parts; p++) {
+            speed[p] = (bounds[p + 1] - bounds[p]) / Math.max(cost[p], 1e-9);
+            totalSpeed += speed[p];
+        }
+
+        int[] balanced = new int[parts + 1];
+        double cumulative = 0;
+        for (int p = 0; p < parts; p++) {
+            cumulative += speed[p];
+            balanced[p + 1] = (int) Math.round(n * cumulative / totalSpeed);
+        }
+        balanced[parts] = n;
+
+        // every part keeps at least one cell
+        for (int p = 1; p < parts; p++) {
+            balanced[p] = Math.max(balanced[p], balanced[p - 1] + 1);
+        }
+        for (int p = parts - 1; p > 0; p--) {
+            balanced[p] = Math.min(balanced[p], balanced[p + 1] - 1);
+        }
+        return balanced;
+    }
+
+    public int[] getRowBounds() {
+        return rowBounds;
+    }
+
+    public int[] getColumnBounds() {
+        return columnBounds;
+    }
+
+    // stores, sweeps and sends the temperatures as floats or as doubles from now on, the current temperatures are
+    // carried over; the halos of other arrays, such as the search directions of the conjugate gradient, always
+    // travel as doubles, and the conjugate gradient and checkpoints need double precision
+    public void setSinglePrecision(boolean singlePrecision) {
+        if (singlePrecision == this.singlePrecision) {
+            return;
+        }
+        this.singlePrecision = singlePrecision;
+        if (singlePrecision) {
+            if (packedSingle == null) {
+                sendRows = new float[2 * localWidth];
+                receiveRows = new float[2 * localWidth];
+                sendColumns = new float[2 * localHeight];
+                receiveColumns = new float[2 * localHeight];
+                packedSingle = new float[packed.length];
+            }
+            floatTemperatures = toFloats(temperatures);
+            newFloatTemperatures = toFloats(newTemperatures);
+            temperatures = null;
+            newTemperatures = null;
+        } else {
+            temperatures = toDoubles(floatTemperatures);
+            newTemperatures = toDoubles(newFloatTemperatures);
+            floatTemperatures = null;
+            newFloatTemperatures = null;
+        }
+        if (activeTiles != null) {
+            setActiveTiles(tileSize, tileThreshold); // the rounding moved every cell, so every tile starts over
+        }
+    }
+
+    private static float[] toFloats(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    private static double[] toDoubles(float[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = values[i];
+        }
+        return doubles;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    // only relaxes the tiles of size x size cells that still change by more than threshold per iteration and their
+    // neighbours, 0 relaxes every owned cell; finishTiles has to be called after the sweeps of every iteration,
+    // the conjugate gradient does not use the tiles
+    public void setActiveTiles(int size, double threshold) {
+        relaxedCells = packed.length;
+        skippedTiles = false;
+        if (size <= 0) {
+            tileSize = 0;
+            activeTiles = null;
+            return;
+        }
+        tileSize = size;
+        tileColumns = (localWidth + size - 1) / size;
+        tileRows = (localHeight + size - 1) / size;
+        tileThreshold = threshold;
+        int words = (tileColumns * tileRows + 63) >>> 6;
+        activeTiles = new long[words];
+        haloTiles = new long[words];
+        staleTiles = new long[words];
+        nextTiles = new long[words];
+        for (int t = 0; t < tileColumns * tileRows; t++) {
+            activeTiles[t >>> 6] |= 1L << t;
+            staleTiles[t >>> 6] |= 1L << t; // the buffers may already differ when the block was swept before
+        }
+        interiorDelta = new double[(localHeight + 2) * tileColumns];
+        rimDelta = new double[interiorDelta.length];
+        lastHalo = new double[2 * localWidth + 2 * localHeight];
+    }
+
+    // cells relaxed by the last iteration, every owned cell without active tiles
+    public long getRelaxedCells() {
+        return relaxedCells;
+    }
+
+    // whether the last iteration skipped tiles, which may still drift by more than its largest change
+    public boolean hasSkippedTiles() {
+        return skippedTiles;
+    }
+
+    // lets the next iteration relax every tile, before a run may stop on its largest change
+    public void wakeAllTiles() {
+        if (activeTiles == null) {
+            return;
+        }
+        for (int t = 0; t < tileColumns * tileRows; t++) {
+            wake(activeTiles, t);
+        }
+    }
+
+    // ends an iteration once all of its sweeps are done: a tile that changed by more than the threshold stays
+    // active and wakes its four neighbours, the others sleep until a neighbour or a ghost cell wakes them
+    public void finishTiles() {
+        if (activeTiles == null) {
+            return;
+        }
+        Arrays.fill(nextTiles, 0);
+        long cells = 0;
+        int relaxedTiles = 0;
+        for (int w = 0; w < activeTiles.length; w++) {
+            relaxedTiles += Long.bitCount(activeTiles[w]);
+            long touched = activeTiles[w] | haloTiles[w];
+            for (long bits = touched; bits != 0; bits &= bits - 1) {
+                int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int column = t % tileColumns;
+                int row = t / tileColumns;
+                cells += ((activeTiles[w] & (1L << t)) != 0) ? tileCells(column, row) : tileRimCells(column, row);
+                if (tileDelta(column, row) > tileThreshold) {
+                    wake(nextTiles, t);
+                    if (column > 0) {
+                        wake(nextTiles, t - 1);
+                    }
+                    if (column < tileColumns - 1) {
+                        wake(nextTiles, t + 1);
+                    }
+                    if (row > 0) {
+                        wake(nextTiles, t - tileColumns);
+                    }
+                    if (row < tileRows - 1) {
+                        wake(nextTiles, t + tileColumns);
+                    }
+                }
+            }
+            // a Jacobi sweep copied the stale tiles it skipped, so only the tiles it relaxed differ now
+            staleTiles[w] = (color == ALL_CELLS) ? touched : 0;
+        }
+        relaxedCells = cells;
+        skippedTiles = relaxedTiles < tileColumns * tileRows;
+        long[] swap = activeTiles;
+        activeTiles = nextTiles;
+        nextTiles = swap;
+        Arrays.fill(haloTiles, 0);
+    }
+
+    // largest change of a tile in the last iteration, clears its slots for the next one
+    private double tileDelta(int column, int row) {
+        double delta = 0;
+        for (int y = row * tileSize + 1, end = Math.min(localHeight, (row + 1) * tileSize) + 1; y < end; y++) {
+            int slot = y * tileColumns + column;
+            delta = Math.max(delta, Math.max(interiorDelta[slot], rimDelta[slot]));
+            interiorDelta[slot] = 0;
+            rimDelta[slot] = 0;
+        }
+        return delta;
+    }
+
+    private int tileCells(int column, int row) {
+        int width = Math.min(localWidth, (column + 1) * tileSize) - column * tileSize;
+        int height = Math.min(localHeight, (row + 1) * tileSize) - row * tileSize;
+        return width * height;
+    }
+
+    // cells of a tile that lie on the rim of the block
+    private int tileRimCells(int column, int row) {
+        int x0 = column * tileSize + 1, x1 = Math.min(localWidth, (column + 1) * tileSize) + 1;
+        int y0 = row * tileSize + 1, y1 = Math.min(localHeight, (row + 1) * tileSize) + 1;
+        int interiorWidth = Math.max(0, Math.min(x1, localWidth) - Math.max(x0, 2));
+        int interiorHeight = Math.max(0, Math.min(y1, localHeight) - Math.max(y0, 2));
+        return (x1 - x0) * (y1 - y0) - interiorWidth * interiorHeight;
+    }
+
+    private static void wake(long[] tiles, int t) {
+        tiles[t >>> 6] |= 1L << t;
+    }
+
+    private static boolean isSet(long[] tiles, int t) {
+        return (tiles[t >>> 6] & (1L << t)) != 0;
+    }
+
+    // wakes the tile of every owned cell next to a ghost cell that the last exchange changed by more than the
+    // threshold; a change in a neighbouring block only reaches this one through its ghost cells
+    private void wakeHaloTiles() {
+        int ghostBelow = (localHeight + 1) * stride;
+        int lastTileRow = (tileRows - 1) * tileColumns;
+        for (int x = 1; x <= localWidth; x++) {
+            if (hasNorth && haloChanged(x - 1, temperature(x))) {
+                wake(haloTiles, (x - 1) / tileSize);
+            }
+            if (hasSouth && haloChanged(localWidth + x - 1, temperature(ghostBelow + x))) {
+                wake(haloTiles, lastTileRow + (x - 1) / tileSize);
+            }
+        }
+        for (int y = 1; y <= localHeight; y++) {
+            int row = y * stride;
+            int tileRow = (y - 1) / tileSize * tileColumns;
+            if (hasWest && haloChanged(2 * localWidth + y - 1, temperature(row))) {
+                wake(haloTiles, tileRow);
+            }
+            if (hasEast && haloChanged(2 * localWidth + localHeight + y - 1, temperature(row + localWidth + 1))) {
+                wake(haloTiles, tileRow + tileColumns - 1);
+            }
+        }
+    }
+
+    // temperature at an index in the layout of newVector, in either precision
+    private double temperature(int i) {
+        return singlePrecision ? floatTemperatures[i] : temperatures[i];
+    }
+
+    // compares a ghost cell with the value of the previous exchange and keeps the new one
+    private boolean haloChanged(int slot, double value) {
+        boolean changed = Math.abs(value - lastHalo[slot]) > tileThreshold;
+        lastHalo[slot] = value;
+        return changed;
+    }
+
+    // sends every process its block of the global grid held by rank 0
+    public void scatter(double[] cellTemperature, boolean[] globalFixedPoints) throws MPIException {
+        boolean[] packedFixedPoints = null;
+        if (comm.Rank() == 0) {
+            // lay out the blocks one after the other in rank order
+            packedGrid = new double[gridWidth * gridHeight];
+            packedFixedPoints = new boolean[gridWidth * gridHeight];
+            for (int r = 0; r < counts.length; r++) {
+                int[] c = comm.Coords(r);
+                int x0 = columnBounds[c[1]];
+                int width = columnBounds[c[1] + 1] - x0;
+                for (int y = rowBounds[c[0]]; y < rowBounds[c[0] + 1]; y++) {
+                    int offset = displacements[r] + (y - rowBounds[c[0]]) * width;
+                    System.arraycopy(cellTemperature, x0 + y * gridWidth, packedGrid, offset, width);
+                    System.arraycopy(globalFixedPoints, x0 + y * gridWidth, packedFixedPoints, offset, width);
+                }
+            }
+        }
+
+        boolean[] blockFixedPoints = new boolean[packed.length];
+        if (singlePrecision) {
+            float[] grid = singleGrid();
+            if (grid != null) {
+                for (int i = 0; i < grid.length; i++) {
+                    grid[i] = (float) packedGrid[i];
+                }
+            }
+            comm.Scatterv(grid, 0, counts, displacements, MPI.FLOAT, packedSingle, 0, packed.length, MPI.FLOAT, 0);
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = packedSingle[i];
+            }
+        } else {
+            comm.Scatterv(packedGrid, 0, counts, displacements, MPI.DOUBLE, packed, 0, packed.length, MPI.DOUBLE, 0);
+        }
+        comm.Scatterv(packedFixedPoints, 0, counts, displacements, MPI.BOOLEAN,
+                blockFixedPoints, 0, packed.length, MPI.BOOLEAN, 0);
+        unpack(packed, blockFixedPoints);
+    }
+
+    // fills the owned cells from a packed block this process read itself, as from a checkpoint, instead of
+    // receiving it from rank 0
+    public void load(double[] blockTemperatures, boolean[] blockFixedPoints) throws MPIException {
+        if (comm.Rank() == 0) {
+            packedGrid = new double[gridWidth * gridHeight]; // later gathers still collect the grid on rank 0
+        }
+        unpack(blockTemperatures, blockFixedPoints);
+    }
+
+    // copies a packed block into the owned cells of both temperature buffers
+    private void unpack(double[] blockTemperatures, boolean[] blockFixedPoints) {
+        for (int y = 0; y < localHeight; y++) {
+            int row = (y + 1) * stride + 1;
+            if (singlePrecision) {
+                for (int x = 0; x < localWidth; x++) {
+                    float value = (float) blockTemperatures[y * localWidth + x];
+                    floatTemperatures[row + x] = value;
+                    newFloatTemperatures[row + x] = value;
+                }
+            } else {
+                System.arraycopy(blockTemperatures, y * localWidth, temperatures, row, localWidth);
+                System.arraycopy(blockTemperatures, y * localWidth, newTemperatures, row, localWidth);
+            }
+            System.arraycopy(blockFixedPoints, y * localWidth, fixedPoints, row, localWidth);
+        }
+    }
+
+    // collects the owned cells of every process into the global grid on rank 0
+    public void gather(double[] cellTemperature) throws MPIException {
+        if (singlePrecision) {
+            for (int y = 0; y < localHeight; y++) {
+                System.arraycopy(floatTemperatures, (y + 1) * stride + 1, packedSingle, y * localWidth, localWidth);
+            }
+            float[] grid = singleGrid();
+            comm.Gatherv(packedSingle, 0, packed.length, MPI.FLOAT, grid, 0, counts, displacements, MPI.FLOAT, 0);
+            if (grid != null) {
+                for (int i = 0; i < grid.length; i++) {
+                    packedGrid[i] = grid[i];
+                }
+            }
+        } else {
+            for (int y = 0; y < localHeight; y++) {
+                System.arraycopy(temperatures, (y + 1) * stride + 1, packed, y * localWidth, localWidth);
+            }
+            comm.Gatherv(packed, 0, packed.length, MPI.DOUBLE, packedGrid, 0, counts, displacements, MPI.DOUBLE, 0);
+        }
+
+        if (comm.Rank() == 0) {
+            for (int r = 0; r < counts.length; r++) {
+                int[] c = comm.Coords(r);
+                int x0 = columnBounds[c[1]];
+                int width = columnBounds[c[1] + 1] - x0;
+                for (int y = rowBounds[c[0]]; y < rowBounds[c[0] + 1]; y++) {
+                    int offset = displacements[r] + (y - rowBounds[c[0]]) * width;
+                    System.arraycopy(packedGrid, offset, cellTemperature, x0 + y * gridWidth, width);
+                }
+            }
+        }
+    }
+
+    // posts the halo messages of the temperatures for all four sides without waiting for them
+    public void startHaloExchange() throws MPIException {
+        if (singlePrecision) {
+            startSingleHaloExchange();
+        } else {
+            startHaloExchange(temperatures);
+        }
+    }
+
+    // like startHaloExchange for the single precision temperatures, with every edge packed
+    private void startSingleHaloExchange() throws MPIException {
+        exchanged = null;
+        exchangedSingle = true;
+        float[] values = floatTemperatures;
+        int firstRow = stride + 1;
+        int lastRow = localHeight * stride + 1;
+        for (int x = 0; x < localWidth; x++) {
+            sendRows[x] = values[firstRow + x];
+            sendRows[localWidth + x] = values[lastRow + x];
+        }
+        for (int y = 0; y < localHeight; y++) {
+            int row = (y + 1) * stride;
+            sendColumns[y] = values[row + 1];
+            sendColumns[localHeight + y] = values[row + localWidth];
+        }
+
+        requests[0] = comm.Irecv(receiveRows, 0, localWidth, MPI.FLOAT, north, TAG_SOUTH);
+        requests[1] = comm.Irecv(receiveRows, localWidth, localWidth, MPI.FLOAT, south, TAG_NORTH);
+        requests[2] = comm.Irecv(receiveColumns, 0, localHeight, MPI.FLOAT, west, TAG_EAST);
+        requests[3] = comm.Irecv(receiveColumns, localHeight, localHeight, MPI.FLOAT, east, TAG_WEST);
+
+        requests[4] = comm.Isend(sendRows, 0, localWidth, MPI.FLOAT, north, TAG_NORTH);
+        requests[5] = comm.Isend(sendRows, localWidth, localWidth, MPI.FLOAT, south, TAG_SOUTH);
+        requests[6] = comm.Isend(sendColumns, 0, localHeight, MPI.FLOAT, west, TAG_WEST);
+        requests[7] = comm.Isend(sendColumns, localHeight, localHeight, MPI.FLOAT, east, TAG_EAST);
+    }
+
+    // posts the halo messages of any array with the layout of the temperatures
+    public void startHaloExchange(double[] values) throws MPIException {
+        exchanged = values;
+        exchangedSingle = false;
+        int firstRow = stride + 1;
+        int lastRow = localHeight * stride + 1;
+        for (int y = 0; y < localHeight; y++) {
+            int row = (y + 1) * stride;
+            sendWest[y] = values[row + 1];
+            sendEast[y] = values[row + localWidth];
+        }
+
+        // receive into the ghost row above, the ghost row below and the packed ghost columns
+        requests[0] = comm.Irecv(values, 1, localWidth, MPI.DOUBLE, north, TAG_SOUTH);
+        requests[1] = comm.Irecv(values, (localHeight + 1) * stride + 1, localWidth, MPI.DOUBLE, south, TAG_NORTH);
+        requests[2] = comm.Irecv(receiveWest, 0, localHeight, MPI.DOUBLE, west, TAG_EAST);
+        requests[3] = comm.Irecv(receiveEast, 0, localHeight, MPI.DOUBLE, east, TAG_WEST);
+
+        requests[4] = comm.Isend(values, firstRow, localWidth, MPI.DOUBLE, north, TAG_NORTH);
+        requests[5] = comm.Isend(values, lastRow, localWidth, MPI.DOUBLE, south, TAG_SOUTH);
+        requests[6] = comm.Isend(sendWest, 0, localHeight, MPI.DOUBLE, west, TAG_WEST);
+        requests[7] = comm.Isend(sendEast, 0, localHeight, MPI.DOUBLE, east, TAG_EAST);
+    }
+
+    // waits for the halo messages and copies the received columns into the ghost columns
+    public void finishHaloExchange() throws MPIException {
+        Request.Waitall(requests);
+
+        if (exchangedSingle) {
+            // sides without a neighbouring process received nothing and keep their ghost cells
+            float[] values = floatTemperatures;
+            int ghostBelow = (localHeight + 1) * stride + 1;
+            for (int x = 0; x < localWidth; x++) {
+                if (hasNorth) {
+                    values[1 + x] = receiveRows[x];
+                }
+                if (hasSouth) {
+                    values[ghostBelow + x] = receiveRows[localWidth + x];
+                }
+            }
+            for (int y = 0; y < localHeight; y++) {
+                int row = (y + 1) * stride;
+                if (hasWest) {
+                    values[row] = receiveColumns[y];
+                }
+                if (hasEast) {
+                    values[row + localWidth + 1] = receiveColumns[localHeight + y];
+                }
+            }
+        } else {
+            for (int y = 0; y < localHeight; y++) {
+                int row = (y + 1) * stride;
+                exchanged[row] = receiveWest[y];
+                exchanged[row + localWidth + 1] = receiveEast[y];
+            }
+        }
+
+        if (activeTiles != null && (exchangedSingle || exchanged == temperatures)) {
+            wakeHaloTiles();
+        }
+    }
+
+    // packedGrid in single precision on rank 0, created with the first single precision scatter or gather
+    private float[] singleGrid() throws MPIException {
+        if (comm.Rank() != 0) {
+            return null;
+        }
+        if (packedGridSingle == null) {
+            packedGridSingle = new float[gridWidth * gridHeight];
+        }
+        return packedGridSingle;
+    }
+
+    // a zeroed array with the layout of the temperatures; ghost cells on the edges of the whole grid never receive
+    // anything, so they stay 0 in every such array
+    public double[] newVector() {
+        return new double[stride * (localHeight + 2)];
+    }
+
+    // temperatures read by the next sweep, in the layout of newVector; null in single precision
+    public double[] getTemperatures() {
+        return temperatures;
+    }
+
+    // index of a cell in local coordinates, which start at 1
+    public int index(int x, int y) {
+        return x + y * stride;
+    }
+
+    public boolean isFixed(int x, int y) {
+        return fixedPoints[x + y * stride];
+    }
+
+    // number of neighbours of a cell in local coordinates that lie inside the whole grid
+    public int neighbours(int x, int y) {
+        int count = 0;
+        if (x > 1 || hasWest) {
+            count++;
+        }
+        if (x < localWidth || hasEast) {
+            count++;
+        }
+        if (y > 1 || hasNorth) {
+            count++;
+        }
+        if (y < localHeight || hasSouth) {
+            count++;
+        }
+        return count;
+    }
+
+    // relaxes the owned cells that do not read any ghost cell, safe while the halos are in flight
+    public double relaxInterior() {
+        return relaxInteriorRows(2, localHeight);
+    }
+
+    // relaxes the interior cells of local rows [y0, y1), bands of rows can be relaxed by different threads
+    public double relaxInteriorRows(int y0, int y1) {
+        return relaxTiles(2, localWidth, y0, y1, false);
+    }
+
+    // relaxes the first and last owned rows and columns, needs the halos of the current iteration
+    public double relaxRim() {
+        double maxDelta = relaxTiles(1, localWidth + 1, 1, Math.min(2, localHeight + 1), true);
+        if (localHeight > 1) {
+            maxDelta = Math.max(maxDelta, relaxTiles(1, localWidth + 1, localHeight, localHeight + 1, true));
+        }
+        maxDelta = Math.max(maxDelta, relaxTiles(1, Math.min(2, localWidth + 1), 2, localHeight, true));
+        if (localWidth > 1) {
+            maxDelta = Math.max(maxDelta, relaxTiles(localWidth, localWidth + 1, 2, localHeight, true));
+        }
+        return maxDelta;
+    }
+
+    // relaxes local columns [x0, x1) and rows [y0, y1) of the interior or the rim like relax, with active tiles
+    // only the cells of the tiles the iteration relaxes; a Jacobi sweep copies the skipped cells of stale tiles, so
+    // the swap never brings back older values
+    private double relaxTiles(int x0, int x1, int y0, int y1, boolean rim) {
+        if (activeTiles == null) {
+            return relax(x0, x1, y0, y1);
+        }
+        if (x0 >= x1) {
+            return 0;
+        }
+        double[] deltas = rim ? rimDelta : interiorDelta;
+        int firstColumn = (x0 - 1) / tileSize;
+        int lastColumn = (x1 - 2) / tileSize;
+        double maxDelta = 0;
+        for (int y = y0; y < y1; y++) {
+            int tileRow = (y - 1) / tileSize * tileColumns;
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int t = tileRow + column;
+                int from = Math.max(x0, column * tileSize + 1);
+                int to = Math.min(x1, (column + 1) * tileSize + 1);
+                if (isSet(activeTiles, t) || (rim && isSet(haloTiles, t))) {
+                    double delta = relax(from, to, y, y + 1);
+                    int slot = y * tileColumns + column;
+                    deltas[slot] = Math.max(deltas[slot], delta);
+                    maxDelta = Math.max(maxDelta, delta);
+                } else if (color == ALL_CELLS && isSet(staleTiles, t)) {
+                    if (singlePrecision) {
+                        System.arraycopy(floatTemperatures, y * stride + from, newFloatTemperatures, y * stride + from,
+                                to - from);
+                    } else {
+                        System.arraycopy(temperatures, y * stride + from, newTemperatures, y * stride + from,
+                                to - from);
+                    }
+                }
+            }
+        }
+        return maxDelta;
+    }
+
+    // selects what the next sweep does: a Jacobi sweep of ALL_CELLS into the spare buffer, or an in-place SOR
+    // half-sweep of the cells of one checkerboard colour, (x + y) % 2 == color in global coordinates
+    public void selectSweep(int color, double omega) {
+        this.color = color;
+        this.omega = omega;
+    }
+
+    // makes the temperatures written by the last sweep the ones read by the next sweep
+    public void swap() {
+        double[] temp = temperatures;
+        temperatures = newTemperatures;
+        newTemperatures = temp;
+        float[] floatTemp = floatTemperatures;
+        floatTemperatures = newFloatTemperatures;
+        newFloatTemperatures = floatTemp;
+    }
+
+    // relaxes local columns [x0, x1) and rows [y0, y1) and returns the largest temperature change,
+    // local coordinates start at 1 and a side without a neighbouring process is an edge of the whole grid
+    private double relax(int x0, int x1, int y0, int y1) {
+        if (color != ALL_CELLS) {
+            return singlePrecision ? relaxColorFloat(x0, x1, y0, y1) : relaxColor(x0, x1, y0, y1);
+        }
+        if (singlePrecision) {
+            return relaxFloat(x0, x1, y0, y1);
+        }
+
+        double[] src = temperatures;
+        double[] dst = newTemperatures;
+        boolean[] mask = fixedPoints;
+        double maxDelta = 0;
+
+        // columns where both horizontal neighbours exist
+        int fastStart = hasWest ? x0 : Math.max(x0, 2);
+        int fastEnd = hasEast ? x1 : Math.min(x1, localWidth);
+
+        for (int y = y0; y < y1; y++) {
+            boolean up = y > 1 || hasNorth;
+            boolean down = y < localHeight || hasSouth;
+            int row = y * stride;
+
+            int x = x0;
+            if (up && down) {
+                for (; x < fastStart && x < x1; x++) {
+                    maxDelta = Math.max(maxDelta, relaxCell(x, y, true, true));
+                }
+                for (; x < fastEnd; x++) {
+                    int i = row + x;
+                    if (mask[i]) {
+                        continue;
+                    }
+                    double newTemp = (src[i - 1] + src[i + 1] + src[i - stride] + src[i + stride]) * 0.25;
+                    double delta = Math.abs(newTemp - src[i]);
+                    if (delta > maxDelta) {
+                        maxDelta = delta;
+                    }
+                    dst[i] = newTemp;
+                }
+            }
+            for (; x < x1; x++) {
+                maxDelta = Math.max(maxDelta, relaxCell(x, y, up, down));
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // over-relaxes in place the cells of the selected colour in local columns [x0, x1) and rows [y0, y1)
+    // and returns the largest temperature change
+    private double relaxColor(int x0, int x1, int y0, int y1) {
+        double[] t = temperatures;
+        boolean[] mask = fixedPoints;
+        double maxDelta = 0;
+
+        for (int y = y0; y < y1; y++) {
+            boolean up = y > 1 || hasNorth;
+            boolean down = y < localHeight || hasSouth;
+            int row = y * stride;
+
+            // local and global coordinates differ by the block offset, which decides the colour of a cell
+            for (int x = x0 + (((x0 + y + startX + startY) & 1) ^ color); x < x1; x += 2) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                boolean inside = up && down && (x > 1 || hasWest) && (x < localWidth || hasEast);
+                double average = inside ? (t[i - 1] + t[i + 1] + t[i - stride] + t[i + stride]) * 0.25
+                        : calculateTemperature(x, y, up, down);
+                double change = omega * (average - t[i]);
+                t[i] += change;
+                double delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relax in float arithmetic on the single precision temperatures
+    private double relaxFloat(int x0, int x1, int y0, int y1) {
+        float[] src = floatTemperatures;
+        float[] dst = newFloatTemperatures;
+        boolean[] mask = fixedPoints;
+        float maxDelta = 0;
+
+        int fastStart = hasWest ? x0 : Math.max(x0, 2);
+        int fastEnd = hasEast ? x1 : Math.min(x1, localWidth);
+
+        for (int y = y0; y < y1; y++) {
+            boolean up = y > 1 || hasNorth;
+            boolean down = y < localHeight || hasSouth;
+            int row = y * stride;
+
+            int x = x0;
+            if (up && down) {
+                for (; x < fastStart && x < x1; x++) {
+                    maxDelta = Math.max(maxDelta, relaxCellFloat(x, y, true, true));
+                }
+                for (; x < fastEnd; x++) {
+                    int i = row + x;
+                    if (mask[i]) {
+                        continue;
+                    }
+                    float newTemp = (src[i - 1] + src[i + 1] + src[i - stride] + src[i + stride]) * 0.25f;
+                    float delta = Math.abs(newTemp - src[i]);
+                    if (delta > maxDelta) {
+                        maxDelta = delta;
+                    }
+                    dst[i] = newTemp;
+                }
+            }
+            for (; x < x1; x++) {
+                maxDelta = Math.max(maxDelta, relaxCellFloat(x, y, up, down));
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relaxColor in float arithmetic on the single precision temperatures
+    private double relaxColorFloat(int x0, int x1, int y0, int y1) {
+        float[] t = floatTemperatures;
+        boolean[] mask = fixedPoints;
+        float factor = (float) omega;
+        float maxDelta = 0;
+
+        for (int y = y0; y < y1; y++) {
+            boolean up = y > 1 || hasNorth;
+            boolean down = y < localHeight || hasSouth;
+            int row = y * stride;
+
+            for (int x = x0 + (((x0 + y + startX + startY) & 1) ^ color); x < x1; x += 2) {
+                int i = row + x;
+                if (mask[i]) {
+                    continue;
+                }
+                boolean inside = up && down && (x > 1 || hasWest) && (x < localWidth || hasEast);
+                float average = inside ? (t[i - 1] + t[i + 1] + t[i - stride] + t[i + stride]) * 0.25f
+                        : calculateFloatTemperature(x, y, up, down);
+                float change = factor * (average - t[i]);
+                t[i] += change;
+                float delta = Math.abs(change);
+                if (delta > maxDelta) {
+                    maxDelta = delta;
+                }
+            }
+        }
+
+        return maxDelta;
+    }
+
+    // relaxCell on the single precision temperatures
+    private float relaxCellFloat(int x, int y, boolean up, boolean down) {
+        int i = x + y * stride;
+        if (fixedPoints[i]) {
+            return 0;
+        }
+        float newTemp = calculateFloatTemperature(x, y, up, down);
+        newFloatTemperatures[i] = newTemp;
+        return Math.abs(newTemp - floatTemperatures[i]);
+    }
+
+    // relaxes a single cell and returns its temperature change
+    private double relaxCell(int x, int y, boolean up, boolean down) {
+        int i = x + y * stride;
+        if (fixedPoints[i]) {
+            return 0;
+        }
+        double newTemp = calculateTemperature(x, y, up, down);
+        newTemperatures[i] = newTemp;
+        return Math.abs(newTemp - temperatures[i]);
+    }
+
+    // sum of the squared changes a Jacobi sweep would make to the free owned cells, the halos have to be current
+    public double residualSquares() {
+        double sum = 0;
+        for (int y = 1; y <= localHeight; y++) {
+            boolean up = y > 1 || hasNorth;
+            boolean down = y < localHeight || hasSouth;
+            for (int x = 1; x <= localWidth; x++) {
+                int i = x + y * stride;
+                if (!fixedPoints[i]) {
+                    // summed in double, the squares of many small changes would lose digits in a float
+                    double change = singlePrecision ? calculateFloatTemperature(x, y, up, down) - floatTemperatures[i]
+                            : calculateTemperature(x, y, up, down) - temperatures[i];
+                    sum += change * change;
+                }
+            }
+        }
+        return sum;
+    }
+
+    // calculates the new temperature of a cell based on its neighbors, in local coordinates
+    public double calculateTemperature(int x, int y, boolean up, boolean down) {
+        double temp = 0;
+        int count = 0;
+        int i = x + y * stride;
+
+        // add temperature of neighboring cells
+        if (x > 1 || hasWest) {
+            temp += temperatures[i - 1];
+            count++;
+        }
+        if (x < localWidth || hasEast) {
+            temp += temperatures[i + 1];
+            count++;
+        }
+        if (up) {
+            temp += temperatures[i - stride];
+            count++;
+        }
+        if (down) {
+            temp += temperatures[i + stride];
+            count++;
+        }
+
+        // calculate the average temperature
+        temp /= count;
+        return temp;
+    }
+
+    // calculateTemperature in float arithmetic on the single precision temperatures
+    private float calculateFloatTemperature(int x, int y, boolean up, boolean down) {
+        float[] t = floatTemperatures;
+        float temp = 0;
+        int count = 0;
+        int i = x + y * stride;
+
+        if (x > 1 || hasWest) {
+            temp += t[i - 1];
+            count++;
+        }
+        if (x < localWidth || hasEast) {
+            temp += t[i + 1];
+            count++;
+        }
+        if (up) {
+            temp += t[i - stride];
+            count++;
+        }
+        if (down) {
+            temp += t[i + stride];
+            count++;
+        }
+
+        return temp / count;
+    }
+}
@@ -0,0 +1,270 @@
+import mpi.Intracomm;
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// binary snapshot of the whole grid in one file shared by all processes, the same format the desktop version
+// writes: a 64 byte header (magic, version, width, height, iteration, seed, solver name), the fixed points as a
+// bitmap of one bit per cell in row-major order padded to a multiple of 8 bytes, then the temperatures as
+// little-endian doubles in row-major order; every process maps the rows of its own block and copies its cells to
+// their offsets itself, so the grid never passes through rank 0 and the processes write in parallel; the file has
+// to be on a file system all processes see
+public class Checkpoint {
+
+    private static final int HEADER_BYTES = 64;
+    private static final byte[] MAGIC = "HEATCKPT".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int SOLVER_OFFSET = 40; // solver name, ASCII padded with zeros
+    private static final int SOLVER_BYTES = HEADER_BYTES - SOLVER_OFFSET;
+    private static final long WINDOW_BYTES = 1L << 30; // largest mapping, longer runs of rows are mapped in pieces
+
+    public final int width, height; // size of the whole grid
+    public final long iteration; // iterations the run had done when it wrote the checkpoint
+    public final long seed; // seed the heat points were placed with
+    public final String solver; // name of the solver of the run
+    private final Path file;
+
+    private Checkpoint(Path file, int width, int height, long iteration, long seed, String solver) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.iteration = iteration;
+        this.seed = seed;
+        this.solver = solver;
+    }
+
+    // byte offset of the first temperature in a checkpoint of a grid with the given number of cells
+    static long temperatureOffset(long cells) {
+        long bitmapBytes = (cells + 7) / 8;
+        return HEADER_BYTES + (bitmapBytes + 7) / 8 * 8;
+    }
+
+    // writes the owned cells of every process into one checkpoint, every process has to call this; rank 0 writes
+    // the header and the fixed points of the whole grid, which only it holds, then all processes write their rows;
+    // the data goes to a temporary file that replaces the target once every process has forced its part to disk,
+    // so a job killed while writing keeps its previous checkpoint; returns false on every process if any failed
+    public static boolean write(Intracomm comm, String file, Block block, int gridWidth, int gridHeight,
+                                boolean[] globalFixedPoints, long iteration, long seed, String solver)
+            throws MPIException {
+        int rank = comm.Rank();
+        Path target = Path.of(file);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int[] failed = new int[1];
+        int[] anyFailed = new int[1];
+
+        if (rank == 0) {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeHeader(channel, gridWidth, gridHeight, globalFixedPoints, iteration, seed, solver);
+            } catch (IOException e) {
+                System.err.println("Checkpoint " + file + " was not created: " + e.getMessage());
+                failed[0] = 1;
+            }
+        }
+        comm.Bcast(failed, 0, 1, MPI.INT, 0);
+        if (failed[0] != 0) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBlock(channel, gridWidth, gridHeight, block.startX, block.startY, block.localWidth,
+                    block.localHeight, block.getTemperatures(), block.index(1, 1), block.stride);
+        } catch (IOException e) {
+            System.err.println("Checkpoint " + file + " was not written: " + e.getMessage());
+            failed[0] = 1;
+        }
+
+        // no process may rename the file before all have written their part
+        comm.Allreduce(failed, 0, anyFailed, 0, 1, MPI.INT, MPI.MAX);
+        if (anyFailed[0] != 0) {
+            return false;
+        }
+        if (rank == 0) {
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Checkpoint " + file + " was not renamed: " + e.getMessage());
+                failed[0] = 1;
+            }
+        }
+        comm.Bcast(failed, 0, 1, MPI.INT, 0);
+        return failed[0] == 0;
+    }
+
+    // header and fixed points of the whole grid, and the file at its full length so the processes can map their
+    // rows into it
+    static void writeHeader(FileChannel channel, int gridWidth, int gridHeight, boolean[] globalFixedPoints,
+                            long iteration, long seed, String solver) throws IOException {
+        long cells = (long) gridWidth * gridHeight;
+        long dataOffset = temperatureOffset(cells);
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+        head.order(ByteOrder.LITTLE_ENDIAN);
+        head.put(MAGIC);
+        head.putInt(VERSION);
+        head.putInt(gridWidth);
+        head.putInt(gridHeight);
+        head.putInt(0); // keeps the longs aligned
+        head.putLong(iteration);
+        head.putLong(seed);
+        byte[] name = solver.getBytes(StandardCharsets.US_ASCII);
+        head.put(name, 0, Math.min(name.length, SOLVER_BYTES));
+
+        byte[] bits = new byte[(int) ((cells + 7) / 8)];
+        for (int i = 0; i < cells; i++) {
+            if (globalFixedPoints[i]) {
+                bits[i >>> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        head.position(HEADER_BYTES);
+        head.put(bits);
+        head.force();
+
+        // the file gets its full length before the other processes map their rows into it
+        channel.write(ByteBuffer.allocate(8), dataOffset + 8 * cells - 8);
+    }
+
+    // temperatures of the block starting at (startX, startY) of the whole grid; the first owned cell is at first in
+    // values and the rows are stride apart
+    static void writeBlock(FileChannel channel, int gridWidth, int gridHeight, int startX, int startY,
+                           int localWidth, int localHeight, double[] values, int first, int stride)
+            throws IOException {
+        // rows of the block lie gridWidth cells apart in the file, one mapping covers as many of them as fit
+        long dataOffset = temperatureOffset((long) gridWidth * gridHeight);
+        int rowsPerWindow = (int) Math.max(1, WINDOW_BYTES / (8L * gridWidth));
+        for (int top = 0; top < localHeight; top += rowsPerWindow) {
+            int rows = Math.min(rowsPerWindow, localHeight - top);
+            long start = dataOffset + 8 * ((long) (startY + top) * gridWidth + startX);
+            long length = 8 * ((long) (rows - 1) * gridWidth + localWidth);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+            DoubleBuffer doubles = window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            for (int y = 0; y < rows; y++) {
+                doubles.position(y * gridWidth);
+                doubles.put(values, first + (top + y) * stride, localWidth);
+            }
+            window.force();
+        }
+    }
+
+    // reads the header of a checkpoint on every process; rank 0 checks the file first and the others only open it
+    // if it is valid, so either every process gets the checkpoint or every process gets the exception
+    public static Checkpoint open(Intracomm comm, String file) throws IOException, MPIException {
+        int[] valid = new int[1];
+        Checkpoint checkpoint = null;
+        IOException error = null;
+        if (comm.Rank() == 0) {
+            try {
+                checkpoint = readHeader(Path.of(file));
+                valid[0] = 1;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        comm.Bcast(valid, 0, 1, MPI.INT, 0);
+        if (valid[0] == 0) {
+            throw (error != null) ? error : new IOException(file + " is not a valid heat checkpoint");
+        }
+        return (checkpoint != null) ? checkpoint : readHeader(Path.of(file));
+    }
+
+    static Checkpoint readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not a heat checkpoint");
+            }
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            head.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            int version = head.getInt();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException(file + " is not a heat checkpoint of version " + VERSION);
+            }
+            int width = head.getInt();
+            int height = head.getInt();
+            head.getInt();
+            long iteration = head.getLong();
+            long seed = head.getLong();
+            byte[] name = new byte[SOLVER_BYTES];
+            head.get(name);
+            int length = 0;
+            while (length < name.length && name[length] != 0) {
+                length++;
+            }
+
+            long cells = (long) width * height;
+            if (width <= 0 || height <= 0 || channel.size() < temperatureOffset(cells) + 8 * cells) {
+                throw new IOException(file + " is truncated");
+            }
+            return new Checkpoint(file, width, height, iteration, seed,
+                    new String(name, 0, length, StandardCharsets.US_ASCII));
+        }
+    }
+
+    // fixed points of the whole grid, row by row; rank 0 keeps them to redistribute the grid later
+    public boolean[] readFixedPoints() throws IOException {
+        long cells = (long) width * height;
+        byte[] bits = new byte[(int) ((cells + 7) / 8)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, bits.length).get(bits);
+        }
+        boolean[] fixed = new boolean[(int) cells];
+        for (int i = 0; i < cells; i++) {
+            fixed[i] = (bits[i >>> 3] & (1 << (i & 7))) != 0;
+        }
+        return fixed;
+    }
+
+    // reads the cells and fixed points of the block of this process straight from the file, every process reads
+    // only its own rows, so the processes may use a different process grid than the job that wrote the checkpoint
+    public void load(Block block) throws IOException, MPIException {
+        double[] temperatures = new double[block.localWidth * block.localHeight];
+        boolean[] fixed = new boolean[temperatures.length];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            readBlock(channel, block.startX, block.startY, block.localWidth, block.localHeight, temperatures, fixed);
+        }
+        block.load(temperatures, fixed);
+    }
+
+    // cells and fixed points of the block starting at (startX, startY), packed row by row
+    void readBlock(FileChannel channel, int startX, int startY, int localWidth, int localHeight,
+                   double[] temperatures, boolean[] fixed) throws IOException {
+        long dataOffset = temperatureOffset((long) width * height);
+        int rowsPerWindow = (int) Math.max(1, WINDOW_BYTES / (8L * width));
+        for (int top = 0; top < localHeight; top += rowsPerWindow) {
+            int rows = Math.min(rowsPerWindow, localHeight - top);
+            long start = dataOffset + 8 * ((long) (startY + top) * width + startX);
+            long length = 8 * ((long) (rows - 1) * width + localWidth);
+            DoubleBuffer doubles = channel.map(FileChannel.MapMode.READ_ONLY, start, length)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            for (int y = 0; y < rows; y++) {
+                doubles.position(y * width);
+                doubles.get(temperatures, (top + y) * localWidth, localWidth);
+            }
+        }
+
+        // the bits of the block rows, a row need not start on a byte
+        long firstBit = (long) startY * width + startX;
+        long lastBit = (long) (startY + localHeight - 1) * width + startX + localWidth;
+        long firstByte = firstBit >>> 3;
+        MappedByteBuffer bits = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + firstByte,
+                ((lastBit + 7) >>> 3) - firstByte);
+        for (int y = 0; y < localHeight; y++) {
+            for (int x = 0; x < localWidth; x++) {
+                long bit = (long) (startY + y) * width + startX + x;
+                fixed[y * localWidth + x] = (bits.get((int) ((bit >>> 3) - firstByte)) & (1 << (bit & 7))) != 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import mpi.MPI;
+import mpi.MPIException;
+import mpi.Op;
+
+// matrix-free preconditioned conjugate gradient solver on the block of one process, solves
+// count * u - sum of neighbours = 0 on the free cells with the fixed points moved to the right-hand side;
+// every dot product and the residual norm are reduced across all processes with Allreduce
+public class ConjugateGradient {
+
+    // preconditioners available to the solver
+    public enum Preconditioner {
+        JACOBI, // divides the residual by the number of neighbours of each cell
+        INCOMPLETE_CHOLESKY // zero fill-in incomplete Cholesky factor of the block, solved by two triangular sweeps
+    }
+
+    private final Block block;
+    private final Preconditioner preconditioner;
+    private final double[] r; // residual
+    private final double[] z; // preconditioned residual
+    private final double[] p; // search direction, always 0 on fixed points
+    private final double[] q; // operator applied to the search direction
+    private final double[] inverseDiagonal; // 1 / pivot of every free cell, the plain diagonal for Jacobi
+    private final double[] local = new double[1];
+    private final double[] global = new double[1];
+    private boolean initialized;
+    private double rz; // global dot product of the residual and the preconditioned residual
+    private double residualNorm; // global largest |r| / count
+    private long waitTime; // time spent waiting for halos during the last iteration
+    private long reductionTime; // time spent in reductions during the last iteration
+
+    public ConjugateGradient(Block block, Preconditioner preconditioner) {
+        this.block = block;
+        this.preconditioner = preconditioner;
+        this.r = block.newVector();
+        this.z = block.newVector();
+        this.p = block.newVector();
+        this.q = block.newVector();
+        this.inverseDiagonal = block.newVector();
+        factor();
+    }
+
+    // performs one iteration and returns the largest change a Jacobi sweep would make to any cell of the whole
+    // grid afterwards, in the same units as the stability threshold of the relaxation solvers
+    public double iterate() throws MPIException {
+        waitTime = 0;
+        reductionTime = 0;
+        if (!initialized) {
+            // r = b - A u needs the neighbouring temperatures, z = M^-1 r and the first search direction is z
+            exchange(block.getTemperatures());
+            double norm = residual();
+            precondition();
+            rz = sum(dot(r, z));
+            residualNorm = max(norm);
+            System.arraycopy(z, 0, p, 0, p.length);
+            initialized = true;
+        }
+        if (rz <= 0) {
+            return residualNorm; // the residual is exactly 0
+        }
+
+        exchange(p);
+        double alpha = rz / sum(applyOperator());
+        double norm = update(alpha);
+        precondition();
+        double rzNew = sum(dot(r, z));
+        residualNorm = max(norm);
+
+        double beta = rzNew / rz;
+        rz = rzNew;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int i = block.index(1, y), end = i + block.localWidth; i < end; i++) {
+                p[i] = z[i] + beta * p[i];
+            }
+        }
+        return residualNorm;
+    }
+
+    // time spent waiting for halos during the last iteration
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    // time spent in reductions during the last iteration, including waiting for slower processes
+    public long getReductionTime() {
+        return reductionTime;
+    }
+
+    // r = sum of neighbours - count * u on the free owned cells, which is b - A u with the fixed neighbours in b;
+    // returns the local largest |r| / count
+    private double residual() {
+        double[] u = block.getTemperatures();
+        int stride = block.stride;
+        double largest = 0;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int x = 1; x <= block.localWidth; x++) {
+                int i = block.index(x, y);
+                if (block.isFixed(x, y)) {
+                    continue;
+                }
+                // ghost cells beyond the edge of the whole grid are 0, so every neighbour can be summed
+                int count = block.neighbours(x, y);
+                r[i] = u[i - 1] + u[i + 1] + u[i - stride] + u[i + stride] - count * u[i];
+                largest = Math.max(largest, Math.abs(r[i]) / count);
+            }
+        }
+        return largest;
+    }
+
+    // q = A p on the owned cells, returns the local part of p . q
+    private double applyOperator() {
+        int stride = block.stride;
+        double dot = 0;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int x = 1; x <= block.localWidth; x++) {
+                int i = block.index(x, y);
+                if (block.isFixed(x, y)) {
+                    continue;
+                }
+                // the search direction is 0 on fixed points and beyond the edge of the whole grid
+                double value = block.neighbours(x, y) * p[i] - (p[i - 1] + p[i + 1] + p[i - stride] + p[i + stride]);
+                q[i] = value;
+                dot += p[i] * value;
+            }
+        }
+        return dot;
+    }
+
+    // u += alpha p and r -= alpha q on the owned cells, returns the local largest |r| / count
+    private double update(double alpha) {
+        double[] u = block.getTemperatures();
+        double largest = 0;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int x = 1; x <= block.localWidth; x++) {
+                int i = block.index(x, y);
+                if (block.isFixed(x, y)) {
+                    continue;
+                }
+                u[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+                largest = Math.max(largest, Math.abs(r[i]) / block.neighbours(x, y));
+            }
+        }
+        return largest;
+    }
+
+    // z = M^-1 r on the owned cells
+    private void precondition() {
+        int stride = block.stride;
+        if (preconditioner == Preconditioner.JACOBI) {
+            for (int i = 0; i < z.length; i++) {
+                z[i] = r[i] * inverseDiagonal[i];
+            }
+            return;
+        }
+
+        // forward sweep through the lower factor, then backward through the upper one; the factor ignores the cells
+        // of other processes, which keeps the blocks independent and the preconditioner symmetric, and the ghost
+        // cells of z are never written so they add nothing
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int x = 1; x <= block.localWidth; x++) {
+                int i = block.index(x, y);
+                z[i] = block.isFixed(x, y) ? 0 : (r[i] + z[i - 1] + z[i - stride]) * inverseDiagonal[i];
+            }
+        }
+        for (int y = block.localHeight; y >= 1; y--) {
+            for (int x = block.localWidth; x >= 1; x--) {
+                int i = block.index(x, y);
+                if (!block.isFixed(x, y)) {
+                    z[i] += (z[i + 1] + z[i + stride]) * inverseDiagonal[i];
+                }
+            }
+        }
+    }
+
+    // computes the inverse pivots of the owned free cells, the diagonal itself for Jacobi, otherwise the incomplete
+    // Cholesky pivots count - 1 / pivot of the free left neighbour - 1 / pivot of the free neighbour above
+    private void factor() {
+        int stride = block.stride;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int x = 1; x <= block.localWidth; x++) {
+                int i = block.index(x, y);
+                if (block.isFixed(x, y)) {
+                    continue;
+                }
+                double pivot = block.neighbours(x, y);
+                if (preconditioner == Preconditioner.INCOMPLETE_CHOLESKY) {
+                    // inverse pivots of fixed cells and ghost cells are 0
+                    pivot -= inverseDiagonal[i - 1] + inverseDiagonal[i - stride];
+                }
+                inverseDiagonal[i] = 1 / pivot;
+            }
+        }
+    }
+
+    // a . b over the owned cells, the ghost cells of r and z are never written
+    private double dot(double[] a, double[] b) {
+        double dot = 0;
+        for (int y = 1; y <= block.localHeight; y++) {
+            for (int i = block.index(1, y), end = i + block.localWidth; i < end; i++) {
+                dot += a[i] * b[i];
+            }
+        }
+        return dot;
+    }
+
+    // fills the ghost cells of an array with the owned cells of the neighbouring processes
+    private void exchange(double[] values) throws MPIException {
+        long start = System.nanoTime();
+        block.startHaloExchange(values);
+        block.finishHaloExchange();
+        waitTime += System.nanoTime() - start;
+    }
+
+    private double sum(double value) throws MPIException {
+        return reduce(value, MPI.SUM);
+    }
+
+    private double max(double value) throws MPIException {
+        return reduce(value, MPI.MAX);
+    }
+
+    private double reduce(double value, Op op) throws MPIException {
+        long start = System.nanoTime();
+        local[0] = value;
+        MPI.COMM_WORLD.Allreduce(local, 0, global, 0, 1, MPI.DOUBLE, op);
+        reductionTime += System.nanoTime() - start;
+        return global[0];
+    }
+}
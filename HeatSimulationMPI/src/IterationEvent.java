@@ -0,0 +1,59 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// one iteration of one process as a JFR event, recorded by starting the processes with
+// -XX:StartFlightRecording:filename=rank.jfr; Metrics fills it in with the values of this process
+@Name("com.example.heat.mpi.Iteration")
+@Label("Heat MPI Iteration")
+@Category("Heat Simulation")
+@Description("Convergence and time split of one iteration on one process")
+@StackTrace(false)
+public class IterationEvent extends jdk.jfr.Event {
+
+    @Label("Rank")
+    int rank;
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Max Delta")
+    @Description("Largest temperature change on any process, or residual norm for conjugate gradient")
+    double maxDelta;
+
+    @Label("L2 Residual")
+    @Description("Of the whole grid, only computed on sampled iterations, NaN otherwise")
+    double residualL2;
+
+    @Label("Compute")
+    @Timespan
+    long compute;
+
+    @Label("Communication")
+    @Description("Waiting for halo messages")
+    @Timespan
+    long communication;
+
+    @Label("Reduction")
+    @Description("Allreduce of the convergence values, including waiting for slower processes")
+    @Timespan
+    long reduction;
+
+    @Label("Snapshot")
+    @Description("Gathering the grid on rank 0 for a snapshot")
+    @Timespan
+    long snapshot;
+
+    @Label("MLUPS")
+    @Description("Million cell updates per second of compute, communication and reduction on this process")
+    double mlups;
+
+    @Label("Allocated")
+    @Description("Bytes the main thread allocated per iteration since the previous reported iteration")
+    @DataAmount
+    long allocated;
+}
@@ -1,6 +1,9 @@
+import mpi.Cartcomm;
 import mpi.MPI;
 import mpi.MPIException;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 public class Main {
@@ -9,22 +12,60 @@ public class Main {
     private static int gridWidth = 80;
     private static int gridHeight = 60;
     private static int heatPoints = 10;
-    private static double[][] cellTemperature; // stores temperature of each cell in the grid
-    private static boolean[][] fixedPoints; // indicates if a cell is a fixed heat point
+    private static double[] cellTemperature; // stores temperature of each cell in the grid, row by row
+    private static boolean[] fixedPoints; // indicates if a cell is a fixed heat point, row by row
     private static final double STABILITY_THRESHOLD = 0.25; // threshold for stability check
     private static final int MAX_ITERATIONS = 100000; // maximum number of iterations for convergence
+    private static final long SEED = 89211208; // seed of the heat points
+    private static long seed = SEED; // seed the heat points of this run were placed with, recorded in checkpoints
+    private static int snapshotInterval = 100; // iterations between two snapshots
+    private static String snapshotFile = null; // rank 0 writes the gathered grid here, null gathers only at the end
+    private static SnapshotWriter.Format snapshotFormat = SnapshotWriter.Format.RAW;
+    private static SnapshotWriter.Policy snapshotPolicy = SnapshotWriter.Policy.BLOCK; // when the writer falls behind
+    private static int snapshotBuffers = 4; // copies of the grid rank 0 may have queued for the writer
+    private static String metricsFile = null; // rank 0 writes sampled iterations here, null samples nothing
+    private static int metricsInterval = 100; // iterations between two samples
+    private static String checkpointFile = null; // all processes write the grid here, null writes no checkpoints
+    private static int checkpointInterval = 1000; // iterations between two checkpoints
+    private static String restartFile = null; // checkpoint the run continues from instead of placing heat points
+    private static Checkpoint restart; // header of the restart checkpoint, null starts afresh
+    private static boolean solverGiven = false; // -solver overrides the solver of the restart checkpoint
+    private static int processColumns = 0, processRows = 0; // shape of the process grid, 0 lets MPI choose
+    private static int rebalanceInterval = 0; // move the block boundaries every n iterations, 0 keeps them fixed
+    private static final double REBALANCE_TOLERANCE = 1.05; // imbalance between the slowest and average process to accept
+    private static int threadsPerProcess = 1; // threads sharing the sweep of a block within one process
+    private static Solver solver = Solver.JACOBI; // numerical method used to reach the steady state
+    private static double omega = 0; // relaxation factor for SOR, 0 estimates it from the grid size
+    private static ConjugateGradient.Preconditioner preconditioner = ConjugateGradient.Preconditioner.INCOMPLETE_CHOLESKY;
+    private static Precision precision = Precision.DOUBLE; // width of the temperatures the blocks store and send
+    private static int activeTileSize = 0; // side of the tiles of active-tile scheduling, 0 sweeps every cell
+    private static double activeFraction = 0.1; // part of the stability threshold a settled tile may still change by
+
+    // numerical methods available to reach the steady state
+    private enum Solver {
+        JACOBI, // every cell becomes the average of its neighbours from the previous sweep
+        SOR, // red-black successive over-relaxation, updates the grid in place one colour at a time
+        CG // preconditioned conjugate gradient on the linear system of the steady state
+    }
+
+    // floating point width of the temperatures in the blocks, halos, scatters and gathers
+    private enum Precision {
+        DOUBLE, // 64 bit
+        SINGLE, // 32 bit, half the bytes in every sweep and every message
+        MIXED // single until stable, then double until stable again so the result does not depend on the rounding
+    }
 
     // initializes the grid with random heat points
     public static void initialize(int gridWidth, int gridHeight, int heatPoints) {
-        cellTemperature = new double[gridWidth][gridHeight];
-        fixedPoints = new boolean[gridWidth][gridHeight];
+        cellTemperature = new double[gridWidth * gridHeight];
+        fixedPoints = new boolean[gridWidth * gridHeight];
 
-        Random rand = new Random(89211208);
+        Random rand = new Random(SEED);
         for (int i = 0; i < heatPoints; i++) {
             int x = rand.nextInt(gridWidth); // random x-coordinate
             int y = rand.nextInt(gridHeight); // random y-coordinate
-            cellTemperature[x][y] = 100; // set initial temperature of heat point
-            fixedPoints[x][y] = true; // mark the cell as a fixed point
+            cellTemperature[x + y * gridWidth] = 100; // set initial temperature of heat point
+            fixedPoints[x + y * gridWidth] = true; // mark the cell as a fixed point
         }
     }
 
@@ -39,82 +80,154 @@ public class Main {
             return;
         }
 
-        // determine the range of rows each process will handle
-        int rowsPerProcess = gridHeight / size;
-        int startRow = rank * rowsPerProcess;
-        int endRow = (rank == size - 1) ? gridHeight : (rank + 1) * rowsPerProcess;
-
-        // local arrays for storing temperatures and fixed points
-        double[] localTemperatures = new double[gridWidth * rowsPerProcess];
-        boolean[] localFixedPoints = new boolean[gridWidth * rowsPerProcess];
-        double[] gatheredTemperatures = new double[gridWidth * gridHeight];
-
-        if (rank == 0) {
-            // flatten 2D arrays for scattering
-            double[] flattenedTemperatures = flatten2DArray(cellTemperature);
-            boolean[] flattenedFixedPoints = flatten2DArray(fixedPoints);
+        Cartcomm cart;
+        Block block;
+        try {
+            // arrange the processes in a 2D grid, each one owning a block of rows and columns
+            int[] dims = new int[]{processRows, processColumns};
+            Cartcomm.Dims_create(size, dims);
+            cart = MPI.COMM_WORLD.Create_cart(dims, new boolean[]{false, false}, false);
 
-            try {
-                // scatter temperatures and fixed points to all processes
-                MPI.COMM_WORLD.Scatter(flattenedTemperatures, 0, rowsPerProcess * gridWidth, MPI.DOUBLE,
-                        localTemperatures, 0, rowsPerProcess * gridWidth, MPI.DOUBLE, 0);
-                MPI.COMM_WORLD.Scatter(flattenedFixedPoints, 0, rowsPerProcess * gridWidth, MPI.BOOLEAN,
-                        localFixedPoints, 0, rowsPerProcess * gridWidth, MPI.BOOLEAN, 0);
-            } catch (MPIException e) {
-                e.printStackTrace();
-            }
-        } else {
-            try {
-                // receive scattered data for non-root processes
-                MPI.COMM_WORLD.Scatter(null, 0, 0, MPI.DOUBLE,
-                        localTemperatures, 0, rowsPerProcess * gridWidth, MPI.DOUBLE, 0);
-                MPI.COMM_WORLD.Scatter(null, 0, 0, MPI.BOOLEAN,
-                        localFixedPoints, 0, rowsPerProcess * gridWidth, MPI.BOOLEAN, 0);
-            } catch (MPIException e) {
-                e.printStackTrace();
+            block = new Block(cart, gridWidth, gridHeight,
+                    Block.partition(gridHeight, dims[0]), Block.partition(gridWidth, dims[1]));
+            block.setSinglePrecision(precision != Precision.DOUBLE);
+            block.setActiveTiles(activeTileSize, STABILITY_THRESHOLD * activeFraction);
+            if (restart != null) {
+                restart.load(block); // every process reads its own block, nothing is scattered
+            } else {
+                block.scatter(cellTemperature, fixedPoints);
             }
+        } catch (MPIException | IOException e) {
+            e.printStackTrace();
+            return;
         }
 
         boolean stable = false;
-        int iterations = 0;
+        int iterations = (restart != null) ? Math.toIntExact(restart.iteration) : 0;
+        double[] localDelta = new double[2]; // largest change, and 1 if the iteration skipped tiles
+        double[] globalDelta = new double[2];
+        long computeTime = 0; // time spent updating cells since the last rebalancing
+        double relaxationFactor = (omega > 0) ? omega : estimateOmega(gridWidth, gridHeight);
+        WorkerTeam team = new WorkerTeam(threadsPerProcess);
+        ConjugateGradient cg = (solver == Solver.CG) ? new ConjugateGradient(block, preconditioner) : null;
+        Metrics metrics = new Metrics(rank, metricsFile, metricsInterval);
+        SnapshotWriter snapshots;
+        try {
+            snapshots = openSnapshots(rank);
+        } catch (MPIException e) {
+            e.printStackTrace();
+            return;
+        }
+        boolean takeSnapshots = snapshotFile != null; // the same on every process, openSnapshots clears it on all of them
 
         // iterate until the system reaches stability or the maximum number of iterations
         while (!stable && iterations < MAX_ITERATIONS) {
-            stable = true;
-            double[] newTemperatures = new double[gridWidth * rowsPerProcess];
-
-            // update temperatures for the current segment of the grid
-            for (int x = 0; x < gridWidth; x++) {
-                for (int y = 0; y < rowsPerProcess; y++) {
-                    int globalY = startRow + y;
-                    if (!localFixedPoints[x + y * gridWidth]) {
-                        double newTemp = calculateTemperature(x, globalY, localTemperatures, gridWidth, rowsPerProcess);
-                        if (Math.abs(newTemp - localTemperatures[x + y * gridWidth]) > STABILITY_THRESHOLD) {
-                            stable = false; // system is not stable
-                        }
-                        newTemperatures[x + y * gridWidth] = newTemp;
+            try {
+                // only the edges of the blocks travel between neighbouring processes, the cells that do not
+                // depend on them are updated while the messages are in flight
+                long computeStart = System.nanoTime();
+                long communication; // waiting for halos
+                long reduction; // reducing the convergence values across the processes
+                if (solver == Solver.CG) {
+                    // the conjugate gradient reduces its dot products and residual norm across all processes itself
+                    globalDelta[0] = cg.iterate();
+                    communication = cg.getWaitTime();
+                    reduction = cg.getReductionTime();
+                } else {
+                    if (solver == Solver.SOR) {
+                        // the halos are exchanged again between the colours, as black cells read the new red ones
+                        block.selectSweep(0, relaxationFactor);
+                        localDelta[0] = team.sweep(block);
+                        communication = team.getWaitTime();
+                        block.selectSweep(1, relaxationFactor);
+                        localDelta[0] = Math.max(localDelta[0], team.sweep(block));
+                        communication += team.getWaitTime();
                     } else {
-                        newTemperatures[x + y * gridWidth] = localTemperatures[x + y * gridWidth];
+                        block.selectSweep(Block.ALL_CELLS, 1);
+                        localDelta[0] = team.sweep(block);
+                        communication = team.getWaitTime();
+                        block.swap();
                     }
+                    block.finishTiles(); // picks the tiles of the next iteration
+                    localDelta[1] = block.hasSkippedTiles() ? 1 : 0;
+
+                    // the system is stable once the largest change on any process is below the threshold
+                    long reductionStart = System.nanoTime();
+                    MPI.COMM_WORLD.Allreduce(localDelta, 0, globalDelta, 0, 2, MPI.DOUBLE, MPI.MAX);
+                    reduction = System.nanoTime() - reductionStart;
                 }
-            }
+                long compute = System.nanoTime() - computeStart - communication - reduction;
+                computeTime += compute;
 
-            try {
-                // gather updated temperatures from all processes
-                MPI.COMM_WORLD.Gather(newTemperatures, 0, rowsPerProcess * gridWidth, MPI.DOUBLE,
-                        gatheredTemperatures, 0, rowsPerProcess * gridWidth, MPI.DOUBLE, 0);
+                stable = globalDelta[0] <= STABILITY_THRESHOLD;
+                if (stable && globalDelta[1] > 0) {
+                    // tiles skipped on some process may have drifted further, one more iteration relaxes them all
+                    block.wakeAllTiles();
+                    stable = false;
+                }
+                iterations++;
+                if (stable && precision == Precision.MIXED && block.isSinglePrecision()) {
+                    // the blocks continue from the converged floats, sweeping and sending doubles
+                    block.setSinglePrecision(false);
+                    stable = false;
+                    if (rank == 0) {
+                        System.out.println("Polishing in double precision from iteration " + iterations);
+                    }
+                }
+
+                long snapshot = 0;
+                if (takeSnapshots && iterations % snapshotInterval == 0 && !stable) {
+                    // every process waits for the gather, only rank 0 copies the grid for its writer thread
+                    long snapshotStart = System.nanoTime();
+                    gatherBlocks(block);
+                    if (rank == 0) {
+                        snapshots.offer(cellTemperature, gridWidth, gridHeight, iterations);
+                    }
+                    snapshot = System.nanoTime() - snapshotStart;
+                }
+
+                // console output per iteration would cost more than the iteration itself, measurements go to JFR
+                // and the sampled metrics file instead
+                metrics.iteration(iterations, globalDelta[0], block, compute, communication, reduction, snapshot);
+
+                if (checkpointFile != null && iterations % checkpointInterval == 0 && !stable) {
+                    writeCheckpoint(cart, block, iterations);
+                }
             } catch (MPIException e) {
                 e.printStackTrace();
+                return;
             }
 
-            if (rank == 0) {
-                // update the global temperature array with gathered data
-                cellTemperature = unflatten2DArray(gatheredTemperatures, gridWidth, gridHeight);
+            if (rebalanceInterval > 0 && iterations % rebalanceInterval == 0 && !stable) {
+                try {
+                    Block balanced = rebalance(cart, block, computeTime);
+                    if (balanced != block && cg != null) {
+                        // the search directions belong to the old blocks, restart from the redistributed grid
+                        cg = new ConjugateGradient(balanced, preconditioner);
+                    }
+                    block = balanced;
+                } catch (MPIException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                computeTime = 0;
             }
+        }
 
-            iterations++;
-            System.out.println("Rank " + rank + " completed iteration " + iterations);
+        team.shutdown();
+        metrics.close();
+        if (snapshots != null) {
+            snapshots.close(); // waits for the frames still queued
+        }
+        if (checkpointFile != null) {
+            // the final state, a restart from it stops after one iteration
+            try {
+                writeCheckpoint(cart, block, iterations);
+            } catch (MPIException e) {
+                e.printStackTrace();
+            }
         }
+        gatherBlocks(block);
 
         if (rank == 0) {
             System.out.println("Computation finished in " + iterations + " iterations.");
@@ -122,86 +235,225 @@ public class Main {
         }
     }
 
-    // flattens a 2D array to a 1D array
-    private static double[] flatten2DArray(double[][] array) {
-        int width = array.length;
-        int height = array[0].length;
-        double[] flattened = new double[width * height];
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(array[i], 0, flattened, i * height, height);
+    // moves the block boundaries so that slower processes own fewer rows and columns, every process shares its
+    // compute time and derives the same boundaries; the grid is redistributed through rank 0 if they change
+    private static Block rebalance(Cartcomm cart, Block block, long computeTime) throws MPIException {
+        int size = cart.Size();
+        double[] time = new double[]{computeTime};
+        double[] times = new double[size];
+        cart.Allgather(time, 0, 1, MPI.DOUBLE, times, 0, 1, MPI.DOUBLE);
+
+        double slowest = 0;
+        double total = 0;
+        for (double t : times) {
+            slowest = Math.max(slowest, t);
+            total += t;
+        }
+        if (slowest <= REBALANCE_TOLERANCE * total / size) {
+            return block; // balanced enough, moving cells would cost more than it saves
+        }
+
+        // a process row or column is as slow as its slowest process
+        int[] rowBounds = block.getRowBounds();
+        int[] columnBounds = block.getColumnBounds();
+        double[] rowCost = new double[rowBounds.length - 1];
+        double[] columnCost = new double[columnBounds.length - 1];
+        for (int r = 0; r < size; r++) {
+            int[] coords = cart.Coords(r);
+            rowCost[coords[0]] = Math.max(rowCost[coords[0]], times[r]);
+            columnCost[coords[1]] = Math.max(columnCost[coords[1]], times[r]);
         }
-        return flattened;
+
+        int[] newRowBounds = Block.balance(rowBounds, rowCost);
+        int[] newColumnBounds = Block.balance(columnBounds, columnCost);
+        if (Arrays.equals(newRowBounds, rowBounds) && Arrays.equals(newColumnBounds, columnBounds)) {
+            return block;
+        }
+
+        block.gather(cellTemperature);
+        Block balanced = new Block(cart, gridWidth, gridHeight, newRowBounds, newColumnBounds);
+        balanced.setSinglePrecision(block.isSinglePrecision());
+        balanced.setActiveTiles(activeTileSize, STABILITY_THRESHOLD * activeFraction); // every tile starts active
+        balanced.scatter(cellTemperature, fixedPoints);
+        return balanced;
     }
 
-    // flattens a 2D boolean array to a 1D array
-    private static boolean[] flatten2DArray(boolean[][] array) {
-        int width = array.length;
-        int height = array[0].length;
-        boolean[] flattened = new boolean[width * height];
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(array[i], 0, flattened, i * height, height);
+    // writes the grid to the checkpoint file, every process writes its own block; a failed checkpoint is reported
+    // and the run carries on
+    private static void writeCheckpoint(Cartcomm cart, Block block, int iterations) throws MPIException {
+        // the desktop version reads the same files and knows the conjugate gradient by its full name
+        String name = (solver == Solver.CG) ? "CONJUGATE_GRADIENT" : solver.name();
+        boolean written = Checkpoint.write(cart, checkpointFile, block, gridWidth, gridHeight, fixedPoints,
+                iterations, seed, name);
+        if (written && cart.Rank() == 0) {
+            System.out.println("Checkpoint written at iteration " + iterations);
         }
-        return flattened;
     }
 
-    // converts a 1D array back to a 2D array
-    private static double[][] unflatten2DArray(double[] array, int width, int height) {
-        double[][] unflattened = new double[width][height];
-        for (int i = 0; i < width; i++) {
-            System.arraycopy(array, i * height, unflattened[i], 0, height);
+    // snapshot writer of rank 0, null on the other processes and without -snapshotFile; whether rank 0 could open
+    // the file is broadcast, so either every process gathers the snapshots or none does
+    private static SnapshotWriter openSnapshots(int rank) throws MPIException {
+        if (snapshotFile == null) {
+            return null;
+        }
+        SnapshotWriter snapshots = null;
+        int[] opened = new int[1];
+        if (rank == 0) {
+            try {
+                snapshots = new SnapshotWriter(snapshotFile, snapshotFormat, snapshotPolicy, snapshotBuffers);
+                opened[0] = 1;
+            } catch (IOException e) {
+                System.err.println("Cannot write snapshots to " + snapshotFile + ": " + e.getMessage());
+            }
+        }
+        MPI.COMM_WORLD.Bcast(opened, 0, 1, MPI.INT, 0);
+        if (opened[0] == 0) {
+            snapshotFile = null;
+        }
+        return snapshots;
+    }
+
+    // relaxation factor for SOR, estimated from the spectral radius of the Jacobi iteration on a grid of this size
+    private static double estimateOmega(int gridWidth, int gridHeight) {
+        double rho = (Math.cos(Math.PI / gridWidth) + Math.cos(Math.PI / gridHeight)) / 2;
+        return 2 / (1 + Math.sqrt(1 - rho * rho));
+    }
+
+    // gathers the blocks of every process into the global grid on rank 0
+    private static void gatherBlocks(Block block) {
+        try {
+            block.gather(cellTemperature);
+        } catch (MPIException e) {
+            e.printStackTrace();
         }
-        return unflattened;
     }
 
     // prints the final temperature grid
     public static void printResults() {
         for (int y = 0; y < gridHeight; y++) {
             for (int x = 0; x < gridWidth; x++) {
-                System.out.printf("%5.1f ", cellTemperature[x][y]);
+                System.out.printf("%5.1f ", cellTemperature[x + y * gridWidth]);
             }
             System.out.println();
         }
     }
 
-    // calculates the new temperature of a cell based on its neighbors
-    public static double calculateTemperature(int x, int y, double[] temperatures, int gridWidth, int rowsPerProcess) {
-        double temp = 0;
-        int count = 0;
-
-        // add temperature of neighboring cells
-        if (x > 0) {
-            temp += temperatures[(x - 1) + (y % rowsPerProcess) * gridWidth];
-            count++;
+    // describes a combination of options the run cannot honour, null if there is none
+    private static String unsupportedOptions() {
+        if (activeTileSize > 0 && solver == Solver.CG) {
+            return "-activeTiles only runs the jacobi and sor solvers";
         }
-        if (x < gridWidth - 1) {
-            temp += temperatures[(x + 1) + (y % rowsPerProcess) * gridWidth];
-            count++;
+        // the conjugate gradient and the checkpoints work on the double precision temperatures
+        if (precision != Precision.DOUBLE && solver == Solver.CG) {
+            return "-precision " + precision.name().toLowerCase() + " only runs the jacobi and sor solvers";
         }
-        if (y > 0) {
-            temp += temperatures[x + ((y - 1) % rowsPerProcess) * gridWidth];
-            count++;
+        if (precision != Precision.DOUBLE && checkpointFile != null) {
+            return "-checkpoint needs -precision double";
         }
-        if (y < rowsPerProcess - 1) {
-            temp += temperatures[x + ((y + 1) % rowsPerProcess) * gridWidth];
-            count++;
+        // checkpoints count iterations in a long, a run in an int
+        if (restart != null && restart.iteration > Integer.MAX_VALUE) {
+            return "cannot restart from " + restartFile + " after " + restart.iteration + " iterations, a run counts "
+                    + "at most " + Integer.MAX_VALUE;
         }
+        return null;
+    }
 
-        // calculate the average temperature
-        temp /= count;
-        return temp;
+    // reads the command-line options shared by all processes
+    private static void parseArguments(String[] args) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-snapshot")) {
+                snapshotInterval = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-snapshotFile")) {
+                snapshotFile = args[++i];
+            } else if (args[i].equals("-snapshotFormat")) {
+                snapshotFormat = SnapshotWriter.Format.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("-snapshotPolicy")) {
+                snapshotPolicy = SnapshotWriter.Policy.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("-snapshotBuffers")) {
+                snapshotBuffers = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-threads")) {
+                threadsPerProcess = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-solver")) {
+                solver = Solver.valueOf(args[++i].toUpperCase());
+                solverGiven = true;
+            } else if (args[i].equals("-preconditioner")) {
+                preconditioner = ConjugateGradient.Preconditioner.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("-precision")) {
+                precision = Precision.valueOf(args[++i].toUpperCase());
+            } else if (args[i].equals("-activeTiles")) {
+                activeTileSize = Math.max(0, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-activeFraction")) {
+                activeFraction = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-omega")) {
+                omega = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-metrics")) {
+                metricsFile = args[++i];
+            } else if (args[i].equals("-sample")) {
+                metricsInterval = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-checkpoint")) {
+                checkpointFile = args[++i];
+            } else if (args[i].equals("-checkpointInterval")) {
+                checkpointInterval = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-restart")) {
+                restartFile = args[++i];
+            } else if (args[i].equals("-rebalance")) {
+                rebalanceInterval = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-dims")) {
+                // process grid given as columns x rows, e.g. 4x2
+                String[] parts = args[++i].split("x");
+                processColumns = Integer.parseInt(parts[0].trim());
+                processRows = Integer.parseInt(parts[1].trim());
+            }
+        }
     }
 
     public static void main(String[] args) {
         try {
-            MPI.Init(args); // initialize MPI environment
+            args = MPI.Init(args); // initialize MPI environment
+            parseArguments(args);
 
             int rank = MPI.COMM_WORLD.Rank(); // get the rank of the current process
             int size = MPI.COMM_WORLD.Size(); // get the total number of processes
 
-            if (rank == 0) {
+            if (restartFile != null) {
+                // the checkpoint holds the grid, every process reads its own block from it later
+                try {
+                    restart = Checkpoint.open(MPI.COMM_WORLD, restartFile);
+                    if (rank == 0) {
+                        gridWidth = restart.width;
+                        gridHeight = restart.height;
+                        cellTemperature = new double[gridWidth * gridHeight];
+                        fixedPoints = restart.readFixedPoints(); // rank 0 redistributes the grid when rebalancing
+                    }
+                } catch (IOException e) {
+                    if (rank == 0) {
+                        System.err.println("Cannot restart from " + restartFile + ": " + e.getMessage());
+                    }
+                    MPI.Finalize();
+                    return;
+                }
+                seed = restart.seed;
+                if (!solverGiven) {
+                    try {
+                        solver = restart.solver.equals("CONJUGATE_GRADIENT") ? Solver.CG : Solver.valueOf(restart.solver);
+                    } catch (IllegalArgumentException e) {
+                        // written by a solver only the desktop version has, such as multigrid
+                    }
+                }
+            } else if (rank == 0) {
                 initialize(gridWidth, gridHeight, heatPoints); // initialize grid on root process
             }
 
+            // every process parsed the same options and read the same checkpoint, so they all stop here together
+            String unsupported = unsupportedOptions();
+            if (unsupported != null) {
+                if (rank == 0) {
+                    System.err.println(unsupported);
+                }
+                MPI.Finalize();
+                return;
+            }
+
             // broadcast grid parameters to all processes
             int[] params = new int[3];
             if (rank == 0) {
@@ -0,0 +1,143 @@
+import mpi.MPI;
+import mpi.MPIException;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+// per-iteration measurements of one process: every iteration becomes an IterationEvent when a JFR recording has the
+// event enabled, and every sampled iteration is reduced across all processes and written by rank 0 as a CSV row, or
+// a JSON line for a file ending in .json or .jsonl; whether an iteration is sampled only depends on its number, so
+// every process joins the same reductions
+public class Metrics {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final int rank;
+    private final int interval; // iterations between two samples, 0 samples nothing
+    private BufferedWriter out; // samples file, only on rank 0
+    private final boolean json;
+    private final double[] sums = new double[3]; // squared residuals, allocated bytes and relaxed cells, summed
+    private final double[] maxima = new double[5]; // phase times and busy time, the slowest process of each
+    private final double[] reducedSums = new double[3];
+    private final double[] reducedMaxima = new double[5];
+    private long allocated; // bytes the main thread had allocated at the last reported iteration
+    private int reported; // number of the last reported iteration
+
+    // file may be null, then nothing is sampled and only JFR events are recorded; if rank 0 cannot write the file
+    // the processes still sample, so they all keep joining the same reductions
+    public Metrics(int rank, String file, int interval) {
+        this.rank = rank;
+        this.interval = (file != null) ? Math.max(1, interval) : 0;
+        this.json = file != null && (file.endsWith(".json") || file.endsWith(".jsonl"));
+        if (file != null && rank == 0) {
+            try {
+                out = new BufferedWriter(new FileWriter(file));
+                if (!json) {
+                    out.write("iteration,max_delta,residual_l2,compute_ns,communication_ns,reduction_ns,snapshot_ns,"
+                            + "mlups,allocated_bytes");
+                    out.newLine();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                out = null;
+            }
+        }
+        this.allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // reports an iteration of the block, the times are those of this process in nanoseconds; on sampled
+    // iterations every process has to call this, it exchanges the halos and takes part in two reductions
+    public void iteration(int iteration, double maxDelta, Block block, long compute, long communication,
+                          long reduction, long snapshot) throws MPIException {
+        boolean sampled = interval > 0 && iteration % interval == 0;
+        IterationEvent event = new IterationEvent();
+        if (!sampled && !event.isEnabled()) {
+            return;
+        }
+
+        // reading the allocation counter is not free, between two reported iterations it is averaged
+        long allocatedNow = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long allocatedPerIteration = (allocatedNow - allocated) / Math.max(1, iteration - reported);
+        allocated = allocatedNow;
+        reported = iteration;
+        long busy = compute + communication + reduction;
+
+        double residualL2 = Double.NaN;
+        if (sampled) {
+            // the halos are one sweep old, the residual needs the current neighbours
+            block.startHaloExchange();
+            block.finishHaloExchange();
+            sums[0] = block.residualSquares();
+            sums[1] = allocatedPerIteration;
+            sums[2] = block.getRelaxedCells();
+            maxima[0] = compute;
+            maxima[1] = communication;
+            maxima[2] = reduction;
+            maxima[3] = snapshot;
+            maxima[4] = busy;
+            MPI.COMM_WORLD.Allreduce(sums, 0, reducedSums, 0, sums.length, MPI.DOUBLE, MPI.SUM);
+            MPI.COMM_WORLD.Allreduce(maxima, 0, reducedMaxima, 0, maxima.length, MPI.DOUBLE, MPI.MAX);
+            residualL2 = Math.sqrt(reducedSums[0]);
+        }
+
+        if (event.shouldCommit()) {
+            event.rank = rank;
+            event.iteration = iteration;
+            event.maxDelta = maxDelta;
+            event.residualL2 = residualL2;
+            event.compute = compute;
+            event.communication = communication;
+            event.reduction = reduction;
+            event.snapshot = snapshot;
+            event.mlups = (busy > 0) ? block.getRelaxedCells() * 1e3 / busy : 0;
+            event.allocated = allocatedPerIteration;
+            event.commit();
+        }
+        if (sampled && out != null) {
+            // the cells of every process are done when the slowest process is; active tiles only count the cells
+            // they relaxed
+            double mlups = (reducedMaxima[4] > 0) ? reducedSums[2] * 1e3 / reducedMaxima[4] : 0;
+            write(iteration, maxDelta, residualL2, (long) reducedMaxima[0], (long) reducedMaxima[1],
+                    (long) reducedMaxima[2], (long) reducedMaxima[3], mlups, (long) reducedSums[1]);
+        }
+    }
+
+    // closes the samples file
+    public void close() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // writes one sample and flushes it, so a run that is killed still leaves its samples behind
+    private void write(int iteration, double maxDelta, double residualL2, long compute, long communication,
+                       long reduction, long snapshot, double mlups, long allocated) {
+        String line = json
+                ? String.format(Locale.ROOT, "{\"iteration\":%d,\"maxDelta\":%s,\"residualL2\":%s,\"computeNs\":%d,"
+                        + "\"communicationNs\":%d,\"reductionNs\":%d,\"snapshotNs\":%d,\"mlups\":%s,"
+                        + "\"allocatedBytes\":%d}", iteration, jsonNumber(maxDelta), jsonNumber(residualL2),
+                        compute, communication, reduction, snapshot, jsonNumber(mlups), allocated)
+                : String.format(Locale.ROOT, "%d,%s,%s,%d,%d,%d,%d,%s,%d", iteration, maxDelta, residualL2,
+                        compute, communication, reduction, snapshot, mlups, allocated);
+        try {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // JSON has no NaN or infinity
+    private static String jsonNumber(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+// time series of the grid gathered on rank 0, written on a thread of its own in the stream format of the desktop
+// version: rank 0 only copies the gathered grid into one of a few pooled buffers and queues it, the writer thread
+// encodes the queued frames and returns the buffers; once every buffer is queued rank 0 either waits for the writer
+// or drops the frame, as the policy says, but it never waits for the file itself, so the other processes only wait
+// for the gather
+//
+// the file starts with the magic HEATSNAP and a version int, followed by frames of iteration (long), width and
+// height (ints), payload bytes (long) and the payload, all little-endian; a raw payload holds the temperatures as
+// doubles in row-major order, a compressed one the same bytes deflated, a delta one the bits of every double xor
+// the bits of the same cell in the previous frame, deflated
+public class SnapshotWriter {
+
+    public enum Format {
+        RAW, // temperatures as they are
+        DELTA, // xor with the previous frame, deflated
+        COMPRESSED // temperatures deflated
+    }
+
+    public enum Policy {
+        BLOCK, // rank 0 waits for a free buffer, no frame is lost
+        DROP // rank 0 skips the frame, it never waits
+    }
+
+    private static final byte[] MAGIC = "HEATSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FRAME_HEADER_BYTES = 24;
+    private static final int CHUNK_CELLS = 1 << 16; // cells encoded at a time, bounds the writer's buffers
+
+    // pooled copy of the grid waiting for the writer
+    private static final class Frame {
+        double[] values;
+        int width, height;
+        long iteration;
+    }
+
+    private static final Frame END = new Frame(); // queued by close, stops the writer thread
+
+    private final Format format;
+    private final Policy policy;
+    private final int buffers; // most frames that exist at once
+    private final BlockingQueue<Frame> free; // buffers the writer is done with
+    private final BlockingQueue<Frame> queued; // frames waiting for the writer, never more than there are buffers
+    private final Thread writer;
+    private int allocated; // buffers created so far, at most buffers; rank 0's main thread only
+    private long dropped; // frames skipped because every buffer was queued; rank 0's main thread only
+
+    // owned by the writer thread
+    private final FileChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocate(8 * CHUNK_CELLS).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] deflated = new byte[8 * CHUNK_CELLS];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private long[] previous; // bits of the previous frame for delta frames
+    private boolean failed; // writing failed, the remaining frames are only recycled
+
+    public SnapshotWriter(String file, Format format, Policy policy, int buffers) throws IOException {
+        this.format = format;
+        this.policy = policy;
+        this.buffers = Math.max(1, buffers);
+        this.free = new ArrayBlockingQueue<>(this.buffers);
+        this.queued = new ArrayBlockingQueue<>(this.buffers + 1); // room for END as well
+
+        channel = FileChannel.open(Path.of(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).flip();
+        writeFully(header);
+
+        writer = new Thread(this::drain, "heat-snapshots");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // copies the gathered grid into a pooled buffer and queues it for the writer; returns false if the frame was
+    // dropped
+    public boolean offer(double[] values, int width, int height, long iteration) {
+        Frame frame = free.poll();
+        if (frame == null && allocated < buffers) {
+            frame = new Frame();
+            allocated++;
+        }
+        if (frame == null) {
+            if (policy == Policy.DROP) {
+                dropped++;
+                return false;
+            }
+            try {
+                frame = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        if (frame.values == null || frame.values.length != values.length) {
+            frame.values = new double[values.length];
+        }
+        System.arraycopy(values, 0, frame.values, 0, values.length);
+        frame.width = width;
+        frame.height = height;
+        frame.iteration = iteration;
+        queued.add(frame); // there is always room, only existing buffers are ever queued
+        return true;
+    }
+
+    // writes the frames still queued and closes the file
+    public void close() {
+        queued.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deflater.end();
+        if (dropped > 0) {
+            System.err.println("Snapshots dropped because the writer fell behind: " + dropped);
+        }
+    }
+
+    // loop of the writer thread
+    private void drain() {
+        try {
+            while (true) {
+                Frame frame = queued.take();
+                if (frame == END) {
+                    break;
+                }
+                if (!failed) {
+                    try {
+                        write(frame);
+                    } catch (IOException e) {
+                        failed = true; // the run carries on without snapshots
+                        System.err.println("Snapshots are no longer written: " + e.getMessage());
+                    }
+                }
+                free.add(frame);
+            }
+        } catch (InterruptedException e) {
+            // the process is exiting
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Snapshot file was not closed cleanly: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        long headerPosition = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(frame.iteration).putInt(frame.width).putInt(frame.height).putLong(0).flip();
+        writeFully(header);
+        long payloadStart = channel.position();
+
+        double[] values = frame.values;
+        boolean delta = format == Format.DELTA;
+        if (delta && (previous == null || previous.length != values.length)) {
+            previous = new long[values.length]; // the first frame of a size is xored with zeros, so it is complete
+        }
+        for (int start = 0; start < values.length; start += CHUNK_CELLS) {
+            int end = Math.min(values.length, start + CHUNK_CELLS);
+            chunk.clear();
+            for (int i = start; i < end; i++) {
+                long bits = Double.doubleToRawLongBits(values[i]);
+                if (delta) {
+                    chunk.putLong(bits ^ previous[i]);
+                    previous[i] = bits;
+                } else {
+                    chunk.putLong(bits);
+                }
+            }
+            chunk.flip();
+            if (format == Format.RAW) {
+                writeFully(chunk);
+            } else {
+                deflater.setInput(chunk.array(), 0, chunk.limit());
+                while (!deflater.needsInput()) {
+                    writeDeflated(deflater.deflate(deflated));
+                }
+            }
+        }
+        if (format != Format.RAW) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeDeflated(deflater.deflate(deflated));
+            }
+            deflater.reset();
+        }
+
+        // the payload length is only known now
+        long end = channel.position();
+        ByteBuffer length = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        length.putLong(end - payloadStart).flip();
+        while (length.hasRemaining()) {
+            channel.write(length, headerPosition + 16 + length.position());
+        }
+    }
+
+    private void writeDeflated(int count) throws IOException {
+        writeFully(ByteBuffer.wrap(deflated, 0, count));
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import mpi.MPIException;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+// a fixed team of threads sharing the sweep of one block, the calling thread is member 0 and the only one that
+// talks to MPI, so MPI only ever sees one thread per process
+public class WorkerTeam {
+
+    private static final int PADDING = 8; // doubles per result slot, keeps the slots of two threads on separate cache lines
+
+    private final int threads; // team size including the calling thread
+    private final Thread[] helpers;
+    private final CyclicBarrier start; // releases the helpers into a sweep
+    private final CyclicBarrier done; // waits for every member to finish its band
+    private final double[] maxDelta; // largest change per member, one padded slot each
+    private Block block; // block of the current sweep, published to the helpers by the start barrier
+    private volatile boolean running = true;
+    private long waitTime; // time the calling thread spent waiting for halos during the last sweep
+
+    public WorkerTeam(int threads) {
+        this.threads = threads;
+        this.start = new CyclicBarrier(threads);
+        this.done = new CyclicBarrier(threads);
+        this.maxDelta = new double[threads * PADDING];
+        this.helpers = new Thread[threads - 1];
+
+        for (int t = 1; t < threads; t++) {
+            int member = t;
+            helpers[t - 1] = new Thread(() -> work(member), "sweep-worker-" + t);
+            helpers[t - 1].setDaemon(true);
+            helpers[t - 1].start();
+        }
+    }
+
+    // loop of a helper thread, relaxes its band of interior rows once per sweep
+    private void work(int member) {
+        try {
+            while (true) {
+                start.await();
+                if (!running) {
+                    return;
+                }
+                maxDelta[member * PADDING] = relaxBand(block, member);
+                done.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            // the team is being shut down
+        }
+    }
+
+    // relaxes the band of interior rows that belongs to a member of the team
+    private double relaxBand(Block block, int member) {
+        int rows = Math.max(block.localHeight - 2, 0);
+        int y0 = 2 + (int) ((long) rows * member / threads);
+        int y1 = 2 + (int) ((long) rows * (member + 1) / threads);
+        return block.relaxInteriorRows(y0, y1);
+    }
+
+    // performs one sweep of the block and returns its largest temperature change; the helpers relax the interior
+    // while the calling thread waits for the halos, finishes the rim and then relaxes its own band
+    public double sweep(Block block) throws MPIException {
+        block.startHaloExchange();
+
+        if (threads == 1) {
+            double interior = block.relaxInterior();
+            long waitStart = System.nanoTime();
+            block.finishHaloExchange();
+            waitTime = System.nanoTime() - waitStart;
+            return Math.max(interior, block.relaxRim());
+        }
+
+        this.block = block;
+        await(start);
+
+        long waitStart = System.nanoTime();
+        block.finishHaloExchange();
+        waitTime = System.nanoTime() - waitStart;
+        double result = Math.max(block.relaxRim(), relaxBand(block, 0));
+
+        await(done);
+        for (int t = 1; t < threads; t++) {
+            result = Math.max(result, maxDelta[t * PADDING]);
+        }
+        return result;
+    }
+
+    // time the calling thread spent waiting for halos during the last sweep
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    // stops the helper threads
+    public void shutdown() {
+        running = false;
+        if (threads > 1) {
+            await(start);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException("sweep worker team was interrupted", e);
+        }
+    }
+}
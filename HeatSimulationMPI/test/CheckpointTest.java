@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// checkpoints written block by block and read back by blocks of other process grids, the way a restart with a
+// different number of processes reads them; blocks of odd widths start in the middle of a byte of the bitmap
+//
+// runs without an MPI job in the mpi profile of HeatSimulationBenchmarks: mvn test -Dmpj.home=<MPJ Express>
+class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    // temperatures of a whole grid, fixed points where the cell is hot
+    private static double[] randomTemperatures(int width, int height, long seed) {
+        Random random = new Random(seed);
+        double[] temperatures = new double[width * height];
+        for (int i = 0; i < temperatures.length; i++) {
+            temperatures[i] = (random.nextInt(5) == 0) ? 100 : random.nextDouble() * 100;
+        }
+        return temperatures;
+    }
+
+    private static boolean[] fixedPoints(double[] temperatures) {
+        boolean[] fixed = new boolean[temperatures.length];
+        for (int i = 0; i < fixed.length; i++) {
+            fixed[i] = temperatures[i] == 100;
+        }
+        return fixed;
+    }
+
+    // writes the grid the way the processes of a rows x columns process grid do, every block from its own array
+    // with ghost cells around the owned ones
+    private Path write(int width, int height, double[] temperatures, int rows, int columns) throws IOException {
+        Path file = directory.resolve("grid.ckpt");
+        int[] rowBounds = Block.partition(height, rows);
+        int[] columnBounds = Block.partition(width, columns);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Checkpoint.writeHeader(channel, width, height, fixedPoints(temperatures), 1234, 89211208, "SOR");
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    int startX = columnBounds[c];
+                    int startY = rowBounds[r];
+                    int localWidth = columnBounds[c + 1] - startX;
+                    int localHeight = rowBounds[r + 1] - startY;
+                    int stride = localWidth + 2;
+                    double[] values = new double[stride * (localHeight + 2)];
+                    for (int y = 0; y < localHeight; y++) {
+                        System.arraycopy(temperatures, (startY + y) * width + startX, values,
+                                (y + 1) * stride + 1, localWidth);
+                    }
+                    Checkpoint.writeBlock(channel, width, height, startX, startY, localWidth, localHeight, values,
+                            stride + 1, stride);
+                }
+            }
+        }
+        return file;
+    }
+
+    // reads the checkpoint with the blocks of a rows x columns process grid and compares every block
+    private static void assertBlocks(Path file, int width, int height, double[] temperatures, int rows,
+                                     int columns) throws IOException {
+        Checkpoint checkpoint = Checkpoint.readHeader(file);
+        boolean[] fixed = fixedPoints(temperatures);
+        int[] rowBounds = Block.partition(height, rows);
+        int[] columnBounds = Block.partition(width, columns);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    int startX = columnBounds[c];
+                    int startY = rowBounds[r];
+                    int localWidth = columnBounds[c + 1] - startX;
+                    int localHeight = rowBounds[r + 1] - startY;
+                    double[] blockTemperatures = new double[localWidth * localHeight];
+                    boolean[] blockFixed = new boolean[blockTemperatures.length];
+                    checkpoint.readBlock(channel, startX, startY, localWidth, localHeight, blockTemperatures,
+                            blockFixed);
+
+                    double[] expectedTemperatures = new double[blockTemperatures.length];
+                    boolean[] expectedFixed = new boolean[blockTemperatures.length];
+                    for (int y = 0; y < localHeight; y++) {
+                        System.arraycopy(temperatures, (startY + y) * width + startX, expectedTemperatures,
+                                y * localWidth, localWidth);
+                        System.arraycopy(fixed, (startY + y) * width + startX, expectedFixed,
+                                y * localWidth, localWidth);
+                    }
+                    String name = width + "x" + height + " block " + r + "," + c + " of " + rows + "x" + columns;
+                    assertArrayEquals(expectedTemperatures, blockTemperatures, name);
+                    assertArrayEquals(expectedFixed, blockFixed, name);
+                }
+            }
+        }
+    }
+
+    @Test
+    void roundTripKeepsHeaderAndGrid() throws IOException {
+        int width = 40, height = 24;
+        double[] temperatures = randomTemperatures(width, height, 1);
+        Path file = write(width, height, temperatures, 2, 2);
+
+        Checkpoint checkpoint = Checkpoint.readHeader(file);
+        assertEquals(width, checkpoint.width);
+        assertEquals(height, checkpoint.height);
+        assertEquals(1234, checkpoint.iteration);
+        assertEquals(89211208, checkpoint.seed);
+        assertEquals("SOR", checkpoint.solver);
+        assertArrayEquals(fixedPoints(temperatures), checkpoint.readFixedPoints());
+        assertBlocks(file, width, height, temperatures, 2, 2);
+    }
+
+    @Test
+    void temperaturesStartAfterThePaddedBitmap() throws IOException {
+        for (int cells = 1; cells <= 200; cells++) {
+            long bitmapBytes = (cells + 7) / 8;
+            long offset = Checkpoint.temperatureOffset(cells);
+            assertEquals(0, offset % 8, "cells " + cells);
+            assertEquals(64 + bitmapBytes + (8 - bitmapBytes % 8) % 8, offset, "cells " + cells);
+        }
+
+        // 7 x 11 cells need 10 bytes of bitmap, the temperatures start at 64 + 16
+        int width = 7, height = 11;
+        double[] temperatures = randomTemperatures(width, height, 2);
+        Path file = write(width, height, temperatures, 1, 1);
+        assertEquals(80, Checkpoint.temperatureOffset(width * height));
+        assertEquals(80 + 8L * width * height, Files.size(file));
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 64 + 10; i < 80; i++) {
+            assertEquals(0, bytes.get(i), "padding byte " + i);
+        }
+        for (int i = 0; i < temperatures.length; i++) {
+            assertEquals(temperatures[i], bytes.getDouble(80 + 8 * i), "cell " + i);
+        }
+    }
+
+    @Test
+    void oddWidthsRoundTrip() throws IOException {
+        for (int width = 1; width <= 19; width += 2) {
+            for (int height = 1; height <= 5; height++) {
+                double[] temperatures = randomTemperatures(width, height, 31L * width + height);
+                Path file = write(width, height, temperatures, 1, 1);
+                assertBlocks(file, width, height, temperatures, 1, 1);
+                assertArrayEquals(fixedPoints(temperatures), Checkpoint.readHeader(file).readFixedPoints());
+            }
+        }
+    }
+
+    @Test
+    void restartOnADifferentProcessGrid() throws IOException {
+        // blocks of 37 columns start at bits that are no multiple of 8 in every row but the first
+        int width = 37, height = 23;
+        double[] temperatures = randomTemperatures(width, height, 3);
+        Path file = write(width, height, temperatures, 2, 3);
+        int[][] grids = {{1, 1}, {3, 2}, {1, 4}, {5, 1}, {4, 7}, {23, 37}};
+        for (int[] grid : grids) {
+            assertBlocks(file, width, height, temperatures, grid[0], grid[1]);
+        }
+    }
+}